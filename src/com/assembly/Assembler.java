@@ -18,6 +18,9 @@ import java.io.IOException;
 import java.util.*;
 
 public class Assembler {
+    //Version of the encoding, change it whenever the same source would assemble differently.
+    public static final String VERSION = "Assembler 1";
+
     //Singleton Variable
     private static Assembler instance = null;
 
@@ -36,7 +39,7 @@ public class Assembler {
     private HashSet<Integer> label_flag;
 
     //Class methods
-    private Assembler(){
+    Assembler(){
         label_table = new HashMap<>();
         literals = new ArrayList<>();
         str_literals = new ArrayList<>();
@@ -52,7 +55,7 @@ public class Assembler {
         File in_file = new File(filename);
         Scanner fin = new Scanner(in_file);
         ArrayList<ArrayList<String>> lines = new ArrayList<>();
-        ArrayList<ArrayList<Byte>> result = new ArrayList<>();
+        ArrayList<byte[]> result = new ArrayList<>();
         int current_line = 0;
         int parsable_lines = 0;
         while(fin.hasNextLine()){
@@ -81,9 +84,9 @@ public class Assembler {
         }
         ArrayList<Integer> line_byte = new ArrayList<>();
         int total_bytes = 0;
-        for (ArrayList<Byte> bytes : result) {
+        for (byte[] bytes : result) {
             line_byte.add(total_bytes);
-            total_bytes += bytes.size();
+            total_bytes += bytes.length;
         }
         //Apply proper labels
         byte[] final_result = new byte[total_bytes];
@@ -93,27 +96,25 @@ public class Assembler {
             if(label_flag.contains(i)){
                 int literal = 0;
                 for(int j = 1;j <= 5;j++){
-                    literal += result.get(i).get(j);
+                    literal += result.get(i)[j];
                     if(j < 5)literal = literal << 8;
                 }
                 literal = line_byte.get(literal);
                 for(int j = 5;j > 0;j--){
                     byte ls_byte = (byte)(literal & 0xFF);
-                    result.get(i).set(j, ls_byte);
+                    result.get(i)[j] = ls_byte;
                     literal = literal >> 8;
                 }
             }
             //Shift to final byte array
-            for(int j = 0;j < result.get(i).size();j++){
-                final_result[ins_idx+j] = result.get(i).get(j);
-            }
-            ins_idx += result.get(i).size();
+            System.arraycopy(result.get(i), 0, final_result, ins_idx, result.get(i).length);
+            ins_idx += result.get(i).length;
         }
         return final_result;
     }
 
-    private ArrayList<Byte> line_to_bytes(ArrayList<String> tokens, int line_num) throws AssemblyException {
-        ArrayList<Byte> result = new ArrayList<>();
+    private byte[] line_to_bytes(ArrayList<String> tokens, int line_num) throws AssemblyException {
+        byte[] result = null;
         int line_match;
         byte cmd = 0;
         try {
@@ -126,38 +127,34 @@ public class Assembler {
         switch(cmd) {
             //No argument commands
             case 0x00, 0x01, 0x02, (byte) 0xFF:
-                result.add(cmd);
+                result = new byte[]{cmd};
                 break;
             //Single register commands
             case 0x10, 0x12, 0x13, 0x14, 0x15, 0x1B:
-                result.add(cmd);
-                result.add(parse_register(tokens.get(1)));
+                result = new byte[]{cmd, parse_register(tokens.get(1))};
                 break;
             //Double register commands
-            case 0x07, 0x0A, 0x0B, 0x0F, 0x11, 0x17, 0x18, 0x19, 0x1A, 0x1C:
-                result.add(cmd);
-                result.add(parse_register(tokens.get(1)));
-                result.add(parse_register(tokens.get(2)));
+            case 0x07, 0x0A, 0x0B, 0x0F, 0x11, 0x17, 0x18, 0x19, 0x1A, 0x1C, 0x21, 0x22:
+                result = new byte[]{cmd, parse_register(tokens.get(1)), parse_register(tokens.get(2))};
                 break;
             //Triple register commands
             case 0x03, 0x04, 0x05, 0x06, 0x08, 0x09, 0x0C, 0x0D, 0x0E:
-                result.add(cmd);
-                result.add(parse_register(tokens.get(1)));
-                result.add(parse_register(tokens.get(2)));
-                result.add(parse_register(tokens.get(3)));
+                result = new byte[]{cmd, parse_register(tokens.get(1)), parse_register(tokens.get(2)),
+                        parse_register(tokens.get(3))};
                 break;
             //Number literal commands
             case 0x1D:
-                result.add(cmd);
+                result = new byte[5];
+                result[0] = cmd;
                 literal = Integer.parseInt(tokens.get(1));
-                for(int j = 0;j < 4;j++){
-                    byte ls_byte = (byte)(literal & 0xFF);
-                    result.add(ls_byte);
+                for(int j = 1;j <= 4;j++){
+                    result[j] = (byte)(literal & 0xFF);
                     literal = literal >> 8;
                 }
                 break;
             case 0x1E:
-                result.add(cmd);
+                result = new byte[5];
+                result[0] = cmd;
                 try{
                     literal = Integer.parseInt(tokens.get(1));
                 } catch (NumberFormatException exp){
@@ -171,16 +168,16 @@ public class Assembler {
                         throw new AssemblyUnknownArgumentException("UNKNOWN LABEL: " + label, line_match);
                     }
                 }
-                for(int j = 0;j < 4;j++){
-                    byte ls_byte = (byte)(literal & 0xFF);
-                    result.add(ls_byte);
+                for(int j = 1;j <= 4;j++){
+                    result[j] = (byte)(literal & 0xFF);
                     literal = literal >> 8;
                 }
                 break;
             //Register literal commands
             case 0x1F:
-                result.add(cmd);
-                result.add(parse_register(tokens.get(1)));
+                result = new byte[6];
+                result[0] = cmd;
+                result[1] = parse_register(tokens.get(1));
                 //Deal with labels
                 try{
                     literal = Integer.parseInt(tokens.get(2));
@@ -195,12 +192,13 @@ public class Assembler {
                         throw new AssemblyUnknownArgumentException("UNKNOWN LABEL: " + label, line_match);
                     }
                 }
-                for(int j = 0;j < 4;j++){
-                    byte ls_byte = (byte)(literal & 0xFF);
-                    result.add(ls_byte);
+                for(int j = 2;j <= 5;j++){
+                    result[j] = (byte)(literal & 0xFF);
                     literal = literal >> 8;
                 }
                 break;
+            default:
+                result = new byte[0];
         }
         return result;
     }
@@ -11,16 +11,39 @@
 package com.assembly;
 
 import com.assembly.exceptions.AssemblyException;
+import com.hardware.CPU;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
 
 public class AssemblerTests {
     public static void main(String[] args){
         System.out.println("SAC-RISC Assembly Tests");
         if(tokenTests())System.out.println("RISCToken Tests Passed.");
         if(tokenizerTests())System.out.println("RISCTokenizer Tests Passed.");
+        if(tokenSpanTests())System.out.println("RISCTokenSpans Tests Passed.");
         if(assemblerTests())System.out.println("RISCAssembler Tests Passed.");
+        if(relocationTests())System.out.println("Relocation Tests Passed.");
+        if(parallelTests())System.out.println("Parallel Assembly Tests Passed.");
+        if(streamingTests())System.out.println("Streaming Assembly Tests Passed.");
+        if(cacheTests())System.out.println("Assembly Cache Tests Passed.");
+        if(incrementalTests())System.out.println("Incremental Assembly Tests Passed.");
+        if(linkerTests())System.out.println("Linker Tests Passed.");
+        if(optimizerTests())System.out.println("Optimizer Tests Passed.");
+        if(relaxationTests())System.out.println("Branch Relaxation Tests Passed.");
     }
 
     //Tests the RISCToken class
@@ -99,6 +122,14 @@ public class AssemblerTests {
                 System.err.printf("GOT: %s\n", tokens.get(4));
                 passed = false;
             }
+            //Backslashes in strings are dropped, keeping the character after them.
+            tokens = RISCTokenizer.tokenize("\"a\\nb\\\\c\"", 0);
+            if(tokens.size() != 1 || !tokens.get(0).contents.equals("anbc")){
+                System.err.println("ERROR TOKENIZING STRING ESCAPES.");
+                System.err.printf("EXPECTED: %s\n", "anbc");
+                System.err.printf("GOT: %s\n", tokens);
+                passed = false;
+            }
         }
         catch(AssemblyException exp){
             System.err.println("COULD NOT TOKENIZE LINE.");
@@ -108,6 +139,65 @@ public class AssemblerTests {
         return passed;
     }
 
+    //Tests the span form of the tokenizer
+    private static boolean tokenSpanTests(){
+        boolean passed = true;
+        String line = "loop: BRANCH_label $rs -42 \"a\\\"b\" name # Comment";
+        RISCTokenizer.RISC_TYPE[] types = {RISCTokenizer.RISC_TYPE.LABEL, RISCTokenizer.RISC_TYPE.CMD,
+                RISCTokenizer.RISC_TYPE.REG, RISCTokenizer.RISC_TYPE.NUM, RISCTokenizer.RISC_TYPE.STRING,
+                RISCTokenizer.RISC_TYPE.IDENT};
+        String[] texts = {"loop", "BRANCH_label", "rs", "-42", "a\\\"b", "name"};
+        RISCTokenSpans spans = new RISCTokenSpans();
+        try {
+            RISCTokenizer.tokenize(line, 1, spans);
+            if(spans.size() != types.length){
+                System.err.println("INCORRECT NUMBER OF TOKEN SPANS.");
+                System.err.printf("EXPECTED: %d\n", types.length);
+                System.err.printf("GOT: %d\n", spans.size());
+                return false;
+            }
+            for(int i = 0;i < types.length;i++){
+                if(spans.type(i) != types[i] || !spans.text(i).equals(texts[i])){
+                    System.err.printf("ERROR IN TOKEN SPAN %d.\n", i);
+                    System.err.printf("EXPECTED: %s %s\n", types[i], texts[i]);
+                    System.err.printf("GOT: %s %s\n", spans.type(i), spans.text(i));
+                    passed = false;
+                }
+            }
+            if(spans.command(1) != RISCCommandList.BRANCH_LABEL){
+                System.err.println("COMMAND NOT DECODED.");
+                passed = false;
+            }
+            if(spans.value(2) != CPU.rs || spans.value(3) != -42){
+                System.err.println("REGISTER OR NUMBER NOT DECODED.");
+                passed = false;
+            }
+        } catch (AssemblyException exp){
+            System.err.println("COULD NOT TOKENIZE LINE.");
+            System.err.println(exp);
+            passed = false;
+        }
+        //Unknown registers are still rejected.
+        try {
+            RISCTokenizer.tokenize("COPY $1 $xy", 1, spans);
+            System.err.println("UNKNOWN REGISTER NOT REPORTED.");
+            passed = false;
+        } catch (AssemblyException ignored){
+        }
+        //Reusing the buffer for a shorter line leaves no stale tokens.
+        try {
+            RISCTokenizer.tokenize("halt", 2, spans);
+            if(spans.size() != 1 || spans.command(0) != RISCCommandList.HALT){
+                System.err.println("TOKEN SPAN BUFFER NOT CLEARED.");
+                passed = false;
+            }
+        } catch (AssemblyException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        return passed;
+    }
+
     //Tests for the assembler
     private static boolean assemblerTests(){
         boolean passed = true;
@@ -130,7 +220,7 @@ public class AssemblerTests {
                             (byte)0x00,
                             (byte)0x12, (byte)0x05,
                             (byte)0x1E, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0F};
-        ArrayList<Byte> attempt = null;
+        byte[] attempt = null;
         try {
             attempt = RISCAssembler.assemble(program);
         } catch (AssemblyException exp){
@@ -141,21 +231,551 @@ public class AssemblerTests {
             System.err.println("PROBLEM WITH ASSEMBLY, SEE ERROR ABOVE.");
             passed = false;
         }
-        else if(attempt.size() != assemlbed.length){
+        else if(attempt.length != assemlbed.length){
             System.err.println("ASSEMBLED PROGRAM NOT OF PROPER LENGTH.");
             System.err.printf("EXPECTED: %d\n", assemlbed.length);
-            System.err.printf("GOT: %d\n", attempt.size());
+            System.err.printf("GOT: %d\n", attempt.length);
         }
         else{
-            for(int i = 0;i < attempt.size();i++){
-                if(attempt.get(i) != assemlbed[i]){
+            for(int i = 0;i < attempt.length;i++){
+                if(attempt[i] != assemlbed[i]){
                     passed = false;
                     System.err.printf("INCORRECT BYTE-CODE AT BYTE %d\n", i);
                     System.err.printf("ExPECTED: %d\n", assemlbed[i]);
-                    System.err.printf("GOT: %d\n", attempt.get(i));
+                    System.err.printf("GOT: %d\n", attempt[i]);
                 }
             }
         }
         return passed;
     }
-}
\ No newline at end of file
+
+    //Tests label arguments that refer forward and backward, and unknown labels.
+    private static boolean relocationTests(){
+        boolean passed = true;
+        String program_raw =
+                """
+                   START: BRANCH_LABEL $1 END
+                   JUMP_LABEL START
+                   END: HALT
+                   """;
+        ArrayList<String> program = new ArrayList<String>(List.of(program_raw.split("\n")));
+        byte[] assembled = {(byte)0x1F, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x0B,
+                            (byte)0x1E, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+                            (byte)0xFF};
+        try {
+            byte[] attempt = RISCAssembler.assemble(program);
+            if(!Arrays.equals(attempt, assembled)){
+                System.err.println("LABEL ARGUMENTS NOT RESOLVED.");
+                System.err.printf("EXPECTED: %s\n", Arrays.toString(assembled));
+                System.err.printf("GOT: %s\n", Arrays.toString(attempt));
+                passed = false;
+            }
+        } catch (AssemblyException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        program = new ArrayList<String>(List.of("NOP", "JUMP_LABEL NOWHERE"));
+        try {
+            RISCAssembler.assemble(program);
+            System.err.println("UNKNOWN LABEL NOT REPORTED.");
+            passed = false;
+        } catch (AssemblyException exp){
+            if(!exp.toString().startsWith("Error on line 2\n")){
+                System.err.println("UNKNOWN LABEL REPORTED ON THE WRONG LINE.");
+                System.err.println(exp);
+                passed = false;
+            }
+        }
+        return passed;
+    }
+
+    //Tests that parallel assembly matches sequential assembly, including errors.
+    private static boolean parallelTests(){
+        boolean passed = true;
+        ArrayList<String> program = new ArrayList<>();
+        for(int i = 0;i < 20000;i++){
+            switch(i % 5){
+                case 0 -> program.add(String.format("L%d: SET $1 %d", i, i));
+                case 1 -> program.add("ADD $1 $2 $3");
+                case 2 -> program.add(String.format("BRANCH_LABEL $1 L%d", (i*7919) % 20000 / 5 * 5));
+                case 3 -> program.add("# Comment");
+                case 4 -> program.add(String.format("JUMP_LABEL L%d", 19995 - i / 5 * 5));
+            }
+        }
+        try {
+            byte[] expected = RISCAssembler.assemble(program);
+            byte[] attempt = RISCAssembler.assemble_parallel(program);
+            if(!Arrays.equals(expected, attempt)){
+                System.err.println("PARALLEL ASSEMBLY DIFFERS FROM SEQUENTIAL ASSEMBLY.");
+                passed = false;
+            }
+        } catch (AssemblyException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        //A label defined again in a later chunk is bound to its last definition, as in assemble.
+        program.set(16003, "L5: SET $1 3");
+        try {
+            if(!Arrays.equals(RISCAssembler.assemble(program), RISCAssembler.assemble_parallel(program))){
+                System.err.println("PARALLEL ASSEMBLY BOUND A REDEFINED LABEL DIFFERENTLY.");
+                passed = false;
+            }
+        } catch (AssemblyException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        //The first error in the program is reported, even when a later chunk fails first.
+        program.set(15000, "JUMP_LABEL NOWHERE");
+        program.set(12000, "ADD $1 $2");
+        String expected = null;
+        String attempt = null;
+        try {
+            RISCAssembler.assemble(program);
+        } catch (AssemblyException exp){
+            expected = exp.toString();
+        }
+        try {
+            RISCAssembler.assemble_parallel(program);
+        } catch (AssemblyException exp){
+            attempt = exp.toString();
+        }
+        if(expected == null || !expected.equals(attempt)){
+            System.err.println("PARALLEL ASSEMBLY REPORTED A DIFFERENT ERROR.");
+            System.err.printf("EXPECTED: %s\n", expected);
+            System.err.printf("GOT: %s\n", attempt);
+            passed = false;
+        }
+        return passed;
+    }
+
+    //Tests that streaming assembly matches assemble, to a stream and to a file.
+    private static boolean streamingTests(){
+        boolean passed = true;
+        ArrayList<String> program = new ArrayList<>();
+        for(int i = 0;i < 30000;i++){
+            switch(i % 4){
+                case 0 -> program.add(String.format("L%d: SET $1 %d", i, i));
+                case 1 -> program.add(String.format("BRANCH_LABEL $1 L%d", (i*7919) % 30000 / 4 * 4));
+                case 2 -> program.add("");
+                case 3 -> program.add(String.format("JUMP_LABEL L%d", 29996 - i / 4 * 4));
+            }
+        }
+        //Mix the line endings the reader has to handle.
+        StringBuilder source = new StringBuilder();
+        for(int i = 0;i < program.size();i++){
+            source.append(program.get(i));
+            source.append((i % 3 == 0) ? "\r\n" : (i % 3 == 1) ? "\n" : "\r");
+        }
+        byte[] source_bytes = source.toString().getBytes(StandardCharsets.UTF_8);
+        Path in_file = null;
+        Path out_file = null;
+        try {
+            byte[] expected = RISCAssembler.assemble(program);
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            long written = RISCAssembler.assemble_stream(Channels.newChannel(new ByteArrayInputStream(source_bytes)), streamed);
+            if(written != expected.length || !Arrays.equals(expected, streamed.toByteArray())){
+                System.err.println("STREAMED ASSEMBLY DIFFERS FROM ASSEMBLE.");
+                passed = false;
+            }
+            in_file = Files.createTempFile("stream", ".sasm");
+            out_file = Files.createTempFile("stream", ".bin");
+            Files.write(in_file, source_bytes);
+            written = RISCAssembler.assemble_file(in_file.toString(), out_file.toString());
+            if(written != expected.length || !Arrays.equals(expected, Files.readAllBytes(out_file))){
+                System.err.println("FILE ASSEMBLY DIFFERS FROM ASSEMBLE.");
+                passed = false;
+            }
+        } catch (AssemblyException | IOException exp){
+            System.err.println(exp);
+            passed = false;
+        } finally {
+            try {
+                if(in_file != null)Files.deleteIfExists(in_file);
+                if(out_file != null)Files.deleteIfExists(out_file);
+            } catch (IOException ignored){
+            }
+        }
+        //A streamed label may only be defined once, references to it may already be written.
+        ArrayList<String> duplicated = new ArrayList<>(List.of("A: NOP", "JUMP_LABEL A", "A: HALT"));
+        try {
+            RISCAssembler.assemble_stream(Channels.newChannel(new ByteArrayInputStream(
+                    String.join("\n", duplicated).getBytes(StandardCharsets.UTF_8))), new ByteArrayOutputStream());
+            System.err.println("DUPLICATE LABEL NOT REPORTED WHEN STREAMING.");
+            passed = false;
+        } catch (AssemblyException exp){
+            if(!exp.toString().startsWith("Error on line 3\n")){
+                System.err.println("DUPLICATE LABEL REPORTED ON THE WRONG LINE.");
+                System.err.println(exp);
+                passed = false;
+            }
+        } catch (IOException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        //assemble binds a label defined twice to its last definition.
+        try {
+            byte[] last = RISCAssembler.assemble(new ArrayList<>(List.of("NOP", "JUMP_LABEL A", "A: HALT")));
+            if(!Arrays.equals(last, RISCAssembler.assemble(duplicated))){
+                System.err.println("DUPLICATE LABEL NOT BOUND TO ITS LAST DEFINITION.");
+                passed = false;
+            }
+        } catch (AssemblyException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        return passed;
+    }
+
+    //Tests that the cache returns what the assembler would, and when it assembles again.
+    private static boolean cacheTests(){
+        boolean passed = true;
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("asmcache");
+            Path source = directory.resolve("program.sasm");
+            Files.writeString(source, "LOOP: SET $1 5\nOUTPUT $1\nJUMP_LABEL LOOP\n");
+            byte[] expected = RISCAssembler.assemble_file(source.toString());
+            AssemblyCache cache = new AssemblyCache(directory.resolve("cache"), 1 << 20, 1 << 20);
+            byte[] first = cache.assemble_file(source.toString());
+            byte[] second = cache.assemble_file(source.toString());
+            if(!Arrays.equals(expected, first) || !Arrays.equals(expected, second)){
+                System.err.println("CACHED PROGRAM DIFFERS FROM ASSEMBLED PROGRAM.");
+                passed = false;
+            }
+            if(cache.get_misses() != 1 || cache.get_memory_hits() != 1){
+                System.err.println("SECOND ASSEMBLY NOT ANSWERED FROM MEMORY.");
+                passed = false;
+            }
+            //A new cache over the same directory finds the entry on disk.
+            AssemblyCache reopened = new AssemblyCache(directory.resolve("cache"), 1 << 20, 1 << 20);
+            if(!Arrays.equals(expected, reopened.assemble_file(source.toString())) || reopened.get_disk_hits() != 1){
+                System.err.println("ENTRY NOT FOUND ON DISK.");
+                passed = false;
+            }
+            //Editing the source assembles it again.
+            Files.writeString(source, "HALT\n");
+            if(!Arrays.equals(new byte[]{(byte)0xFF}, reopened.assemble_file(source.toString()))
+                    || reopened.get_misses() != 1){
+                System.err.println("EDITED SOURCE NOT ASSEMBLED AGAIN.");
+                passed = false;
+            }
+            //A cache too small for two entries keeps only the latest on disk.
+            AssemblyCache small = new AssemblyCache(directory.resolve("small"), expected.length, 0);
+            Files.writeString(source, "LOOP: SET $1 5\nOUTPUT $1\nJUMP_LABEL LOOP\n");
+            small.assemble_file(source.toString());
+            Files.writeString(source, "LOOP: SET $1 6\nOUTPUT $1\nJUMP_LABEL LOOP\n");
+            small.assemble_file(source.toString());
+            long entries;
+            try(Stream<Path> listing = Files.list(directory.resolve("small"))){
+                entries = listing.count();
+            }
+            if(entries != 1){
+                System.err.printf("EXPECTED 1 ENTRY ON DISK, GOT %d.\n", entries);
+                passed = false;
+            }
+            cache.clear();
+            small.clear();
+        } catch (AssemblyException | IOException exp){
+            System.err.println(exp);
+            passed = false;
+        } finally {
+            try {
+                if(directory != null){
+                    try(Stream<Path> walk = Files.walk(directory)){
+                        for(Path path : walk.sorted(Comparator.reverseOrder()).toList())Files.deleteIfExists(path);
+                    }
+                }
+            } catch (IOException ignored){
+            }
+        }
+        return passed;
+    }
+
+    //Tests that random edits reassemble to what assemble gives for the edited source.
+    private static boolean incrementalTests(){
+        boolean passed = true;
+        Random rand = new Random(47);
+        ArrayList<String> program = new ArrayList<>();
+        for(int i = 0;i < 200;i++)program.add(String.format("L%d: SET $1 %d", i, i));
+        String[] shapes = {"JUMP_LABEL L%d", "BRANCH_LABEL $2 L%d", "NOP", "", "# Comment", "ADD $1 $2 $3",
+                           "N%d: OUTPUT $1", "SET $3 %d"};
+        try {
+            RISCIncrementalAssembler incremental = new RISCIncrementalAssembler(program);
+            for(int edit = 0;edit < 500 && passed;edit++){
+                int first = rand.nextInt(program.size() + 1);
+                int last = Math.min(program.size(), first + rand.nextInt(3));
+                ArrayList<String> replacement = new ArrayList<>();
+                for(int i = rand.nextInt(3);i > 0;i--){
+                    replacement.add(String.format(shapes[rand.nextInt(shapes.length)], rand.nextInt(200)));
+                }
+                ArrayList<String> edited = new ArrayList<>(program.subList(0, first));
+                edited.addAll(replacement);
+                edited.addAll(program.subList(last, program.size()));
+                String expected_error = null;
+                byte[] expected = null;
+                try {
+                    expected = RISCAssembler.assemble(edited);
+                } catch (AssemblyException exp){
+                    expected_error = exp.toString();
+                }
+                try {
+                    byte[] attempt = incremental.replace(first, last, replacement);
+                    if(expected == null || !Arrays.equals(expected, attempt)){
+                        System.err.printf("INCREMENTAL ASSEMBLY DIFFERS AFTER EDIT %d.\n", edit);
+                        passed = false;
+                    }
+                    program = edited;
+                } catch (AssemblyException exp){
+                    if(!exp.toString().equals(expected_error)){
+                        System.err.printf("INCREMENTAL ASSEMBLY REPORTED A DIFFERENT ERROR AFTER EDIT %d.\n", edit);
+                        System.err.printf("EXPECTED: %s\n", expected_error);
+                        System.err.printf("GOT: %s\n", exp);
+                        passed = false;
+                    }
+                    //A rejected edit leaves the program as it was.
+                    if(!Arrays.equals(RISCAssembler.assemble(program), incremental.get_program())){
+                        System.err.printf("REJECTED EDIT %d CHANGED THE PROGRAM.\n", edit);
+                        passed = false;
+                    }
+                }
+            }
+        } catch (AssemblyException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        return passed;
+    }
+
+    //Tests assembling modules into objects and linking them.
+    private static boolean linkerTests(){
+        boolean passed = true;
+        ArrayList<String> main = new ArrayList<>(List.of("START: SET $1 5", "SET $ra BACK", "JUMP_LABEL PRINT",
+                                                          "BACK: HALT"));
+        ArrayList<String> library = new ArrayList<>(List.of("PRINT: OUTPUT $1", "JUMP $ra"));
+        try {
+            //Linking matches assembling the modules as one source.
+            ArrayList<String> whole = new ArrayList<>(main);
+            whole.addAll(library);
+            byte[] expected = RISCAssembler.assemble(whole);
+            RISCObject main_obj = RISCAssembler.assemble_object("main", main);
+            RISCObject library_obj = RISCAssembler.assemble_object("library", library);
+            if(!main_obj.get_externals().equals(List.of("PRINT"))){
+                System.err.printf("EXPECTED EXTERNALS [PRINT], GOT %s.\n", main_obj.get_externals());
+                passed = false;
+            }
+            //Objects survive being written and read back.
+            ByteArrayOutputStream written = new ByteArrayOutputStream();
+            library_obj.write(written);
+            library_obj = RISCObject.read(new ByteArrayInputStream(written.toByteArray()));
+            //A corrupt code length is reported as an IOException, not allocated.
+            for(int length : new int[]{-1, Integer.MAX_VALUE - 8}){
+                ByteBuffer corrupt = ByteBuffer.wrap(written.toByteArray());
+                corrupt.putInt(2*Integer.BYTES + 2 + "library".length(), length);
+                try {
+                    RISCObject.read(new ByteArrayInputStream(corrupt.array()));
+                    System.err.printf("CORRUPT CODE LENGTH %d NOT REPORTED.\n", length);
+                    passed = false;
+                } catch (IOException ignored){
+                }
+            }
+            byte[] linked = RISCLinker.link(List.of(main_obj, library_obj));
+            if(!Arrays.equals(expected, linked)){
+                System.err.println("LINKED PROGRAM DIFFERS FROM ASSEMBLED PROGRAM.");
+                System.err.printf("EXPECTED: %s\n", Arrays.toString(expected));
+                System.err.printf("GOT: %s\n", Arrays.toString(linked));
+                passed = false;
+            }
+            //Each object keeps its own copy of a label both define.
+            RISCObject first = RISCAssembler.assemble_object("first", new ArrayList<>(List.of("LOOP: JUMP_LABEL LOOP")));
+            RISCObject second = RISCAssembler.assemble_object("second", new ArrayList<>(List.of("NOP", "LOOP: JUMP_LABEL LOOP")));
+            linked = RISCLinker.link(List.of(first, second));
+            byte[] loops = {0x1E, 0x00, 0x00, 0x00, 0x00, 0x00, 0x1E, 0x00, 0x00, 0x00, 0x06};
+            if(!Arrays.equals(loops, linked)){
+                System.err.println("LOCAL LABELS NOT KEPT LOCAL.");
+                System.err.printf("EXPECTED: %s\n", Arrays.toString(loops));
+                System.err.printf("GOT: %s\n", Arrays.toString(linked));
+                passed = false;
+            }
+            //A label no object defines, or two others define, cannot be linked.
+            RISCObject caller = RISCAssembler.assemble_object("caller", new ArrayList<>(List.of("JUMP_LABEL LOOP")));
+            try {
+                RISCLinker.link(List.of(caller));
+                System.err.println("UNDEFINED LABEL NOT REPORTED.");
+                passed = false;
+            } catch (AssemblyException ignored){
+            }
+            try {
+                RISCLinker.link(List.of(caller, first, second));
+                System.err.println("AMBIGUOUS LABEL NOT REPORTED.");
+                passed = false;
+            } catch (AssemblyException ignored){
+            }
+        } catch (AssemblyException | IOException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        return passed;
+    }
+
+    //Tests that the peephole optimizer removes redundant lines and keeps labels where they belong.
+    private static boolean optimizerTests(){
+        boolean passed = true;
+        String program_raw =
+                """
+                   START: SET $1 5
+                   SET $1 7
+                   COPY $2 $2
+                   PUSH_STK $3
+                   POP_STK $3
+                   JUMP_LABEL NEXT
+                   NEXT:
+                   OUTPUT $1
+                   BRANCH_LABEL $1 START
+                   PUSH_STK $4
+                   AGAIN: POP_STK $4
+                   JUMP_LABEL AGAIN
+                   END:
+                   """;
+        ArrayList<String> program = new ArrayList<String>(List.of(program_raw.split("\n")));
+        byte[] optimized = {(byte)0x20, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x07,
+                            (byte)0x12, (byte)0x01,
+                            (byte)0x1F, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x00,
+                            (byte)0x14, (byte)0x04,
+                            (byte)0x15, (byte)0x04,
+                            (byte)0x1E, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x10,
+                            (byte)0x00};
+        try {
+            byte[] attempt = RISCAssembler.assemble(program, true);
+            if(!Arrays.equals(optimized, attempt)){
+                System.err.println("OPTIMIZED PROGRAM INCORRECT.");
+                System.err.printf("EXPECTED: %s\n", Arrays.toString(optimized));
+                System.err.printf("GOT: %s\n", Arrays.toString(attempt));
+                passed = false;
+            }
+            //Registers the CPU lacks and the program counter are left alone.
+            program = new ArrayList<String>(List.of("COPY $20 $20", "SET $pc 0", "SET $pc 6", "HALT"));
+            if(RISCAssembler.assemble(program, true).length != RISCAssembler.assemble(program).length){
+                System.err.println("OPTIMIZER REMOVED A LINE WITH EFFECTS.");
+                passed = false;
+            }
+        } catch (AssemblyException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        return passed;
+    }
+
+    private static boolean relaxationTests(){
+        boolean passed = true;
+        String program_raw =
+                """
+                   START: SET $1 5
+                   LOOP: BRANCH_LABEL $1 END
+                   JUMP_LABEL LOOP
+                   END: HALT
+                   """;
+        ArrayList<String> program = new ArrayList<String>(List.of(program_raw.split("\n")));
+        byte[] relaxed = {(byte)0x20, (byte)0x01, (byte)0x00, (byte)0x00, (byte)0x00, (byte)0x05,
+                          (byte)0x25, (byte)0x01, (byte)0x02,
+                          (byte)0x23, (byte)0xFB,
+                          (byte)0xFF};
+        try {
+            byte[] attempt = RISCAssembler.assemble(program, false, true);
+            if(!Arrays.equals(relaxed, attempt)){
+                System.err.println("RELAXED PROGRAM INCORRECT.");
+                System.err.printf("EXPECTED: %s\n", Arrays.toString(relaxed));
+                System.err.printf("GOT: %s\n", Arrays.toString(attempt));
+                passed = false;
+            }
+            //Random jumps over a program too long for every target to be reached relatively.
+            Random rand = new Random(50);
+            program = new ArrayList<>();
+            int lines = 16000;
+            for(int i = 0;i < lines;i++){
+                String line = switch(rand.nextInt(6)){
+                    case 0 -> "JUMP_LABEL L" + rand.nextInt(lines);
+                    case 1 -> "BRANCH_LABEL $2 L" + rand.nextInt(lines);
+                    case 2 -> "JUMP_LABEL L" + Math.max(0, Math.min(lines - 1, i + rand.nextInt(81) - 40));
+                    case 3 -> "NOP";
+                    default -> "SET $1 7";
+                };
+                program.add("L" + i + ": " + line);
+            }
+            byte[] absolute = RISCAssembler.assemble(program);
+            attempt = RISCAssembler.assemble(program, false, true);
+            int[] expected = jump_targets(absolute);
+            int[] got = jump_targets(attempt);
+            if(!Arrays.equals(expected, got)){
+                System.err.println("RELAXED JUMPS REACH THE WRONG LINES.");
+                passed = false;
+            }
+            int[] forms = new int[256];
+            for(int at : instruction_starts(attempt))forms[attempt[at] & 0xFF] += 1;
+            if(forms[0x23] == 0 || forms[0x24] == 0 || forms[0x25] == 0 || forms[0x26] == 0
+                    || forms[0x1E] == 0 || forms[0x1F] == 0 || attempt.length >= absolute.length){
+                System.err.println("RELAXATION DID NOT PICK THE SHORTEST FORMS.");
+                System.err.printf("Forms: %s\n", Arrays.toString(Arrays.copyOfRange(forms, 0x1E, 0x27)));
+                passed = false;
+            }
+            //Label arguments to labels the program lacks are still errors.
+            try{
+                RISCAssembler.assemble(new ArrayList<String>(List.of("JUMP_LABEL NOWHERE")), false, true);
+                System.err.println("RELAXATION ACCEPTED AN UNKNOWN LABEL.");
+                passed = false;
+            }
+            catch(AssemblyException ignored){
+            }
+        } catch (AssemblyException exp){
+            System.err.println(exp);
+            passed = false;
+        }
+        return passed;
+    }
+
+    //Precond:
+    //  code holds only NOP, SET, JUMP_LABEL and BRANCH_LABEL lines, or their relative forms.
+    //
+    //Postcond:
+    //  Returns the offset of each instruction in the code.
+    private static ArrayList<Integer> instruction_starts(byte[] code){
+        ArrayList<Integer> starts = new ArrayList<>();
+        int at = 0;
+        while(at < code.length){
+            starts.add(at);
+            at += switch(code[at]){
+                case 0x00 -> 1;
+                case 0x23 -> 2;
+                case 0x24, 0x25 -> 3;
+                case 0x26 -> 4;
+                case 0x1E -> 5;
+                default -> 6;
+            };
+        }
+        return starts;
+    }
+
+    //Precond:
+    //  code holds only NOP, SET, JUMP_LABEL and BRANCH_LABEL lines, or their relative forms.
+    //
+    //Postcond:
+    //  Returns the index of the instruction each instruction jumps to, -1 for those that do not.
+    private static int[] jump_targets(byte[] code){
+        ArrayList<Integer> starts = instruction_starts(code);
+        int[] targets = new int[starts.size()];
+        for(int i = 0;i < targets.length;i++){
+            int at = starts.get(i);
+            int next = (i + 1 < starts.size()) ? starts.get(i + 1) : code.length;
+            int target = switch(code[at]){
+                case 0x1E -> ByteBuffer.wrap(code, at + 1, 4).getInt();
+                case 0x1F -> ByteBuffer.wrap(code, at + 2, 4).getInt();
+                case 0x23 -> next + code[at + 1];
+                case 0x24 -> next + ByteBuffer.wrap(code, at + 1, 2).getShort();
+                case 0x25 -> next + code[at + 2];
+                case 0x26 -> next + ByteBuffer.wrap(code, at + 2, 2).getShort();
+                default -> -1;
+            };
+            targets[i] = (target == -1) ? -1 : Math.max(-2, Collections.binarySearch(starts, target)); //-2 if inside an instruction.
+        }
+        return targets;
+    }
+}
@@ -0,0 +1,298 @@
+/* File: AssemblyCache.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A cache of assembled programs, kept in a directory on disk with the most recently used entries
+ *  also held in memory.
+ * Notes:
+ *  Entries are keyed on a SHA-256 hash of the assembler version and the source text, so a source
+ *  is only assembled again when its text or the assembler changes.
+ *  Both tiers evict the least recently used entries once over their byte limit. On disk the
+ *  modification time of an entry is its last access, it is updated on every hit.
+ *  Entries are written to a temporary file and moved into place, so several caches, even in other
+ *  processes, may share a directory. A failure to store an entry never fails an assembly.
+ */
+
+
+package com.assembly;
+
+import com.assembly.exceptions.AssemblyException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AssemblyCache {
+    //Constants
+    private static final String suffix = ".bin";
+
+    //Instance Variables
+    private final Path directory;
+    private final long disk_limit;
+    private final long memory_limit;
+    private final LinkedHashMap<String, byte[]> memory; //In access order, eldest first.
+    private long memory_bytes;
+    private final AtomicLong memory_hits;
+    private final AtomicLong disk_hits;
+    private final AtomicLong misses;
+
+    //Precond:
+    //  directory is the directory to keep entries in, created if it does not exist.
+    //  disk_limit is the most bytes of entries to keep on disk.
+    //  memory_limit is the most bytes of entries to keep in memory.
+    //
+    //Postcond:
+    //  Creates a cache over the directory, entries already in it are used.
+    public AssemblyCache(Path directory, long disk_limit, long memory_limit) throws IOException {
+        this.directory = directory;
+        this.disk_limit = disk_limit;
+        this.memory_limit = memory_limit;
+        Files.createDirectories(directory);
+        memory = new LinkedHashMap<>(16, 0.75f, true);
+        memory_bytes = 0;
+        memory_hits = new AtomicLong(0);
+        disk_hits = new AtomicLong(0);
+        misses = new AtomicLong(0);
+    }
+
+    //Precond:
+    //  filename is the name of a UTF-8 SAC-RISC source file.
+    //
+    //Postcond:
+    //  Returns the bytes RISCAssembler assembles the source to, from the cache if it holds them.
+    public byte[] assemble_file(String filename) throws AssemblyException, IOException {
+        byte[] source = Files.readAllBytes(Path.of(filename));
+        String key = key(RISCAssembler.VERSION, source);
+        byte[] result = lookup(key);
+        if(result != null)return result;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        RISCAssembler.assemble_stream(Channels.newChannel(new ByteArrayInputStream(source)), out);
+        result = out.toByteArray();
+        store(key, result);
+        return result;
+    }
+
+    //Precond:
+    //  filename is the name of a source file for the legacy Assembler.
+    //
+    //Postcond:
+    //  Returns the bytes Assembler assembles the source to, from the cache if it holds them.
+    public byte[] assemble_legacy(String filename) throws AssemblyException, IOException {
+        byte[] source = Files.readAllBytes(Path.of(filename));
+        String key = key(Assembler.VERSION, source);
+        byte[] result = lookup(key);
+        if(result != null)return result;
+        result = new Assembler().assemble(filename);
+        store(key, result);
+        return result;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Removes every entry from memory and disk.
+    public synchronized void clear() throws IOException {
+        memory.clear();
+        memory_bytes = 0;
+        for(Path entry : entries())Files.deleteIfExists(entry);
+    }
+
+    //===========
+    //  Getters
+    //===========
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of lookups answered from memory.
+    public long get_memory_hits(){
+        return memory_hits.get();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of lookups answered from disk.
+    public long get_disk_hits(){
+        return disk_hits.get();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of lookups that had to assemble the source.
+    public long get_misses(){
+        return misses.get();
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  version names the assembler.
+    //  source is the text of the source file.
+    //
+    //Postcond:
+    //  Returns the cache key of the source, a hex SHA-256 hash.
+    private static String key(String version, byte[] source){
+        MessageDigest digest;
+        try{
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException exp){
+            //Every Java platform is required to provide SHA-256.
+            throw new IllegalStateException(exp);
+        }
+        digest.update(version.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte)0);
+        byte[] hash = digest.digest(source);
+        StringBuilder key = new StringBuilder();
+        for(byte b : hash)key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    //Precond:
+    //  key is a cache key.
+    //
+    //Postcond:
+    //  Returns a copy of the entry for the key, or null if the cache does not hold it.
+    private byte[] lookup(String key) throws IOException {
+        synchronized(this){
+            byte[] held = memory.get(key);
+            if(held != null){
+                memory_hits.incrementAndGet();
+                return held.clone();
+            }
+        }
+        Path entry = directory.resolve(key + suffix);
+        byte[] result;
+        try{
+            result = Files.readAllBytes(entry);
+        }
+        catch(NoSuchFileException exp){
+            misses.incrementAndGet();
+            return null;
+        }
+        try{
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        }
+        catch(IOException ignored){
+            //A read-only or shared directory only loses the access time, the entry is still a hit.
+        }
+        disk_hits.incrementAndGet();
+        remember(key, result.clone());
+        return result;
+    }
+
+    //Precond:
+    //  key is a cache key.
+    //  result is the assembled program for the key.
+    //
+    //Postcond:
+    //  Adds the entry to memory and disk, evicting older entries to stay within the limits.
+    private void store(String key, byte[] result){
+        remember(key, result.clone());
+        Path temp = null;
+        try{
+            temp = Files.createTempFile(directory, key, ".tmp");
+            Files.write(temp, result);
+            Files.move(temp, directory.resolve(key + suffix), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            temp = null;
+            evict_disk(directory.resolve(key + suffix));
+        }
+        catch(IOException ignored){
+            //The cache is an optimization, the assembled program is still returned.
+        }
+        finally{
+            try{
+                if(temp != null)Files.deleteIfExists(temp);
+            }
+            catch(IOException ignored){
+            }
+        }
+    }
+
+    //Precond:
+    //  key is a cache key.
+    //  result is the assembled program for the key, not shared with the caller.
+    //
+    //Postcond:
+    //  Holds the entry in memory, evicting the least recently used entries to stay within the limit.
+    private synchronized void remember(String key, byte[] result){
+        if(result.length > memory_limit)return;
+        byte[] previous = memory.put(key, result);
+        if(previous != null)memory_bytes -= previous.length;
+        memory_bytes += result.length;
+        Iterator<Map.Entry<String, byte[]>> eldest = memory.entrySet().iterator();
+        while(memory_bytes > memory_limit && eldest.hasNext()){
+            memory_bytes -= eldest.next().getValue().length;
+            eldest.remove();
+        }
+    }
+
+    //Precond:
+    //  keep is the entry just stored, it is only deleted if it alone is over the limit.
+    //
+    //Postcond:
+    //  Deletes the least recently used entries on disk until they fit within the limit.
+    private synchronized void evict_disk(Path keep) throws IOException {
+        ArrayList<Path> entries = entries();
+        long[] sizes = new long[entries.size()];
+        FileTime[] accessed = new FileTime[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        long total = 0;
+        for(int i = 0;i < order.length;i++){
+            sizes[i] = Files.size(entries.get(i));
+            accessed[i] = Files.getLastModifiedTime(entries.get(i));
+            order[i] = i;
+            total += sizes[i];
+        }
+        if(total <= disk_limit)return;
+        Arrays.sort(order, (a, b) -> {
+            boolean a_kept = entries.get(a).equals(keep);
+            boolean b_kept = entries.get(b).equals(keep);
+            if(a_kept != b_kept)return a_kept ? 1 : -1;
+            return accessed[a].compareTo(accessed[b]);
+        });
+        for(int i = 0;i < order.length && total > disk_limit;i++){
+            Files.deleteIfExists(entries.get(order[i]));
+            total -= sizes[order[i]];
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns every entry file in the directory.
+    private ArrayList<Path> entries() throws IOException {
+        ArrayList<Path> entries = new ArrayList<>();
+        try(DirectoryStream<Path> listing = Files.newDirectoryStream(directory, "*" + suffix)){
+            for(Path entry : listing)entries.add(entry);
+        }
+        return entries;
+    }
+}
@@ -11,29 +11,49 @@ package com.assembly;
 
 import com.assembly.exceptions.AssemblyException;
 import com.assembly.exceptions.AssemblyUnknownArgumentException;
-import com.hardware.CPU;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
 
 public class RISCAssembler {
+    //Version of the encoding, change it whenever the same source would assemble differently.
+    public static final String VERSION = "RISCAssembler 2";
+    //Lines per chunk when assembling in parallel.
+    private static final int chunk_lines = 4096;
+    //Initial bytes held by a streaming assembly before they are written.
+    private static final int stream_buffer = 1 << 16;
+
     //Classes for aid with conversions.
-    private static class RISCLine{
+    static class RISCLine{
         public RISCCommandList cmd;
         public int line_num;
+        public boolean filler; //A NOP standing in for a line holding only labels.
 
         public RISCLine(RISCCommandList cmd, int line_num){
             this.cmd = cmd;
             this.line_num = line_num;
+            this.filler = false;
         }
 
-        public ArrayList<Byte> getCode(){
-            ArrayList<Byte> result = new ArrayList<>();
-            result.add(cmd.val);
-            return result;
+        //Writes the line's byte code into out starting at at, returns the index after it.
+        public int emit(byte[] out, int at){
+            out[at] = cmd.val;
+            return at + 1;
         }
 
         public int byte_length(){
@@ -41,7 +61,7 @@ public class RISCAssembler {
         }
     }
 
-    private static class RISCSingleRegLine extends RISCLine{
+    static class RISCSingleRegLine extends RISCLine{
         public byte register;
 
         public RISCSingleRegLine(RISCCommandList cmd, int line_num, byte register){
@@ -50,10 +70,10 @@ public class RISCAssembler {
         }
 
         @Override
-        public ArrayList<Byte> getCode() {
-            ArrayList<Byte> result = super.getCode();
-            result.add(register);
-            return result;
+        public int emit(byte[] out, int at){
+            at = super.emit(out, at);
+            out[at] = register;
+            return at + 1;
         }
 
         @Override
@@ -62,7 +82,7 @@ public class RISCAssembler {
         }
     }
 
-    private static class RISCDoubleRegLine extends RISCSingleRegLine{
+    static class RISCDoubleRegLine extends RISCSingleRegLine{
         public byte register;
 
         public RISCDoubleRegLine(RISCCommandList cmd, int line_num, byte register1, byte register2){
@@ -71,10 +91,10 @@ public class RISCAssembler {
         }
 
         @Override
-        public ArrayList<Byte> getCode() {
-            ArrayList<Byte> result = super.getCode();
-            result.add(register);
-            return result;
+        public int emit(byte[] out, int at){
+            at = super.emit(out, at);
+            out[at] = register;
+            return at + 1;
         }
 
         @Override
@@ -83,7 +103,7 @@ public class RISCAssembler {
         }
     }
 
-    private static class RISCTripleRegLine extends RISCDoubleRegLine{
+    static class RISCTripleRegLine extends RISCDoubleRegLine{
         public byte register;
 
         public RISCTripleRegLine(RISCCommandList cmd, int line_num, byte register1, byte register2, byte register3){
@@ -92,10 +112,10 @@ public class RISCAssembler {
         }
 
         @Override
-        public ArrayList<Byte> getCode() {
-            ArrayList<Byte> result = super.getCode();
-            result.add(register);
-            return result;
+        public int emit(byte[] out, int at){
+            at = super.emit(out, at);
+            out[at] = register;
+            return at + 1;
         }
 
         @Override
@@ -104,7 +124,7 @@ public class RISCAssembler {
         }
     }
 
-    private static class RISCLiteralLine extends RISCLine{
+    static class RISCLiteralLine extends RISCLine{
         public int literal;
 
         public RISCLiteralLine(RISCCommandList cmd, int line_num, int literal){
@@ -117,13 +137,9 @@ public class RISCAssembler {
         }
 
         @Override
-        public ArrayList<Byte> getCode(){
-            ArrayList<Byte> result = super.getCode();
-            result.add((byte)((literal & 0xFF000000) >> 24));
-            result.add((byte)((literal & 0x00FF0000) >> 16));
-            result.add((byte)((literal & 0x0000FF00) >> 8));
-            result.add((byte)(literal & 0x000000FF));
-            return result;
+        public int emit(byte[] out, int at){
+            at = super.emit(out, at);
+            return emit_literal(literal, out, at);
         }
 
         @Override
@@ -132,7 +148,7 @@ public class RISCAssembler {
         }
     }
 
-    private static class RISCRegLiteralLine extends RISCSingleRegLine{
+    static class RISCRegLiteralLine extends RISCSingleRegLine{
         public int literal;
         public RISCRegLiteralLine(RISCCommandList cmd, int line_num, byte register, int literal){
             super(cmd, line_num, register);
@@ -144,13 +160,9 @@ public class RISCAssembler {
         }
 
         @Override
-        public ArrayList<Byte> getCode(){
-            ArrayList<Byte> result = super.getCode();
-            result.add((byte)((literal & 0xFF000000) >> 24));
-            result.add((byte)((literal & 0x00FF0000) >> 16));
-            result.add((byte)((literal & 0x0000FF00) >> 8));
-            result.add((byte)(literal & 0x000000FF));
-            return result;
+        public int emit(byte[] out, int at){
+            at = super.emit(out, at);
+            return emit_literal(literal, out, at);
         }
 
         @Override
@@ -159,148 +171,620 @@ public class RISCAssembler {
         }
     }
 
-    public static ArrayList<Byte> assemble_file(String filename) throws AssemblyException, IOException{
+    //A jump to a label as a displacement from the end of the line, 1 or 2 bytes wide.
+    static class RISCRelativeLine extends RISCLine{
+        public int displacement;
+        public int width;
+
+        public RISCRelativeLine(RISCCommandList cmd, int line_num, int displacement, int width){
+            super(cmd, line_num);
+            this.displacement = displacement;
+            this.width = width;
+        }
+
+        @Override
+        public int emit(byte[] out, int at){
+            at = super.emit(out, at);
+            return emit_displacement(displacement, width, out, at);
+        }
+
+        @Override
+        public int byte_length(){
+            return super.byte_length() + width;
+        }
+    }
+
+    static class RISCRegRelativeLine extends RISCSingleRegLine{
+        public int displacement;
+        public int width;
+
+        public RISCRegRelativeLine(RISCCommandList cmd, int line_num, byte register, int displacement, int width){
+            super(cmd, line_num, register);
+            this.displacement = displacement;
+            this.width = width;
+        }
+
+        @Override
+        public int emit(byte[] out, int at){
+            at = super.emit(out, at);
+            return emit_displacement(displacement, width, out, at);
+        }
+
+        @Override
+        public int byte_length(){
+            return super.byte_length() + width;
+        }
+    }
+
+    //A run of consecutive program lines, assembled as a unit with byte offsets relative to its start.
+    private static class RISCChunk{
+        public int first; //Index of the first line.
+        public int last;  //Index past the last line.
+        public ArrayList<RISCLine> lines;
+        public HashMap<String, Integer> labels;
+        public ArrayList<RISCRelocation> relocations;
+        public int length;
+        public int offset;
+        public AssemblyException error;
+
+        public RISCChunk(int first, int last){
+            this.first = first;
+            this.last = last;
+            lines = new ArrayList<>();
+            labels = new HashMap<>();
+            relocations = new ArrayList<>();
+            length = 0;
+            offset = 0;
+            error = null;
+        }
+
+        //Tokenizes each line of the chunk once, binding labels to byte offsets within the chunk
+        //and leaving label arguments as relocations. A label defined again is bound to the later line.
+        public void convert(List<String> program) throws AssemblyException {
+            RISCTokenSpans tokens = new RISCTokenSpans();
+            for(int i = first;i < last;i++){
+                int line_num = i + 1;
+                String line = program.get(i);
+                if(line.isBlank())continue;
+                RISCTokenizer.tokenize(line, line_num, tokens);
+                if(tokens.size() == 0)continue;
+                if (!valid_line(tokens))
+                    throw new AssemblyUnknownArgumentException("Unknown command-argument sequence.", line_num);
+                int cmd_offset = 0;
+                //Labels come first.
+                while (cmd_offset < tokens.size() && tokens.type(cmd_offset) == RISCTokenizer.RISC_TYPE.LABEL){
+                    String name = label(tokens, cmd_offset);
+                    labels.put(name, length);
+                    cmd_offset += 1;
+                }
+                RISCLine converted = parse_line(tokens, cmd_offset, line_num, length, relocations);
+                lines.add(converted);
+                length += converted.byte_length();
+            }
+        }
+
+        //Writes the chunk into out at its offset, then patches its label arguments with the byte
+        //offsets in program_labels.
+        public void emit(byte[] out, Map<String, Integer> program_labels) throws AssemblyException {
+            emit_code(out);
+            for(RISCRelocation relocation : relocations){
+                Integer target = program_labels.get(relocation.label);
+                if(target == null)throw new AssemblyUnknownArgumentException("Unknown label.", relocation.line_num);
+                emit_literal(target, out, offset + relocation.at);
+            }
+        }
+
+        //Runs the peephole optimizer over the converted lines, then lays the chunk out again.
+        public void optimize(){
+            ArrayList<RISCOptimizer.RISCItem> items = items();
+            RISCOptimizer.optimize(items);
+            layout(items);
+        }
+
+        //Relaxes the label jumps and branches of the chunk, then lays the chunk out again.
+        public void relax(){
+            ArrayList<RISCOptimizer.RISCItem> items = items();
+            RISCOptimizer.relax(items);
+            layout(items);
+        }
+
+        //Returns the converted lines with each label and relocation attached to its line.
+        private ArrayList<RISCOptimizer.RISCItem> items(){
+            //Attach each label and relocation to its line.
+            HashMap<Integer, ArrayList<String>> labels_at = new HashMap<>();
+            for(Map.Entry<String, Integer> label : labels.entrySet()){
+                labels_at.computeIfAbsent(label.getValue(), at -> new ArrayList<>()).add(label.getKey());
+            }
+            ArrayList<RISCOptimizer.RISCItem> items = new ArrayList<>(lines.size());
+            int at = 0;
+            int next_relocation = 0;
+            for(RISCLine line : lines){
+                RISCOptimizer.RISCItem item = new RISCOptimizer.RISCItem(line);
+                ArrayList<String> names = labels_at.get(at);
+                if(names != null)item.labels.addAll(names);
+                if(next_relocation < relocations.size() && relocations.get(next_relocation).at < at + line.byte_length()){
+                    RISCRelocation relocation = relocations.get(next_relocation++);
+                    item.relocation = new RISCRelocation(relocation.at - at, relocation.label, relocation.line_num);
+                }
+                items.add(item);
+                at += line.byte_length();
+            }
+            return items;
+        }
+
+        //Replaces the lines of the chunk with the items, laying them out from the start.
+        private void layout(ArrayList<RISCOptimizer.RISCItem> items){
+            lines.clear();
+            labels.clear();
+            relocations.clear();
+            length = 0;
+            for(RISCOptimizer.RISCItem item : items){
+                for(String name : item.labels)labels.put(name, length);
+                if(item.relocation != null)
+                    relocations.add(new RISCRelocation(length + item.relocation.at, item.relocation.label, item.relocation.line_num));
+                lines.add(item.line);
+                length += item.line.byte_length();
+            }
+        }
+
+        //Writes the lines of the chunk into out at its offset, label arguments are left as 0.
+        public void emit_code(byte[] out){
+            int at = offset;
+            for(RISCLine line : lines){
+                at = line.emit(out, at);
+            }
+        }
+    }
+
+    //Applies a step to a range of chunks, splitting the range across the pool.
+    private static class RISCChunkTask extends RecursiveAction{
+        private static final long serialVersionUID = 1L;
+        private final RISCChunk[] chunks;
+        private final int from;
+        private final int to;
+        private final Consumer<RISCChunk> step;
+
+        public RISCChunkTask(RISCChunk[] chunks, int from, int to, Consumer<RISCChunk> step){
+            this.chunks = chunks;
+            this.from = from;
+            this.to = to;
+            this.step = step;
+        }
+
+        @Override
+        protected void compute(){
+            if(to - from == 1){
+                step.accept(chunks[from]);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RISCChunkTask(chunks, from, mid, step), new RISCChunkTask(chunks, mid, to, step));
+        }
+    }
+
+    //A label argument waiting for its label's byte offset.
+    static class RISCRelocation{
+        public int at;
+        public String label;
+        public int line_num;
+
+        public RISCRelocation(int at, String label, int line_num){
+            this.at = at;
+            this.label = label;
+            this.line_num = line_num;
+        }
+    }
+
+    //Assembles a program line by line as it is read, writing the bytes out as soon as nothing
+    //before them waits on a label.
+    private static class RISCStream{
+        private final OutputStream out;  //Target when streaming, null when writing a file.
+        private final FileChannel file;  //Target when writing a file, null when streaming.
+        private final HashMap<String, Integer> labels;
+        private final HashMap<String, ArrayList<RISCRelocation>> unresolved; //Forward references by label.
+        private final ArrayList<RISCRelocation> line_relocations;
+        private final ByteBuffer patch;
+        private int unresolved_count;
+        private byte[] held;      //Bytes not yet written.
+        private int held_length;
+        private long held_from;   //Program offset of the first held byte.
+        private int length;       //Bytes assembled so far.
+
+        public RISCStream(OutputStream out, FileChannel file){
+            this.out = out;
+            this.file = file;
+            labels = new HashMap<>();
+            unresolved = new HashMap<>();
+            line_relocations = new ArrayList<>();
+            patch = ByteBuffer.allocate(4);
+            unresolved_count = 0;
+            held = new byte[stream_buffer];
+            held_length = 0;
+            held_from = 0;
+            length = 0;
+        }
+
+        //Assembles every line of the source and returns the number of bytes written.
+        public long assemble(ReadableByteChannel source) throws AssemblyException, IOException {
+            RISCSourceReader reader = new RISCSourceReader(source);
+            RISCTokenSpans tokens = new RISCTokenSpans();
+            CharSequence line;
+            int line_num = 0;
+            while((line = reader.next_line()) != null){
+                line_num += 1;
+                RISCTokenizer.tokenize(line, line_num, tokens);
+                if(tokens.size() == 0)continue;
+                if (!valid_line(tokens))
+                    throw new AssemblyUnknownArgumentException("Unknown command-argument sequence.", line_num);
+                int cmd_offset = 0;
+                //Labels come first.
+                while (cmd_offset < tokens.size() && tokens.type(cmd_offset) == RISCTokenizer.RISC_TYPE.LABEL){
+                    define(label(tokens, cmd_offset), line_num);
+                    cmd_offset += 1;
+                }
+                RISCLine converted = parse_line(tokens, cmd_offset, line_num, length, line_relocations);
+                make_room(converted.byte_length());
+                converted.emit(held, held_length);
+                held_length += converted.byte_length();
+                length += converted.byte_length();
+                for(RISCRelocation relocation : line_relocations){
+                    Integer target = labels.get(relocation.label);
+                    if(target != null)patch(relocation.at, target);
+                    else{
+                        unresolved.computeIfAbsent(relocation.label, name -> new ArrayList<>()).add(relocation);
+                        unresolved_count += 1;
+                    }
+                }
+                line_relocations.clear();
+            }
+            //Any reference left is to a label that never appeared, report the earliest.
+            if(unresolved_count > 0){
+                int line_num_first = Integer.MAX_VALUE;
+                for(ArrayList<RISCRelocation> waiting : unresolved.values()){
+                    line_num_first = Math.min(line_num_first, waiting.get(0).line_num);
+                }
+                throw new AssemblyUnknownArgumentException("Unknown label.", line_num_first);
+            }
+            flush();
+            if(out != null)out.flush();
+            return length;
+        }
+
+        //Binds the label to the current offset and patches every reference waiting on it.
+        private void define(String name, int line_num) throws AssemblyException, IOException {
+            if(labels.putIfAbsent(name, length) != null)throw duplicate_label(line_num);
+            ArrayList<RISCRelocation> waiting = unresolved.remove(name);
+            if(waiting == null)return;
+            for(RISCRelocation relocation : waiting)patch(relocation.at, length);
+            unresolved_count -= waiting.size();
+        }
+
+        //Writes the literal at the program offset, in the held bytes or in the file.
+        private void patch(int at, int literal) throws IOException {
+            if(at >= held_from){
+                emit_literal(literal, held, (int)(at - held_from));
+                return;
+            }
+            patch.clear();
+            patch.putInt(literal);
+            patch.flip();
+            while(patch.hasRemaining())file.write(patch, at + patch.position());
+        }
+
+        //Makes room for count more held bytes, writing out what may be written.
+        private void make_room(int count) throws IOException {
+            if(held_length + count <= held.length)return;
+            if(file != null || unresolved_count == 0)flush();
+            if(held_length + count > held.length)held = Arrays.copyOf(held, Math.max(2*held.length, held_length + count));
+        }
+
+        //Writes out every held byte.
+        private void flush() throws IOException {
+            if(file != null){
+                ByteBuffer buffer = ByteBuffer.wrap(held, 0, held_length);
+                while(buffer.hasRemaining())file.write(buffer, held_from + buffer.position());
+            }
+            else{
+                out.write(held, 0, held_length);
+            }
+            held_from += held_length;
+            held_length = 0;
+        }
+    }
+
+    //Precond:
+    //  literal is a 4 byte literal.
+    //  out has room for the literal at at.
+    //
+    //Postcond:
+    //  Writes the literal most significant byte first and returns the index after it.
+    static int emit_literal(int literal, byte[] out, int at){
+        out[at] = (byte)((literal & 0xFF000000) >> 24);
+        out[at + 1] = (byte)((literal & 0x00FF0000) >> 16);
+        out[at + 2] = (byte)((literal & 0x0000FF00) >> 8);
+        out[at + 3] = (byte)(literal & 0x000000FF);
+        return at + 4;
+    }
+
+    //Precond:
+    //  displacement fits in width bytes, width is 1 or 2.
+    //  out has room for the displacement at at.
+    //
+    //Postcond:
+    //  Writes the displacement most significant byte first and returns the index after it.
+    static int emit_displacement(int displacement, int width, byte[] out, int at){
+        if(width == 2)out[at++] = (byte)((displacement & 0xFF00) >> 8);
+        out[at] = (byte)(displacement & 0xFF);
+        return at + 1;
+    }
+
+    //Precond:
+    //  filename is the name of a SAC-RISC source file.
+    //
+    //Postcond:
+    //  Returns the bytes of the assembled program.
+    public static byte[] assemble_file(String filename) throws AssemblyException, IOException{
         File in_file = new File(filename);
         Scanner fin = new Scanner(in_file);
         ArrayList<String> program = new ArrayList<>();
         while(fin.hasNextLine()){
             program.add(fin.nextLine());
         }
+        fin.close();
         return assemble(program);
     }
 
+    //Precond:
+    //  filename is the name of a UTF-8 SAC-RISC source file.
+    //  output is the name of the file to write the assembled program to.
+    //
+    //Postcond:
+    //  Assembles the source as it is read, writing each line straight to the output file and
+    //  patching forward references in place once their labels are seen. Only the labels and the
+    //  unresolved references are kept in memory. Unlike assemble, a label defined twice is an error.
+    //  Returns the number of bytes written. If assembly fails the output file is left incomplete.
+    public static long assemble_file(String filename, String output) throws AssemblyException, IOException{
+        try(FileChannel source = FileChannel.open(Path.of(filename), StandardOpenOption.READ);
+            FileChannel target = FileChannel.open(Path.of(output), StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)){
+            return new RISCStream(null, target).assemble(source);
+        }
+    }
+
+    //Precond:
+    //  source is a channel holding a UTF-8 SAC-RISC program.
+    //  out is the stream to write the assembled program to.
+    //
+    //Postcond:
+    //  Assembles the source as it is read and returns the number of bytes written.
+    //  Bytes are written as soon as no label argument before them is waiting on a forward label,
+    //  so memory grows with the span of forward references rather than the program.
+    //  Unlike assemble, a label defined twice is an error.
+    public static long assemble_stream(ReadableByteChannel source, OutputStream out) throws AssemblyException, IOException{
+        return new RISCStream(out, null).assemble(source);
+    }
+
+    //Precond:
+    //  program is a ArrayList of strings representing the lines of a SAC-RISC program.
+    //
+    //Postcond:
+    //  Returns the bytes of the assembled program.
+    public static byte[] assemble(ArrayList<String> program) throws AssemblyException {
+        return assemble(program, false);
+    }
+
+    //Precond:
+    //  program is a ArrayList of strings representing the lines of a SAC-RISC program.
+    //  optimize is true to run the peephole optimizer, see RISCOptimizer.
+    //
+    //Postcond:
+    //  Returns the bytes of the assembled program.
+    public static byte[] assemble(ArrayList<String> program, boolean optimize) throws AssemblyException {
+        return assemble(program, optimize, false);
+    }
+
+    //Precond:
+    //  program is a ArrayList of strings representing the lines of a SAC-RISC program.
+    //  optimize is true to run the peephole optimizer, see RISCOptimizer.
+    //  relax is true to encode each JUMP_LABEL and BRANCH_LABEL in the shortest form reaching its
+    //  label, see RISCOptimizer.relax.
+    //
+    //Postcond:
+    //  Returns the bytes of the assembled program.
+    public static byte[] assemble(ArrayList<String> program, boolean optimize, boolean relax) throws AssemblyException {
+        RISCChunk chunk = new RISCChunk(0, program.size());
+        chunk.convert(program);
+        if(optimize)chunk.optimize();
+        if(relax)chunk.relax();
+        byte[] result = new byte[chunk.length];
+        chunk.emit(result, chunk.labels);
+        return result;
+    }
+
+    //Precond:
+    //  name names the object in link errors, usually its source file.
+    //  program is a ArrayList of strings representing the lines of a SAC-RISC module.
+    //
+    //Postcond:
+    //  Returns the module assembled into a relocatable object, see RISCObject and RISCLinker.
+    //  Labels the module refers to but does not define are left for the linker.
+    public static RISCObject assemble_object(String name, ArrayList<String> program) throws AssemblyException {
+        RISCChunk chunk = new RISCChunk(0, program.size());
+        chunk.convert(program);
+        byte[] code = new byte[chunk.length];
+        chunk.emit_code(code);
+        for(RISCRelocation relocation : chunk.relocations){
+            Integer target = chunk.labels.get(relocation.label);
+            if(target != null)emit_literal(target, code, relocation.at);
+        }
+        return new RISCObject(name, code, chunk.labels, chunk.relocations);
+    }
+
     //Precond:
     //  program is a ArrayList of strings representing the lines of a SAC-RISC program.
     //
     //Postcond:
-    //  Returns an ArrayList of bytes representing the assembled program.
-    public static ArrayList<Byte> assemble(ArrayList<String> program) throws AssemblyException {
-        ArrayList<Byte> result = new ArrayList<>();
+    //  Returns the bytes of the assembled program, the same as assemble.
+    //  The program is split into chunks of lines which are converted and emitted in parallel on
+    //  the common ForkJoinPool, only the label table is merged on the calling thread.
+    public static byte[] assemble_parallel(ArrayList<String> program) throws AssemblyException {
+        if(program.size() <= chunk_lines)return assemble(program);
+        int count = (program.size() + chunk_lines - 1)/chunk_lines;
+        RISCChunk[] chunks = new RISCChunk[count];
+        for(int i = 0;i < count;i++){
+            chunks[i] = new RISCChunk(i*chunk_lines, Math.min((i + 1)*chunk_lines, program.size()));
+        }
+        //Convert Pass (Tokenize and convert every chunk)
+        ForkJoinPool.commonPool().invoke(new RISCChunkTask(chunks, 0, count, chunk -> {
+            try{
+                chunk.convert(program);
+            }
+            catch(AssemblyException exp){
+                chunk.error = exp;
+            }
+        }));
+        //Byte offsets of the chunks, a prefix sum over their lengths.
+        int[] ends = new int[count];
+        for(int i = 0;i < count;i++)ends[i] = chunks[i].length;
+        Arrays.parallelPrefix(ends, Integer::sum);
+        //Merge the labels in program order, so a label defined again is bound to its last definition
+        //and errors are reported in the order assemble finds them.
         HashMap<String, Integer> labels = new HashMap<>();
-        //Label Pass (Register labels)
-        int line_num = 0;
-        for(String line : program){
-            line_num += 1;
-            line = line.trim();
-            if(line.isBlank())continue;
-            ArrayList<RISCToken> tokens = RISCTokenizer.tokenize(line, line_num);
-            if(tokens.size() == 0)continue;
-            if (!valid_line(tokens))
-                throw new AssemblyUnknownArgumentException("Unknown command-argument sequence.", line_num);
-            int cmd_offset = 0;
-            //Labels come first.
-            while (cmd_offset < tokens.size() && tokens.get(cmd_offset).type == RISCTokenizer.RISC_TYPE.LABEL) cmd_offset += 1;
-            for(int i = 0;i < cmd_offset;i++){
-                labels.put(tokens.get(i).contents, line_num);
-            }
-        }
-        //Basic Conversion Pass (Convert to RISCLine classes)
-        ArrayList<RISCLine> lines = new ArrayList<>();
-        line_num = 0;
-        for(String line : program){
-            int cmd_offset = 0;
-            line_num += 1;
-            if(line.isBlank())continue;
-            ArrayList<RISCToken> tokens = RISCTokenizer.tokenize(line, line_num);
-            if(tokens.size() == 0)continue;
-            //Labels come first.
-            while (cmd_offset < tokens.size() && tokens.get(cmd_offset).type == RISCTokenizer.RISC_TYPE.LABEL) cmd_offset += 1;
-            //Add NOP to label only lines.
-            if(cmd_offset >= tokens.size())tokens.add(new RISCToken(RISCTokenizer.RISC_TYPE.CMD, "NOP"));
-            //Process Commands
-            RISCCommandList cmd = RISCCommandList.valueOf(tokens.get(cmd_offset).contents);
-            //Parsing variables
-            byte reg1, reg2, reg3;
-            int literal;
-            String label;
-            switch(cmd){
-                case NOP, INPUT, INPUT_CHAR, HALT -> {
-                    //No args
-                    lines.add(new RISCLine(cmd, line_num));
-                }
-                case JUMP, OUTPUT, OUTPUT_CHAR, PUSH_STK, POP_STK, OUTPUT_STR -> {
-                    //Single Register
-                    reg1 = parseRegister(tokens.get(cmd_offset+1), line_num);
-                    lines.add(new RISCSingleRegLine(cmd, line_num, reg1));
-                }
-                case NEG, LSHIFT, RSHIFT, BRANCH, COPY, LOAD, LOAD_BYTE,
-                        STORE, STORE_BYTE, CORE_DUMP -> {
-                    //Double Register
-                    reg1 = parseRegister(tokens.get(cmd_offset+1), line_num);
-                    reg2 = parseRegister(tokens.get(cmd_offset+2), line_num);
-                    lines.add(new RISCDoubleRegLine(cmd, line_num, reg1, reg2));
-                }
-                case ADD, SUBT, MULT, DIV, AND, OR, GT, LT, EQ -> {
-                    //Triple register
-                    reg1 = parseRegister(tokens.get(cmd_offset+1), line_num);
-                    reg2 = parseRegister(tokens.get(cmd_offset+2), line_num);
-                    reg3 = parseRegister(tokens.get(cmd_offset+3), line_num);
-                    lines.add(new RISCTripleRegLine(cmd, line_num, reg1, reg2, reg3));
-                }
-                case LOAD_LIT -> {
-                    literal = Integer.parseInt(tokens.get(cmd_offset+1).contents);
-                    lines.add(new RISCLiteralLine(cmd, line_num, literal));
-                }
-                case JUMP_LABEL -> {
-                    label = tokens.get(cmd_offset+1).contents;
-                    if(!labels.containsKey(label))throw new AssemblyUnknownArgumentException("Unknown label.", line_num);
-                    literal = labels.get(label);
-                    lines.add(new RISCLiteralLine(cmd, line_num, literal));
-                }
-                case BRANCH_LABEL -> {
-                    reg1 = parseRegister(tokens.get(cmd_offset+1), line_num);
-                    label = tokens.get(cmd_offset+2).contents;
-                    if(!labels.containsKey(label))throw new AssemblyUnknownArgumentException("Unknown label.", line_num);
-                    literal = labels.get(label);
-                    lines.add(new RISCRegLiteralLine(cmd, line_num, reg1, literal));
-                }
-                case SET -> {
-                    reg1 = parseRegister(tokens.get(cmd_offset+1), line_num);
-                    literal = Integer.parseInt(tokens.get(cmd_offset+2).contents);
-                    lines.add(new RISCRegLiteralLine(cmd, line_num, reg1, literal));
-                }
+        for(int i = 0;i < count;i++){
+            chunks[i].offset = ends[i] - chunks[i].length;
+            if(chunks[i].error != null)throw chunks[i].error;
+            for(Map.Entry<String, Integer> label : chunks[i].labels.entrySet()){
+                labels.put(label.getKey(), chunks[i].offset + label.getValue());
             }
         }
-        //Update lines/labels to correct byte offsets.
-        HashMap<Integer, Integer> byteOffsets = new HashMap<>();
-        int curr_byte = 0;
-        for(RISCLine line : lines){
-            byteOffsets.put(line.line_num, curr_byte);
-            curr_byte += line.byte_length();
-        }
-        int j_num;
-        for(RISCLine line : lines){
-            if(line instanceof RISCLiteralLine && line.cmd == RISCCommandList.JUMP_LABEL){
-                j_num = byteOffsets.get(((RISCLiteralLine) line).literal);
-                ((RISCLiteralLine) line).literal = j_num;
+        //Emit Pass (Emit every chunk and fix up its label arguments)
+        byte[] result = new byte[ends[count - 1]];
+        ForkJoinPool.commonPool().invoke(new RISCChunkTask(chunks, 0, count, chunk -> {
+            try{
+                chunk.emit(result, labels);
             }
-            else if(line instanceof RISCRegLiteralLine && line.cmd == RISCCommandList.BRANCH_LABEL){
-                j_num = byteOffsets.get(((RISCRegLiteralLine) line).literal);
-                ((RISCRegLiteralLine) line).literal = j_num;
+            catch(AssemblyException exp){
+                chunk.error = exp;
             }
+        }));
+        throw_first_error(chunks);
+        return result;
+    }
+
+    //Precond:
+    //  line_num is the line a label is defined on a second time.
+    //
+    //Postcond:
+    //  Returns the error for the label, a streamed label may only be defined once as references to
+    //  it may already be written.
+    private static AssemblyException duplicate_label(int line_num){
+        return new AssemblyException("Duplicate label.", line_num);
+    }
+
+    //Precond:
+    //  chunks are the chunks of a program in order.
+    //
+    //Postcond:
+    //  Throws the error of the first chunk that failed, if any, the same error assemble would throw.
+    private static void throw_first_error(RISCChunk[] chunks) throws AssemblyException {
+        for(RISCChunk chunk : chunks){
+            if(chunk.error != null)throw chunk.error;
         }
-        //Finally, build the program
-        for(RISCLine line : lines){
-            result.addAll(line.getCode());
+    }
+
+    //Precond:
+    //  tokens is a valid line of tokens, see valid_line.
+    //  cmd_offset is the index of the command token, past any labels.
+    //  line_num is the line number of the line in the larger program.
+    //  at is the byte offset the line will be emitted at.
+    //  relocations is the list to add any label argument of the line to.
+    //
+    //Postcond:
+    //  Returns the line converted to a RISCLine, a NOP if the line holds only labels.
+    //  A label argument is emitted as 0 and recorded in relocations.
+    static RISCLine parse_line(RISCTokenSpans tokens, int cmd_offset, int line_num, int at,
+                               ArrayList<RISCRelocation> relocations) throws AssemblyException {
+        //Add NOP to label only lines.
+        if(cmd_offset >= tokens.size()){
+            RISCLine filler = new RISCLine(RISCCommandList.NOP, line_num);
+            filler.filler = true;
+            return filler;
         }
-        return result;
+        //Process Commands
+        RISCCommandList cmd = tokens.command(cmd_offset);
+        //Parsing variables
+        byte reg1, reg2, reg3;
+        int literal;
+        RISCLine line = null;
+        switch(cmd){
+            case NOP, INPUT, INPUT_CHAR, HALT -> {
+                //No args
+                line = new RISCLine(cmd, line_num);
+            }
+            case JUMP, OUTPUT, OUTPUT_CHAR, PUSH_STK, POP_STK, OUTPUT_STR -> {
+                //Single Register
+                reg1 = parseRegister(tokens, cmd_offset+1, line_num);
+                line = new RISCSingleRegLine(cmd, line_num, reg1);
+            }
+            case NEG, LSHIFT, RSHIFT, BRANCH, COPY, LOAD, LOAD_BYTE,
+                    STORE, STORE_BYTE, CORE_DUMP, DISK_READ, DISK_WRITE -> {
+                //Double Register
+                reg1 = parseRegister(tokens, cmd_offset+1, line_num);
+                reg2 = parseRegister(tokens, cmd_offset+2, line_num);
+                line = new RISCDoubleRegLine(cmd, line_num, reg1, reg2);
+            }
+            case ADD, SUBT, MULT, DIV, AND, OR, GT, LT, EQ -> {
+                //Triple register
+                reg1 = parseRegister(tokens, cmd_offset+1, line_num);
+                reg2 = parseRegister(tokens, cmd_offset+2, line_num);
+                reg3 = parseRegister(tokens, cmd_offset+3, line_num);
+                line = new RISCTripleRegLine(cmd, line_num, reg1, reg2, reg3);
+            }
+            case LOAD_LIT -> {
+                literal = parseLiteral(tokens, cmd_offset+1, line_num);
+                line = new RISCLiteralLine(cmd, line_num, literal);
+            }
+            case JUMP_LABEL -> {
+                line = new RISCLiteralLine(cmd, line_num, 0);
+                relocations.add(new RISCRelocation(at + 1, label(tokens, cmd_offset+1), line_num));
+            }
+            case BRANCH_LABEL -> {
+                reg1 = parseRegister(tokens, cmd_offset+1, line_num);
+                line = new RISCRegLiteralLine(cmd, line_num, reg1, 0);
+                relocations.add(new RISCRelocation(at + 2, label(tokens, cmd_offset+2), line_num));
+            }
+            case SET -> {
+                reg1 = parseRegister(tokens, cmd_offset+1, line_num);
+                if(tokens.type(cmd_offset+2) == RISCTokenizer.RISC_TYPE.NUM){
+                    literal = parseLiteral(tokens, cmd_offset+2, line_num);
+                    line = new RISCRegLiteralLine(cmd, line_num, reg1, literal);
+                }
+                else{
+                    //Loads the address of a label.
+                    line = new RISCRegLiteralLine(cmd, line_num, reg1, 0);
+                    relocations.add(new RISCRelocation(at + 2, label(tokens, cmd_offset+2), line_num));
+                }
+            }
+            default -> throw new AssemblyUnknownArgumentException("Unknown command-argument sequence.", line_num);
+        }
+        return line;
     }
 
     //Precond:
-    //  tokens is an ArrayList containing RISCToken objects.
+    //  tokens holds the tokens of a line.
     //
     //Postcond:
     //  Returns true if the order of the tokens makes a valid line in
-    public static boolean valid_line(ArrayList<RISCToken> tokens){
+    public static boolean valid_line(RISCTokenSpans tokens){
         int cmd_offset = 0;
         //Labels come first.
-        while(cmd_offset < tokens.size() && tokens.get(cmd_offset).type == RISCTokenizer.RISC_TYPE.LABEL)cmd_offset += 1;
+        while(cmd_offset < tokens.size() && tokens.type(cmd_offset) == RISCTokenizer.RISC_TYPE.LABEL)cmd_offset += 1;
         if(cmd_offset == tokens.size())return true;
         //Then Commands
-        if(tokens.get(cmd_offset).type != RISCTokenizer.RISC_TYPE.CMD)return false;
+        if(tokens.type(cmd_offset) != RISCTokenizer.RISC_TYPE.CMD)return false;
         //Check Arguments
         int num_args = (tokens.size() - cmd_offset) - 1;
-        switch(RISCCommandList.valueOf(tokens.get(cmd_offset).contents)){
+        switch(tokens.command(cmd_offset)){
             case NOP, INPUT, INPUT_CHAR, HALT -> {
                 //No args
                 return (num_args) == 0;
@@ -308,83 +792,88 @@ public class RISCAssembler {
             case JUMP, OUTPUT, OUTPUT_CHAR, PUSH_STK, POP_STK, OUTPUT_STR -> {
                 //Single Register
                 if(num_args != 1)return false;
-                if(!registerToken(tokens.get(cmd_offset+1)))return false;
+                if(!registerToken(tokens, cmd_offset+1))return false;
             }
             case NEG, LSHIFT, RSHIFT, BRANCH, COPY, LOAD, LOAD_BYTE,
-                    STORE, STORE_BYTE, CORE_DUMP -> {
+                    STORE, STORE_BYTE, CORE_DUMP, DISK_READ, DISK_WRITE -> {
                 //Double Register
                 if(num_args != 2)return false;
-                if(!registerToken(tokens.get(cmd_offset+1)))return false;
-                if(!registerToken(tokens.get(cmd_offset+2)))return false;
+                if(!registerToken(tokens, cmd_offset+1))return false;
+                if(!registerToken(tokens, cmd_offset+2))return false;
             }
             case ADD, SUBT, MULT, DIV, AND, OR, GT, LT, EQ -> {
                 //Triple register
                 if(num_args != 3)return false;
-                if(!registerToken(tokens.get(cmd_offset+1)))return false;
-                if(!registerToken(tokens.get(cmd_offset+2)))return false;
-                if(!registerToken(tokens.get(cmd_offset+3)))return false;
+                if(!registerToken(tokens, cmd_offset+1))return false;
+                if(!registerToken(tokens, cmd_offset+2))return false;
+                if(!registerToken(tokens, cmd_offset+3))return false;
             }
             case LOAD_LIT -> {
                 if(num_args != 1)return false;
-                if(tokens.get(cmd_offset+1).type != RISCTokenizer.RISC_TYPE.NUM)return false;
+                if(tokens.type(cmd_offset+1) != RISCTokenizer.RISC_TYPE.NUM)return false;
             }
             case JUMP_LABEL -> {
                 if(num_args != 1)return false;
-                if(tokens.get(cmd_offset+1).type != RISCTokenizer.RISC_TYPE.IDENT)return false;
+                if(tokens.type(cmd_offset+1) != RISCTokenizer.RISC_TYPE.IDENT)return false;
             }
             case BRANCH_LABEL -> {
                 if(num_args != 2)return false;
-                if(!registerToken(tokens.get(cmd_offset+1)))return false;
-                if(tokens.get(cmd_offset+2).type != RISCTokenizer.RISC_TYPE.IDENT)return false;
+                if(!registerToken(tokens, cmd_offset+1))return false;
+                if(tokens.type(cmd_offset+2) != RISCTokenizer.RISC_TYPE.IDENT)return false;
             }
             case SET -> {
                 if(num_args != 2)return false;
-                if(!registerToken(tokens.get(cmd_offset+1)))return false;
-                if(tokens.get(cmd_offset+2).type != RISCTokenizer.RISC_TYPE.NUM)return false;
+                if(!registerToken(tokens, cmd_offset+1))return false;
+                if(tokens.type(cmd_offset+2) != RISCTokenizer.RISC_TYPE.NUM
+                        && tokens.type(cmd_offset+2) != RISCTokenizer.RISC_TYPE.IDENT)return false;
             }
         }
         return true;
     }
 
     //Precond:
-    //  token is a valid RISCToken object.
+    //  tokens holds the tokens of a line.
+    //  idx is the index of a token.
     //
     //Postcond:
     //  Returns true if the given token could be a valid register.
-    private static boolean registerToken(RISCToken tk){
-        return tk.type == RISCTokenizer.RISC_TYPE.REG || tk.type == RISCTokenizer.RISC_TYPE.NUM;
+    private static boolean registerToken(RISCTokenSpans tokens, int idx){
+        return tokens.type(idx) == RISCTokenizer.RISC_TYPE.REG || tokens.type(idx) == RISCTokenizer.RISC_TYPE.NUM;
     }
 
     //Precond:
-    //  token is a valid RISCToken object representing a register.
+    //  tokens holds the tokens of a line.
+    //  idx is the index of a token representing a register.
     //
     //Postcond:
-    //  Returns true if the given token could be a valid register.
-    private static byte parseRegister(RISCToken tk, int line_num) throws AssemblyUnknownArgumentException {
-        if(tk.type == RISCTokenizer.RISC_TYPE.REG){
-            switch (tk.contents) {
-                case "RA" -> {
-                    return CPU.ra;
-                }
-                case "RS" -> {
-                    return CPU.rs;
-                }
-                case "SP" -> {
-                    return CPU.sp;
-                }
-                case "PC" -> {
-                    return CPU.pc;
-                }
-                default -> {
-                    try{
-                        return Byte.parseByte(tk.contents);
-                    }
-                    catch (NumberFormatException exp) {
-                        throw new AssemblyUnknownArgumentException("Unknown register.", line_num);
-                    }
-                }
-            }
-        }
-        return Byte.parseByte(tk.contents);
+    //  Returns the register the token names.
+    private static byte parseRegister(RISCTokenSpans tokens, int idx, int line_num) throws AssemblyUnknownArgumentException {
+        long reg = tokens.value(idx);
+        if(reg < Byte.MIN_VALUE || reg > Byte.MAX_VALUE)
+            throw new AssemblyUnknownArgumentException("Unknown register.", line_num);
+        return (byte)reg;
+    }
+
+    //Precond:
+    //  tokens holds the tokens of a line.
+    //  idx is the index of a NUM token.
+    //
+    //Postcond:
+    //  Returns the number the token holds.
+    private static int parseLiteral(RISCTokenSpans tokens, int idx, int line_num) throws AssemblyUnknownArgumentException {
+        long literal = tokens.value(idx);
+        if(literal < Integer.MIN_VALUE || literal > Integer.MAX_VALUE)
+            throw new AssemblyUnknownArgumentException("Number literal out of range.", line_num);
+        return (int)literal;
+    }
+
+    //Precond:
+    //  tokens holds the tokens of a line.
+    //  idx is the index of a LABEL or IDENT token.
+    //
+    //Postcond:
+    //  Returns the label the token names, labels are not case sensitive.
+    static String label(RISCTokenSpans tokens, int idx){
+        return tokens.text(idx).toUpperCase();
     }
 }
@@ -4,6 +4,9 @@
  * Licence: GNU GPLv3
  * Purpose:
  * Notes:
+ *  lookup finds a command by name without allocating, using an open addressed table built once.
+ *  JUMP_SHORT, JUMP_NEAR, BRANCH_SHORT and BRANCH_NEAR are only produced by branch relaxation,
+ *  they cannot be written in a source.
  */
 
 
@@ -43,11 +46,73 @@ public enum RISCCommandList {
     LOAD_LIT(0x1D),
     JUMP_LABEL(0x1E),
     BRANCH_LABEL(0x1F),
-    SET(0x20);
+    SET(0x20),
+    DISK_READ(0x21),
+    DISK_WRITE(0x22),
+    JUMP_SHORT(0x23),
+    JUMP_NEAR(0x24),
+    BRANCH_SHORT(0x25),
+    BRANCH_NEAR(0x26);
 
     public final byte val;
 
+    //Name lookup table, a power of two at least four times the number of commands.
+    private static final RISCCommandList[] table;
+    static{
+        int size = 1;
+        while(size < 4*values().length)size <<= 1;
+        table = new RISCCommandList[size];
+        for(RISCCommandList cmd : values()){
+            int slot = hash(cmd.name(), 0, cmd.name().length()) & (size - 1);
+            while(table[slot] != null)slot = (slot + 1) & (size - 1);
+            table[slot] = cmd;
+        }
+    }
+
     private RISCCommandList(int val){
         this.val = (byte)val;
     }
+
+    //Precond:
+    //  text holds a possible command name between start and end, end exclusive.
+    //
+    //Postcond:
+    //  Returns the command with that name, ignoring case, or null if there is none.
+    public static RISCCommandList lookup(CharSequence text, int start, int end){
+        int slot = hash(text, start, end) & (table.length - 1);
+        while(table[slot] != null){
+            if(matches(table[slot].name(), text, start, end))return table[slot];
+            slot = (slot + 1) & (table.length - 1);
+        }
+        return null;
+    }
+
+    //Precond:
+    //  text holds characters between start and end, end exclusive.
+    //
+    //Postcond:
+    //  Returns a hash of the characters with ASCII letters upper cased.
+    private static int hash(CharSequence text, int start, int end){
+        int h = 0;
+        for(int i = start;i < end;i++)h = 31*h + upper(text.charAt(i));
+        return h ^ (h >>> 7);
+    }
+
+    //Precond:
+    //  name is a command name.
+    //  text holds characters between start and end, end exclusive.
+    //
+    //Postcond:
+    //  Returns true if the characters are the name, ignoring the case of ASCII letters.
+    private static boolean matches(String name, CharSequence text, int start, int end){
+        if(end - start != name.length())return false;
+        for(int i = 0;i < name.length();i++){
+            if(name.charAt(i) != upper(text.charAt(start + i)))return false;
+        }
+        return true;
+    }
+
+    private static char upper(char c){
+        return (c >= 'a' && c <= 'z') ? (char)(c - ('a' - 'A')) : c;
+    }
 }
@@ -0,0 +1,306 @@
+/* File: RISCIncrementalAssembler.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Assembles a SAC-RISC program and keeps it assembled as ranges of its lines are edited.
+ * Notes:
+ *  Each source line keeps its converted form, its labels, its label argument and its byte offset,
+ *  so an edit converts only the new lines. If the edit keeps its byte length only the relocations
+ *  whose labels moved are patched, otherwise the bytes after the edit are shifted once and the
+ *  relocations to labels after it are patched as well.
+ *  An edit that would leave the program in error is rejected and the program is left as it was.
+ *  The error thrown is the one RISCAssembler.assemble would throw for the edited program.
+ *  As in RISCAssembler.assemble a label defined twice is bound to its last definition. Edits to a
+ *  program with such a label are reassembled from scratch.
+ */
+
+
+package com.assembly;
+
+import com.assembly.exceptions.AssemblyException;
+import com.assembly.exceptions.AssemblyUnknownArgumentException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+public class RISCIncrementalAssembler {
+    //One line of the source and everything assembled from it.
+    private static class Entry{
+        public String text;
+        public RISCAssembler.RISCLine line;             //Null for blank and comment lines.
+        public String[] labels;                         //Labels defined on the line, null if none.
+        public RISCAssembler.RISCRelocation relocation; //Label argument, at relative to the line, null if none.
+        public int offset;                              //Byte offset of the line in the program.
+
+        public int length(){
+            return (line == null) ? 0 : line.byte_length();
+        }
+    }
+
+    //Instance Variables
+    private ArrayList<Entry> entries;
+    private HashMap<String, Entry> labels;                  //Line each label is defined on.
+    private HashMap<String, HashSet<Entry>> references;     //Lines with an argument naming each label.
+    private boolean redefined;                              //True if a label is defined more than once.
+    private byte[] program;
+
+    //Precond:
+    //  source is the lines of a SAC-RISC program.
+    //
+    //Postcond:
+    //  Assembles the program, throws the error RISCAssembler.assemble would if it cannot.
+    public RISCIncrementalAssembler(List<String> source) throws AssemblyException {
+        build(source);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns a copy of the assembled program.
+    public byte[] get_program(){
+        return program.clone();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of lines in the source.
+    public int size(){
+        return entries.size();
+    }
+
+    //Precond:
+    //  first and last bound a range of source lines, 0 based and last exclusive, first == last to
+    //  insert.
+    //  replacement is the lines to put in place of the range.
+    //
+    //Postcond:
+    //  Replaces the lines and reassembles what the edit affects, returning the assembled program.
+    //  If the edited program does not assemble, throws its error and keeps the program unedited.
+    public byte[] replace(int first, int last, List<String> replacement) throws AssemblyException {
+        if(first < 0 || last < first || last > entries.size())
+            throw new IndexOutOfBoundsException(String.format("Lines %d to %d of %d.", first, last, entries.size()));
+        List<Entry> removed = entries.subList(first, last);
+        HashSet<Entry> removed_set = new HashSet<>(removed);
+        //Convert only the new lines, relative to the start of the edit.
+        ArrayList<Entry> added = new ArrayList<>();
+        HashMap<String, Entry> added_labels = new HashMap<>();
+        try{
+            if(convert(replacement, first, added, added_labels) || redefined)return rebuild(first, last, replacement);
+        }
+        catch(AssemblyException exp){
+            return rebuild(first, last, replacement);
+        }
+        //Check the edit leaves every label defined once and every label argument resolvable,
+        //otherwise assemble the edited program from scratch.
+        for(String name : added_labels.keySet()){
+            Entry defined = labels.get(name);
+            if(defined != null && !removed_set.contains(defined))return rebuild(first, last, replacement);
+        }
+        for(Entry entry : removed){
+            if(entry.labels == null)continue;
+            for(String name : entry.labels){
+                if(added_labels.containsKey(name) || !references.containsKey(name))continue;
+                for(Entry user : references.get(name)){
+                    if(!removed_set.contains(user))return rebuild(first, last, replacement);
+                }
+            }
+        }
+        for(Entry entry : added){
+            if(entry.relocation == null)continue;
+            String name = entry.relocation.label;
+            if(added_labels.containsKey(name))continue;
+            Entry defined = labels.get(name);
+            if(defined == null || removed_set.contains(defined))return rebuild(first, last, replacement);
+        }
+        //Commit the edit.
+        int start = (first < entries.size()) ? entries.get(first).offset : program.length;
+        int old_length = 0;
+        for(Entry entry : removed){
+            old_length += entry.length();
+            forget(entry);
+        }
+        removed.clear();
+        int new_length = 0;
+        for(Entry entry : added){
+            entry.offset = start + new_length;
+            new_length += entry.length();
+            remember(entry);
+        }
+        entries.addAll(first, added);
+        int delta = new_length - old_length;
+        int after = first + added.size();
+        if(delta != 0){
+            byte[] resized = new byte[program.length + delta];
+            System.arraycopy(program, 0, resized, 0, start);
+            System.arraycopy(program, start + old_length, resized, start + new_length,
+                    program.length - start - old_length);
+            program = resized;
+            for(int i = after;i < entries.size();i++)entries.get(i).offset += delta;
+        }
+        for(Entry entry : added){
+            if(entry.line != null)entry.line.emit(program, entry.offset);
+        }
+        //Patch the new label arguments, then every argument whose label moved.
+        for(Entry entry : added)patch(entry);
+        for(Entry entry : added)patch_users(entry);
+        if(delta != 0){
+            for(int i = after;i < entries.size();i++)patch_users(entries.get(i));
+        }
+        return program.clone();
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  source is the lines of a SAC-RISC program.
+    //
+    //Postcond:
+    //  Assembles the program from scratch, replacing every table only if it succeeds.
+    //  Throws the error RISCAssembler.assemble would throw for the program.
+    private void build(List<String> source) throws AssemblyException {
+        ArrayList<Entry> built = new ArrayList<>();
+        HashMap<String, Entry> built_labels = new HashMap<>();
+        boolean twice = convert(source, 0, built, built_labels);
+        int offset = 0;
+        for(Entry entry : built){
+            entry.offset = offset;
+            offset += entry.length();
+        }
+        for(Entry entry : built){
+            if(entry.relocation != null && !built_labels.containsKey(entry.relocation.label))
+                throw new AssemblyUnknownArgumentException("Unknown label.", entry.relocation.line_num);
+        }
+        entries = built;
+        labels = built_labels;
+        redefined = twice;
+        references = new HashMap<>();
+        program = new byte[offset];
+        for(Entry entry : built){
+            if(entry.relocation != null)references.computeIfAbsent(entry.relocation.label, name -> new HashSet<>()).add(entry);
+            if(entry.line != null)entry.line.emit(program, entry.offset);
+        }
+        for(Entry entry : built)patch(entry);
+    }
+
+    //Precond:
+    //  first and last bound the range of lines being replaced.
+    //  replacement is the lines to put in place of the range.
+    //
+    //Postcond:
+    //  Reassembles the edited program from scratch, used when an edit may be in error.
+    private byte[] rebuild(int first, int last, List<String> replacement) throws AssemblyException {
+        ArrayList<String> source = new ArrayList<>(entries.size() - (last - first) + replacement.size());
+        for(int i = 0;i < first;i++)source.add(entries.get(i).text);
+        source.addAll(replacement);
+        for(int i = last;i < entries.size();i++)source.add(entries.get(i).text);
+        build(source);
+        return program.clone();
+    }
+
+    //Precond:
+    //  source is the lines to convert, the first of which is line first of the program.
+    //  into and into_labels are where to add the converted lines and the labels they define.
+    //
+    //Postcond:
+    //  Converts each line once, with offsets and relocations relative to the line.
+    //  A label defined twice within the lines is bound to the later line.
+    //  Returns true if any label was defined twice, throws the first conversion error.
+    private static boolean convert(List<String> source, int first, ArrayList<Entry> into,
+                                HashMap<String, Entry> into_labels) throws AssemblyException {
+        RISCTokenSpans tokens = new RISCTokenSpans();
+        ArrayList<RISCAssembler.RISCRelocation> relocations = new ArrayList<>(1);
+        ArrayList<String> line_labels = new ArrayList<>();
+        boolean twice = false;
+        int line_num = first;
+        for(String text : source){
+            line_num += 1;
+            Entry entry = new Entry();
+            entry.text = text;
+            into.add(entry);
+            RISCTokenizer.tokenize(text, line_num, tokens);
+            if(tokens.size() == 0)continue;
+            if (!RISCAssembler.valid_line(tokens))
+                throw new AssemblyUnknownArgumentException("Unknown command-argument sequence.", line_num);
+            int cmd_offset = 0;
+            //Labels come first.
+            while (cmd_offset < tokens.size() && tokens.type(cmd_offset) == RISCTokenizer.RISC_TYPE.LABEL){
+                String name = RISCAssembler.label(tokens, cmd_offset);
+                if(into_labels.put(name, entry) != null)twice = true;
+                line_labels.add(name);
+                cmd_offset += 1;
+            }
+            if(!line_labels.isEmpty()){
+                entry.labels = line_labels.toArray(new String[0]);
+                line_labels.clear();
+            }
+            entry.line = RISCAssembler.parse_line(tokens, cmd_offset, line_num, 0, relocations);
+            if(!relocations.isEmpty()){
+                entry.relocation = relocations.get(0);
+                relocations.clear();
+            }
+        }
+        return twice;
+    }
+
+    //Precond:
+    //  entry is a line being added to the program.
+    //
+    //Postcond:
+    //  Records the labels the line defines and the label it refers to.
+    private void remember(Entry entry){
+        if(entry.labels != null){
+            for(String name : entry.labels)labels.put(name, entry);
+        }
+        if(entry.relocation != null)
+            references.computeIfAbsent(entry.relocation.label, name -> new HashSet<>()).add(entry);
+    }
+
+    //Precond:
+    //  entry is a line being removed from the program.
+    //
+    //Postcond:
+    //  Forgets the labels the line defines and the label it refers to.
+    private void forget(Entry entry){
+        if(entry.labels != null){
+            for(String name : entry.labels)labels.remove(name);
+        }
+        if(entry.relocation != null){
+            HashSet<Entry> users = references.get(entry.relocation.label);
+            users.remove(entry);
+            if(users.isEmpty())references.remove(entry.relocation.label);
+        }
+    }
+
+    //Precond:
+    //  entry is a line of the program, its label argument's label is defined.
+    //
+    //Postcond:
+    //  Writes the offset of the label into the line's label argument, if it has one.
+    private void patch(Entry entry){
+        if(entry.relocation == null)return;
+        RISCAssembler.emit_literal(labels.get(entry.relocation.label).offset, program,
+                entry.offset + entry.relocation.at);
+    }
+
+    //Precond:
+    //  entry is a line of the program.
+    //
+    //Postcond:
+    //  Patches every label argument naming a label the line defines.
+    private void patch_users(Entry entry){
+        if(entry.labels == null)return;
+        for(String name : entry.labels){
+            HashSet<Entry> users = references.get(name);
+            if(users == null)continue;
+            for(Entry user : users)patch(user);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+/* File: RISCLinker.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A class of static methods for linking SAC-RISC objects into a loadable program.
+ * Notes:
+ *  Objects are placed one after another in the order given, so the first object's code starts
+ *  the program.
+ *  A label argument names a label of its own object if that object defines it, otherwise the one
+ *  other object defining it. Routines in different objects may therefore reuse label names, only
+ *  a label wanted from another object must be defined by exactly one object.
+ */
+
+
+package com.assembly;
+
+import com.assembly.exceptions.AssemblyLinkException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RISCLinker {
+    //Precond:
+    //  objects are the objects making up the program, in the order they are to be loaded.
+    //
+    //Postcond:
+    //  Returns the linked program.
+    //  Throws an AssemblyLinkException for a label no object defines, or which more than one other
+    //  object defines.
+    public static byte[] link(List<RISCObject> objects) throws AssemblyLinkException {
+        int[] bases = new int[objects.size()];
+        long length = 0;
+        for(int i = 0;i < objects.size();i++){
+            bases[i] = (int)length;
+            length += objects.get(i).length();
+        }
+        if(length > Integer.MAX_VALUE)throw new AssemblyLinkException("Program too large to link.", 0);
+        //Every object defining each label, in load order.
+        HashMap<String, ArrayList<Integer>> definitions = new HashMap<>();
+        for(int i = 0;i < objects.size();i++){
+            for(String label : objects.get(i).get_symbols().keySet()){
+                definitions.computeIfAbsent(label, name -> new ArrayList<>()).add(i);
+            }
+        }
+        byte[] program = new byte[(int)length];
+        for(int i = 0;i < objects.size();i++){
+            RISCObject object = objects.get(i);
+            System.arraycopy(object.code(), 0, program, bases[i], object.length());
+            Map<String, Integer> symbols = object.get_symbols();
+            for(RISCAssembler.RISCRelocation relocation : object.relocations()){
+                int target;
+                Integer local = symbols.get(relocation.label);
+                if(local != null){
+                    target = bases[i] + local;
+                }
+                else{
+                    ArrayList<Integer> defined = definitions.get(relocation.label);
+                    if(defined == null)
+                        throw new AssemblyLinkException(String.format("Undefined label %s in %s.",
+                                relocation.label, object.get_name()), relocation.line_num);
+                    if(defined.size() > 1)
+                        throw new AssemblyLinkException(String.format("Label %s used in %s is defined by %s and %s.",
+                                relocation.label, object.get_name(), objects.get(defined.get(0)).get_name(),
+                                objects.get(defined.get(1)).get_name()), relocation.line_num);
+                    int owner = defined.get(0);
+                    target = bases[owner] + objects.get(owner).get_symbols().get(relocation.label);
+                }
+                RISCAssembler.emit_literal(target, program, bases[i] + relocation.at);
+            }
+        }
+        return program;
+    }
+}
@@ -0,0 +1,208 @@
+/* File: RISCObject.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A relocatable SAC-RISC object, the code of one source assembled as if loaded at address 0,
+ *  with the labels it defines and the label arguments the linker must patch.
+ * Notes:
+ *  Every JUMP_LABEL, BRANCH_LABEL and SET label argument has a relocation, not only those to
+ *  labels defined elsewhere, since linking moves the code. Arguments to labels the object defines
+ *  are already patched for address 0, arguments to other labels are left as 0.
+ *  File format, all integers big-endian:
+ *    int magic "SROB", int format version, UTF name,
+ *    int code length, code bytes,
+ *    int symbol count, then per symbol: UTF label, int offset,
+ *    int relocation count, then per relocation: int offset of the literal, UTF label, int line.
+ */
+
+
+package com.assembly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class RISCObject {
+    //Constants
+    private static final int magic = 0x53524F42; //"SROB"
+    private static final int format = 1;
+
+    //Instance Variables
+    private final String name;
+    private final byte[] code;
+    private final LinkedHashMap<String, Integer> symbols;
+    private final ArrayList<RISCAssembler.RISCRelocation> relocations;
+
+    //Precond:
+    //  name names the object in link errors, usually its source file.
+    //  code is the assembled code for address 0.
+    //  symbols maps every label the object defines to its offset in the code.
+    //  relocations are every label argument in the code.
+    //
+    //Postcond:
+    //  Creates the object.
+    RISCObject(String name, byte[] code, Map<String, Integer> symbols, List<RISCAssembler.RISCRelocation> relocations){
+        this.name = name;
+        this.code = code;
+        this.symbols = new LinkedHashMap<>(symbols);
+        this.relocations = new ArrayList<>(relocations);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the name of the object.
+    public String get_name(){
+        return name;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of bytes of code in the object.
+    public int length(){
+        return code.length;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the labels the object defines and their offsets in its code.
+    public Map<String, Integer> get_symbols(){
+        return Collections.unmodifiableMap(symbols);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the labels the object refers to but does not define.
+    public List<String> get_externals(){
+        ArrayList<String> externals = new ArrayList<>();
+        for(RISCAssembler.RISCRelocation relocation : relocations){
+            if(!symbols.containsKey(relocation.label) && !externals.contains(relocation.label))
+                externals.add(relocation.label);
+        }
+        return externals;
+    }
+
+    //Precond:
+    //  out is the stream to write to.
+    //
+    //Postcond:
+    //  Writes the object in the object file format, see the notes above.
+    public void write(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(magic);
+        data.writeInt(format);
+        data.writeUTF(name);
+        data.writeInt(code.length);
+        data.write(code);
+        data.writeInt(symbols.size());
+        for(Map.Entry<String, Integer> symbol : symbols.entrySet()){
+            data.writeUTF(symbol.getKey());
+            data.writeInt(symbol.getValue());
+        }
+        data.writeInt(relocations.size());
+        for(RISCAssembler.RISCRelocation relocation : relocations){
+            data.writeInt(relocation.at);
+            data.writeUTF(relocation.label);
+            data.writeInt(relocation.line_num);
+        }
+        data.flush();
+    }
+
+    //Precond:
+    //  file is the path to write the object file to.
+    //
+    //Postcond:
+    //  Writes the object to the file, replacing it.
+    public void write(Path file) throws IOException {
+        try(OutputStream out = Files.newOutputStream(file)){
+            write(out);
+        }
+    }
+
+    //Precond:
+    //  in is a stream positioned at an object written by write.
+    //
+    //Postcond:
+    //  Returns the object read.
+    //  Throws an IOException if the stream does not hold a well formed object.
+    public static RISCObject read(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if(data.readInt() != magic)throw new IOException("Not a SAC-RISC object file.");
+        int version = data.readInt();
+        if(version != format)throw new IOException(String.format("Unsupported object file format %d.", version));
+        String name = data.readUTF();
+        int length = data.readInt();
+        if(length < 0)throw new IOException("Negative object code length.");
+        //Read without trusting the length, so a corrupt length cannot allocate more than the stream holds.
+        byte[] code = data.readNBytes(length);
+        if(code.length != length)throw new IOException("Object code truncated.");
+        LinkedHashMap<String, Integer> symbols = new LinkedHashMap<>();
+        for(int i = data.readInt();i > 0;i--){
+            String label = data.readUTF();
+            int offset = data.readInt();
+            if(offset < 0 || offset > code.length)throw new IOException("Symbol " + label + " outside of the code.");
+            symbols.put(label, offset);
+        }
+        ArrayList<RISCAssembler.RISCRelocation> relocations = new ArrayList<>();
+        for(int i = data.readInt();i > 0;i--){
+            int at = data.readInt();
+            String label = data.readUTF();
+            int line_num = data.readInt();
+            if(at < 0 || at > code.length - 4)throw new IOException("Relocation for " + label + " outside of the code.");
+            relocations.add(new RISCAssembler.RISCRelocation(at, label, line_num));
+        }
+        return new RISCObject(name, code, symbols, relocations);
+    }
+
+    //Precond:
+    //  file is the path of an object file.
+    //
+    //Postcond:
+    //  Returns the object read from the file.
+    public static RISCObject read(Path file) throws IOException {
+        try(InputStream in = Files.newInputStream(file)){
+            return read(in);
+        }
+    }
+
+    //====================
+    //  Package Methods
+    //====================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the code of the object, not a copy.
+    byte[] code(){
+        return code;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the relocations of the object, not a copy.
+    List<RISCAssembler.RISCRelocation> relocations(){
+        return relocations;
+    }
+}
@@ -0,0 +1,264 @@
+/* File: RISCOptimizer.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A peephole optimizer and branch relaxation over converted SAC-RISC lines, run by RISCAssembler
+ *  before byte offsets are assigned.
+ * Notes:
+ *  Removes:
+ *    NOPs standing in for lines holding only labels,
+ *    COPY of a register onto itself,
+ *    JUMP_LABEL to the line right after it,
+ *    PUSH_STK of a register followed straight away by POP_STK of the same register,
+ *    SET of a register the next line overwrites without reading.
+ *  The labels of a removed line move to the line after it, which is where control went next, so
+ *  every label keeps its meaning. A POP_STK with a label is never removed, since a jump to it pops.
+ *  Lines naming registers the CPU does not have, or the program counter, are left alone as they
+ *  stop the CPU or change control flow.
+ *  Removing lines moves code, so programs that compute addresses from numbers instead of labels
+ *  should not be optimized. The stack word written by a removed PUSH_STK is not written.
+ *  relax is a separate pass, branch relaxation. Every JUMP_LABEL and BRANCH_LABEL to a label of
+ *  the program starts as a PC-relative JUMP_SHORT or BRANCH_SHORT with a 1 byte displacement. Any
+ *  whose target is out of reach grows to the 2 byte NEAR form and then to the absolute form, and
+ *  the layout is redone until nothing grows. Lines never shrink, so this always settles.
+ *  Relative lines have no relocation, so relaxed code cannot be moved by the linker.
+ */
+
+
+package com.assembly;
+
+import com.hardware.CPU;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+class RISCOptimizer {
+    //A converted line with the labels defined on it and its label argument.
+    static class RISCItem{
+        public RISCAssembler.RISCLine line;
+        public ArrayList<String> labels;
+        public RISCAssembler.RISCRelocation relocation; //At is relative to the line, null if none.
+
+        public RISCItem(RISCAssembler.RISCLine line){
+            this.line = line;
+            labels = new ArrayList<>();
+            relocation = null;
+        }
+    }
+
+    //Precond:
+    //  items are the lines of a program in order.
+    //
+    //Postcond:
+    //  Removes redundant lines until none are left, returns true if any were removed.
+    public static boolean optimize(ArrayList<RISCItem> items){
+        boolean optimized = false;
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            HashMap<String, Integer> targets = targets(items);
+            ArrayList<RISCItem> kept = new ArrayList<>(items.size());
+            ArrayList<String> carried = new ArrayList<>(); //Labels of removed lines.
+            for(int i = 0;i < items.size();i++){
+                int removed = removable(items, i, targets);
+                //Labels need a line after the removed ones to move to.
+                if(i + removed == items.size()){
+                    boolean labelled = !carried.isEmpty();
+                    for(int j = i;j < items.size();j++)labelled |= !items.get(j).labels.isEmpty();
+                    if(labelled)removed = 0;
+                }
+                if(removed == 0){
+                    RISCItem item = items.get(i);
+                    if(!carried.isEmpty()){
+                        carried.addAll(item.labels);
+                        item.labels = carried;
+                        carried = new ArrayList<>();
+                    }
+                    kept.add(item);
+                    continue;
+                }
+                for(int j = i;j < i + removed;j++)carried.addAll(items.get(j).labels);
+                i += removed - 1;
+                changed = true;
+            }
+            items.clear();
+            items.addAll(kept);
+            optimized |= changed;
+        }
+        return optimized;
+    }
+
+    //Precond:
+    //  items are the lines of a program in order.
+    //
+    //Postcond:
+    //  Replaces each JUMP_LABEL and BRANCH_LABEL to a label on one of the items with the shortest
+    //  relative form reaching it, returns true if any were replaced.
+    public static boolean relax(ArrayList<RISCItem> items){
+        HashMap<String, Integer> targets = targets(items);
+        //Displacement width of each relaxable line, 0 for the absolute form.
+        int[] widths = new int[items.size()];
+        for(int i = 0;i < items.size();i++){
+            RISCItem item = items.get(i);
+            if((item.line.cmd == RISCCommandList.JUMP_LABEL || item.line.cmd == RISCCommandList.BRANCH_LABEL)
+                    && targets.containsKey(item.relocation.label))widths[i] = 1;
+        }
+        //Lines only grow, so the layout settles once no displacement is out of reach.
+        int[] offsets = new int[items.size() + 1];
+        boolean changed = true;
+        while(changed){
+            changed = false;
+            for(int i = 0;i < items.size();i++)offsets[i + 1] = offsets[i] + length(items.get(i).line, widths[i]);
+            for(int i = 0;i < items.size();i++){
+                if(widths[i] == 0)continue;
+                int displacement = offsets[targets.get(items.get(i).relocation.label)] - offsets[i + 1];
+                if(!reaches(displacement, widths[i])){
+                    widths[i] = (widths[i] == 1) ? 2 : 0;
+                    changed = true;
+                }
+            }
+        }
+        boolean relaxed = false;
+        for(int i = 0;i < items.size();i++){
+            if(widths[i] == 0)continue;
+            RISCItem item = items.get(i);
+            RISCAssembler.RISCLine line = item.line;
+            int displacement = offsets[targets.get(item.relocation.label)] - offsets[i + 1];
+            if(line.cmd == RISCCommandList.JUMP_LABEL){
+                item.line = new RISCAssembler.RISCRelativeLine(
+                        (widths[i] == 1) ? RISCCommandList.JUMP_SHORT : RISCCommandList.JUMP_NEAR,
+                        line.line_num, displacement, widths[i]);
+            }
+            else{
+                item.line = new RISCAssembler.RISCRegRelativeLine(
+                        (widths[i] == 1) ? RISCCommandList.BRANCH_SHORT : RISCCommandList.BRANCH_NEAR,
+                        line.line_num, first(line), displacement, widths[i]);
+            }
+            item.relocation = null;
+            relaxed = true;
+        }
+        return relaxed;
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  items are the lines of a program in order.
+    //
+    //Postcond:
+    //  Returns a map from each label to the index of its line.
+    private static HashMap<String, Integer> targets(ArrayList<RISCItem> items){
+        HashMap<String, Integer> targets = new HashMap<>();
+        for(int i = 0;i < items.size();i++){
+            for(String name : items.get(i).labels)targets.put(name, i);
+        }
+        return targets;
+    }
+
+    //Precond:
+    //  line is a converted line.
+    //  width is the displacement width chosen for it, 0 to keep its absolute form.
+    //
+    //Postcond:
+    //  Returns the byte length of the line in that form.
+    private static int length(RISCAssembler.RISCLine line, int width){
+        if(width == 0)return line.byte_length();
+        return line.byte_length() - 4 + width;
+    }
+
+    //Precond:
+    //  width is 1 or 2.
+    //
+    //Postcond:
+    //  Returns true if the displacement fits in a signed value of width bytes.
+    private static boolean reaches(int displacement, int width){
+        if(width == 1)return displacement >= Byte.MIN_VALUE && displacement <= Byte.MAX_VALUE;
+        return displacement >= Short.MIN_VALUE && displacement <= Short.MAX_VALUE;
+    }
+
+    //Precond:
+    //  items are the lines of a program in order.
+    //  i is the index of a line.
+    //  targets maps each label to the index of its line.
+    //
+    //Postcond:
+    //  Returns the number of lines starting at i that can be removed, 0 if none.
+    private static int removable(ArrayList<RISCItem> items, int i, HashMap<String, Integer> targets){
+        RISCAssembler.RISCLine line = items.get(i).line;
+        RISCAssembler.RISCLine next = (i + 1 < items.size()) ? items.get(i + 1).line : null;
+        switch(line.cmd){
+            case NOP -> {
+                if(line.filler)return 1;
+            }
+            case COPY -> {
+                if(plain(first(line)) && first(line) == second(line))return 1;
+            }
+            case JUMP_LABEL -> {
+                Integer target = targets.get(items.get(i).relocation.label);
+                if(target != null && target == i + 1)return 1;
+            }
+            case PUSH_STK -> {
+                if(next != null && next.cmd == RISCCommandList.POP_STK && items.get(i + 1).labels.isEmpty()
+                        && plain(first(line)) && first(line) == first(next))return 2;
+            }
+            case SET -> {
+                if(next != null && plain(first(line)) && overwrites(next, first(line)))return 1;
+            }
+        }
+        return 0;
+    }
+
+    //Precond:
+    //  line is a converted line.
+    //  reg is a register.
+    //
+    //Postcond:
+    //  Returns true if the line sets the register without reading it or jumping.
+    private static boolean overwrites(RISCAssembler.RISCLine line, byte reg){
+        switch(line.cmd){
+            case SET -> {
+                return first(line) == reg;
+            }
+            case LOAD_LIT, INPUT, INPUT_CHAR -> {
+                return reg == CPU.rs;
+            }
+            case COPY, NEG, LSHIFT, RSHIFT, LOAD, LOAD_BYTE -> {
+                return plain(first(line)) && second(line) == reg && first(line) != reg;
+            }
+            case POP_STK -> {
+                return first(line) == reg && reg != CPU.sp;
+            }
+        }
+        return false;
+    }
+
+    //Precond:
+    //  reg is a register argument.
+    //
+    //Postcond:
+    //  Returns true if the CPU has the register and it is not the program counter.
+    private static boolean plain(byte reg){
+        return reg >= 0 && reg < CPU.REGISTER_TOTAL && reg != CPU.pc;
+    }
+
+    //Precond:
+    //  line has at least one register argument.
+    //
+    //Postcond:
+    //  Returns the first register argument.
+    private static byte first(RISCAssembler.RISCLine line){
+        return ((RISCAssembler.RISCSingleRegLine)line).register;
+    }
+
+    //Precond:
+    //  line has at least two register arguments.
+    //
+    //Postcond:
+    //  Returns the second register argument.
+    private static byte second(RISCAssembler.RISCLine line){
+        return ((RISCAssembler.RISCDoubleRegLine)line).register;
+    }
+}
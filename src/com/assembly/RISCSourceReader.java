@@ -0,0 +1,104 @@
+/* File: RISCSourceReader.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Reads the lines of a SAC-RISC program from a channel without loading the whole program.
+ * Notes:
+ *  Sources are decoded as UTF-8, malformed input is replaced rather than reported.
+ *  Lines end at \n, \r\n or \r, the same as Scanner.nextLine for those terminators.
+ *  The line returned by next_line is reused, it is only valid until the next call.
+ */
+
+
+package com.assembly;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+public class RISCSourceReader {
+    //Constants
+    private static final int buffer_size = 1 << 16;
+
+    //Instance Variables
+    private final ReadableByteChannel channel;
+    private final CharsetDecoder decoder;
+    private final ByteBuffer bytes;
+    private final CharBuffer chars;
+    private final StringBuilder line;
+    private boolean end_of_input; //The channel has no more bytes.
+    private boolean flushed;      //The decoder has no more characters.
+    private boolean after_cr;     //The previous line ended with \r, a following \n belongs to it.
+
+    //Precond:
+    //  channel is an open channel holding a SAC-RISC program.
+    //
+    //Postcond:
+    //  Creates a reader positioned at the first line of the program.
+    public RISCSourceReader(ReadableByteChannel channel){
+        this.channel = channel;
+        decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        bytes = ByteBuffer.allocate(buffer_size);
+        chars = CharBuffer.allocate(buffer_size);
+        chars.flip();
+        line = new StringBuilder();
+        end_of_input = false;
+        flushed = false;
+        after_cr = false;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the next line without its terminator, or null if there are no more lines.
+    public CharSequence next_line() throws IOException {
+        line.setLength(0);
+        boolean started = false;
+        while(true){
+            if(!chars.hasRemaining() && !fill())return started ? line : null;
+            char current = chars.get();
+            if(after_cr){
+                after_cr = false;
+                if(current == '\n')continue;
+            }
+            started = true;
+            if(current == '\n')return line;
+            if(current == '\r'){
+                after_cr = true;
+                return line;
+            }
+            line.append(current);
+        }
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  Every decoded character has been read.
+    //
+    //Postcond:
+    //  Decodes more of the channel, returns false if there is nothing left.
+    private boolean fill() throws IOException {
+        chars.clear();
+        while(chars.position() == 0 && !flushed){
+            if(!end_of_input && channel.read(bytes) < 0)end_of_input = true;
+            bytes.flip();
+            CoderResult result = decoder.decode(bytes, chars, end_of_input);
+            bytes.compact();
+            if(end_of_input && result.isUnderflow() && decoder.flush(chars).isUnderflow())flushed = true;
+        }
+        chars.flip();
+        return chars.hasRemaining();
+    }
+}
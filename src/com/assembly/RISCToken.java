@@ -20,12 +20,8 @@ public class RISCToken {
         if(type != RISCTokenizer.RISC_TYPE.STRING) {
             this.contents = contents.toUpperCase();
             if(this.type == RISCTokenizer.RISC_TYPE.IDENT) {
-                for (RISCCommandList cmd : RISCCommandList.values()) {
-                    if (this.contents.equals(cmd.toString())){
-                        this.type = RISCTokenizer.RISC_TYPE.CMD;
-                        break;
-                    }
-                }
+                if(RISCCommandList.lookup(this.contents, 0, this.contents.length()) != null)
+                    this.type = RISCTokenizer.RISC_TYPE.CMD;
             }
         }
         else{
@@ -0,0 +1,167 @@
+/* File: RISCTokenSpans.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A reusable buffer of the tokens of one line of SAC-RISC code, filled by RISCTokenizer.
+ * Notes:
+ *  Each token is a span (type, start, end) over the line, so tokenizing allocates nothing once
+ *  the buffer has grown to the longest line.
+ *  Register spans exclude the '$' and string spans exclude the quotes, escapes are not applied.
+ *  Values are decoded while tokenizing, the register number of a REG, the number of a NUM and the
+ *  command of a CMD.
+ */
+
+
+package com.assembly;
+
+import java.util.Arrays;
+
+public class RISCTokenSpans {
+    //Instance Variables
+    private CharSequence line;
+    private int count;
+    private RISCTokenizer.RISC_TYPE[] types;
+    private int[] starts;
+    private int[] ends;
+    private long[] values;
+    private RISCCommandList[] commands;
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Creates an empty buffer.
+    public RISCTokenSpans(){
+        line = "";
+        count = 0;
+        types = new RISCTokenizer.RISC_TYPE[8];
+        starts = new int[8];
+        ends = new int[8];
+        values = new long[8];
+        commands = new RISCCommandList[8];
+    }
+
+    //Precond:
+    //  line is the line about to be tokenized into the buffer.
+    //
+    //Postcond:
+    //  Empties the buffer.
+    void clear(CharSequence line){
+        this.line = line;
+        count = 0;
+    }
+
+    //Precond:
+    //  type is the type of the token.
+    //  start and end bound the token in the line, end exclusive.
+    //  value is the decoded value of the token.
+    //  command is the command named by a CMD token, null otherwise.
+    //
+    //Postcond:
+    //  Adds the token to the end of the buffer.
+    void add(RISCTokenizer.RISC_TYPE type, int start, int end, long value, RISCCommandList command){
+        if(count == types.length)grow();
+        types[count] = type;
+        starts[count] = start;
+        ends[count] = end;
+        values[count] = value;
+        commands[count] = command;
+        count += 1;
+    }
+
+    //===========
+    //  Getters
+    //===========
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of tokens in the buffer.
+    public int size(){
+        return count;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the line the tokens are spans of.
+    public CharSequence line(){
+        return line;
+    }
+
+    //Precond:
+    //  idx is the index of a token in the buffer.
+    //
+    //Postcond:
+    //  Returns the type of the token.
+    public RISCTokenizer.RISC_TYPE type(int idx){
+        return types[idx];
+    }
+
+    //Precond:
+    //  idx is the index of a token in the buffer.
+    //
+    //Postcond:
+    //  Returns the index in the line of the first character of the token.
+    public int start(int idx){
+        return starts[idx];
+    }
+
+    //Precond:
+    //  idx is the index of a token in the buffer.
+    //
+    //Postcond:
+    //  Returns the index in the line just past the last character of the token.
+    public int end(int idx){
+        return ends[idx];
+    }
+
+    //Precond:
+    //  idx is the index of a REG or NUM token in the buffer.
+    //
+    //Postcond:
+    //  Returns the register number of a REG token or the number of a NUM token.
+    //  A number too large for an int is returned as some value outside the range of an int.
+    public long value(int idx){
+        return values[idx];
+    }
+
+    //Precond:
+    //  idx is the index of a token in the buffer.
+    //
+    //Postcond:
+    //  Returns the command of a CMD token, null for every other type.
+    public RISCCommandList command(int idx){
+        return commands[idx];
+    }
+
+    //Precond:
+    //  idx is the index of a token in the buffer.
+    //
+    //Postcond:
+    //  Returns the text of the token as it appears in the line.
+    public String text(int idx){
+        return line.subSequence(starts[idx], ends[idx]).toString();
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Doubles the capacity of the buffer.
+    private void grow(){
+        int capacity = types.length*2;
+        types = Arrays.copyOf(types, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        ends = Arrays.copyOf(ends, capacity);
+        values = Arrays.copyOf(values, capacity);
+        commands = Arrays.copyOf(commands, capacity);
+    }
+}
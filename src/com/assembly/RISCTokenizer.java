@@ -45,126 +45,125 @@ public class RISCTokenizer {
     //Postcond:
     //  Returns an ArrayList of RISCToken objects which represented the parsed line.
     //  If there is any error while parsing the line into tokens an AssemblyParseExecption is thrown.
+    //  A backslash in a string drops out and keeps the character after it as written, so "\n" is
+    //  an n, as it always has been for this method.
     public static ArrayList<RISCToken> tokenize(String line, int line_num) throws AssemblyParseException{
         ArrayList<RISCToken> tokens = new ArrayList<>();
-        if(line.isBlank())return tokens;
-        StringBuilder temp = new StringBuilder();
+        RISCTokenSpans spans = new RISCTokenSpans();
+        tokenize(line, line_num, spans);
+        for(int i = 0;i < spans.size();i++){
+            String text = spans.text(i);
+            if(spans.type(i) == RISC_TYPE.STRING)text = drop_escapes(text);
+            tokens.add(new RISCToken(spans.type(i), text));
+        }
+        return tokens;
+    }
+
+    //Precond:
+    //  line holds a line of SAC-RISC code.
+    //  line_num is the line number of the line of SAC-RISC code in the larger program.
+    //  spans is the buffer to fill, its previous contents are discarded.
+    //
+    //Postcond:
+    //  Fills spans with the tokens of the line, see RISCTokenSpans.
+    //  If there is any error while parsing the line into tokens an AssemblyParseExecption is thrown.
+    public static void tokenize(CharSequence line, int line_num, RISCTokenSpans spans) throws AssemblyParseException{
+        spans.clear(line);
         STATES state = STATES.START;
+        int start = 0;  //Start of the current token.
+        long value = 0; //Magnitude of the current number.
+        boolean negative = false;
+        int end = line.length();
         for(int i = 0;i < line.length();i++){
             char current = line.charAt(i);
             //Consider and remove comments.
-            if(line.charAt(i) == '#')break;
+            if(current == '#'){
+                end = i;
+                break;
+            }
             switch (state){
                 case START -> {
                     if(Character.isWhitespace(current))continue;
-                    else if(current == '"')
+                    start = i;
+                    if(current == '"') {
+                        start = i + 1;
                         state = STATES.IN_STR;
-                    else {
-                        temp.append(current);
-                        //Detect number or negative number literal.
-                        if (Character.isDigit(current))
-                            state = STATES.NUM_LIT;
-                        else if (current == '-')
-                            state = STATES.NUM_LIT_NEG;
-                        else if (current == '$')
-                            state = STATES.REGISTER;
-                        //Detect label or identifier.
-                        else{
-                            state = STATES.LABEL;
-                        }
                     }
+                    //Detect number or negative number literal.
+                    else if (Character.isDigit(current)) {
+                        value = Character.digit(current, 10);
+                        negative = false;
+                        state = STATES.NUM_LIT;
+                    }
+                    else if (current == '-') {
+                        value = 0;
+                        negative = true;
+                        state = STATES.NUM_LIT_NEG;
+                    }
+                    else if (current == '$')
+                        state = STATES.REGISTER;
+                    //Detect label or identifier.
+                    else
+                        state = STATES.LABEL;
                 }
                 case NUM_LIT_NEG -> {
-                    if(!Character.isDigit(current) || Character.isWhitespace(current)){
+                    if(!Character.isDigit(current)){
                         String err_label = String.format("Unexpected char %s in number.", current);
                         throw new AssemblyParseException(err_label, line_num, i);
                     }
-                    temp.append(current);
+                    value = Character.digit(current, 10);
                     state = STATES.NUM_LIT;
                 }
                 case NUM_LIT -> {
                     if(Character.isWhitespace(current)){
                         //Handle end of number
                         state = STATES.START;
-                        tokens.add(new RISCToken(RISC_TYPE.NUM, temp.toString()));
-                        temp.setLength(0);
+                        spans.add(RISC_TYPE.NUM, start, i, negative ? -value : value, null);
                     }
                     else if(!Character.isDigit(current)){
                         String err_label = String.format("Unexpected char %s in number.", current);
                         throw new AssemblyParseException(err_label, line_num, i);
                     }
                     else {
-                        temp.append(current);
+                        value = append_digit(value, current);
                     }
                 }
                 case LABEL -> {
                     if(Character.isWhitespace(current)){
                         //Handle Identifier
                         state = STATES.START;
-                        tokens.add(new RISCToken(RISC_TYPE.IDENT, temp.toString()));
-                        temp.setLength(0);
+                        add_identifier(line, start, i, spans);
                     }
                     else if(current == ':'){
                         //Handle Label
                         state = STATES.START;
-                        tokens.add(new RISCToken(RISC_TYPE.LABEL, temp.toString()));
-                        temp.setLength(0);
+                        spans.add(RISC_TYPE.LABEL, start, i, 0, null);
                     }
                     else if(current == '"' || current == '-'){
                         String err_label = String.format("Unexpected char %s in identifier.", current);
                         throw new AssemblyParseException(err_label, line_num, i);
                     }
-                    else {
-                        temp.append(current);
-                    }
                 }
                 case IN_STR -> {
                     if(current == '"'){
                         //Handle string
                         state = STATES.START;
-                        tokens.add(new RISCToken(RISC_TYPE.STRING, temp.toString()));
-                        temp.setLength(0);
+                        spans.add(RISC_TYPE.STRING, start, i, 0, null);
                     }
                     else if(current == '\\'){
                         //Handle escape characters
                         state = STATES.ESC;
                     }
-                    else{
-                        temp.append(current);
-                    }
                 }
                 case ESC -> {
-                    temp.append(current);
                     state = STATES.IN_STR;
                 }
                 case REGISTER -> {
                     if(Character.isWhitespace(current)){
                         state = STATES.START;
-                        temp.deleteCharAt(0);
                         //Make sure the register is valid
-                        String reg_val = temp.toString().toUpperCase();
-                        String err_label = String.format("Unknown register %s.", reg_val);
-                        try{
-                            int val = Integer.parseInt(reg_val);
-                            if(val < 0 || val > CPU.get_instance().numRegisters())
-                                throw new AssemblyParseException(err_label, line_num, i);
-                        }
-                        catch(NumberFormatException exp){
-                            boolean found = false;
-                            for(String str : CPU.special_registers){
-                                if(str.equals(reg_val)){
-                                    found = true;
-                                    break;
-                                }
-                            }
-                            if(!found)
-                                throw new AssemblyParseException(err_label, line_num, i);
-                        }
-                        tokens.add(new RISCToken(RISC_TYPE.REG, reg_val));
-                        temp.setLength(0);
+                        spans.add(RISC_TYPE.REG, start + 1, i, register(line, start + 1, i, line_num, i), null);
                     }
-                    else
-                        temp.append(current);
                 }
             }
         }
@@ -176,11 +175,11 @@ public class RISCTokenizer {
             }
             case NUM_LIT -> {
                 //Handle end of number
-                tokens.add(new RISCToken(RISC_TYPE.NUM, temp.toString()));
+                spans.add(RISC_TYPE.NUM, start, end, negative ? -value : value, null);
             }
             case LABEL -> {
                 //Handle Identifier
-                tokens.add(new RISCToken(RISC_TYPE.IDENT, temp.toString()));
+                add_identifier(line, start, end, spans);
             }
             case IN_STR, ESC -> {
                 String err_label = "Incomplete string.";
@@ -188,29 +187,93 @@ public class RISCTokenizer {
             }
             case REGISTER -> {
                 //Make sure the register is valid
-                temp.deleteCharAt(0);
-                String reg_val = temp.toString().toUpperCase();
-                String err_label = String.format("Unknown register %s.", reg_val);
-                try{
-                    int val = Integer.parseInt(reg_val);
-                    if(val < 0 || val > CPU.get_instance().numRegisters())
-                        throw new AssemblyParseException(err_label, line_num, line.length()-1);
+                long reg = register(line, start + 1, end, line_num, line.length()-1);
+                spans.add(RISC_TYPE.REG, start + 1, end, reg, null);
+            }
+        }
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  value is the magnitude of a number so far.
+    //  digit is its next digit.
+    //
+    //Postcond:
+    //  Returns the magnitude with the digit appended.
+    //  Stops growing once past the range of an int, so it never overflows.
+    private static long append_digit(long value, char digit){
+        if(value > (long)Integer.MAX_VALUE + 1)return value;
+        return value*10 + Character.digit(digit, 10);
+    }
+
+    //Precond:
+    //  line holds an identifier between start and end, end exclusive.
+    //
+    //Postcond:
+    //  Adds the identifier to spans, as a CMD if it names a command.
+    private static void add_identifier(CharSequence line, int start, int end, RISCTokenSpans spans){
+        RISCCommandList cmd = RISCCommandList.lookup(line, start, end);
+        spans.add((cmd == null) ? RISC_TYPE.IDENT : RISC_TYPE.CMD, start, end, 0, cmd);
+    }
+
+    //Precond:
+    //  line holds a register name, without its '$', between start and end, end exclusive.
+    //  line_num and err_pos locate the register for error reporting.
+    //
+    //Postcond:
+    //  Returns the register number.
+    //  Throws an AssemblyParseException if there is no such register.
+    private static long register(CharSequence line, int start, int end, int line_num, int err_pos)
+            throws AssemblyParseException {
+        //Numbered registers, read the way Integer.parseInt would.
+        int idx = start;
+        if(idx < end && (line.charAt(idx) == '-' || line.charAt(idx) == '+'))idx += 1;
+        boolean numeric = idx < end;
+        long val = 0;
+        for(int i = idx;i < end && numeric;i++){
+            if(!Character.isDigit(line.charAt(i)))numeric = false;
+            else val = append_digit(val, line.charAt(i));
+        }
+        if(numeric && line.charAt(start) == '-')val = -val;
+        if(numeric && val >= Integer.MIN_VALUE && val <= Integer.MAX_VALUE){
+            if(val >= 0 && val <= CPU.REGISTER_TOTAL)return val;
+        }
+        else if(end - start == 2){
+            //Special registers
+            char first = Character.toUpperCase(line.charAt(start));
+            char second = Character.toUpperCase(line.charAt(start + 1));
+            switch (first) {
+                case 'R' -> {
+                    if(second == 'A')return CPU.ra;
+                    if(second == 'S')return CPU.rs;
                 }
-                catch(NumberFormatException exp){
-                    boolean found = false;
-                    for(String str : CPU.special_registers){
-                        if(str.equals(reg_val)){
-                            found = true;
-                            break;
-                        }
-                    }
-                    if(!found)
-                        throw new AssemblyParseException(err_label, line_num, line.length()-1);
+                case 'S' -> {
+                    if(second == 'P')return CPU.sp;
+                }
+                case 'P' -> {
+                    if(second == 'C')return CPU.pc;
                 }
-                tokens.add(new RISCToken(RISC_TYPE.REG, reg_val));
-                temp.setLength(0);
             }
         }
-        return tokens;
+        String reg_val = line.subSequence(start, end).toString().toUpperCase();
+        throw new AssemblyParseException(String.format("Unknown register %s.", reg_val), line_num, err_pos);
+    }
+
+    //Precond:
+    //  text is the raw text of a string token.
+    //
+    //Postcond:
+    //  Returns the text with each backslash removed and the character after it kept.
+    private static String drop_escapes(String text){
+        if(text.indexOf('\\') < 0)return text;
+        StringBuilder result = new StringBuilder(text.length());
+        for(int i = 0;i < text.length();i++){
+            if(text.charAt(i) == '\\' && i + 1 < text.length())i += 1;
+            result.append(text.charAt(i));
+        }
+        return result.toString();
     }
 }
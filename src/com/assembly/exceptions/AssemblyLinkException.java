@@ -0,0 +1,19 @@
+/* File: AssemblyLinkException.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Thrown when object files cannot be linked into a program.
+ * Notes:
+ *  The line is the line of the label argument that could not be linked, in its object's source.
+ */
+
+
+package com.assembly.exceptions;
+
+public class AssemblyLinkException extends AssemblyException{
+    public AssemblyLinkException(String label, int line) {
+        super(label, line);
+        type = ExceptionTypes.LINK_ERROR;
+    }
+}
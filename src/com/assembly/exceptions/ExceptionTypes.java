@@ -14,5 +14,6 @@ public enum ExceptionTypes {
     GENERIC,
     TYPE_ERROR,
     PARSE_ERROR,
-    UNKNOWN_ARGUMENT
+    UNKNOWN_ARGUMENT,
+    LINK_ERROR
 }
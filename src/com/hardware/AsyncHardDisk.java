@@ -0,0 +1,281 @@
+/* File: AsyncHardDisk.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Asynchronous request interface to a BlockDevice such as a ManagedHardDisk.
+ * Notes:
+ *  Requests are queued and carried out by a single worker thread.
+ *  The worker takes batches of pending requests and runs each batch in block address order.
+ *  A batch ends before any request that overlaps an earlier write (or a write that overlaps an
+ *  earlier request) so overlapping requests still happen in the order they were submitted.
+ *  On a journaled disk each batch is committed as one group before its writes are completed.
+ *  Calls made on the disk directly are not ordered with respect to queued requests.
+ *  Finished requests are only kept on the completion queue when it is turned on at construction,
+ *  otherwise callers wait on each request's future.
+ *  A request that throws is completed exceptionally and the worker carries on with the rest.
+ */
+
+
+package com.hardware;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class AsyncHardDisk {
+    //Constants
+    private static final int batch_limit = 64;
+
+    //Instance Variables
+    private final BlockDevice disk;
+    private final int block_size;
+    private final ArrayDeque<DiskRequest> submitted;
+    private final LinkedBlockingQueue<DiskRequest> completed; //Null when the completion queue is off.
+    private final ReentrantLock lock;
+    private final Condition has_work;
+    private final Thread worker;
+    private long next_id;
+    private boolean running;
+
+    //Precond:
+    //  disk is a BlockDevice.
+    //
+    //Postcond:
+    //  Opens the disk and starts the worker thread.
+    //  The completion queue is off.
+    public AsyncHardDisk(BlockDevice disk){
+        this(disk, false);
+    }
+
+    //Precond:
+    //  disk is a BlockDevice.
+    //  use_completions is true if finished requests should be put on the completion queue.
+    //
+    //Postcond:
+    //  Opens the disk and starts the worker thread.
+    public AsyncHardDisk(BlockDevice disk, boolean use_completions){
+        this.disk = disk;
+        disk.open();
+        block_size = disk.get_block_size();
+        submitted = new ArrayDeque<>();
+        completed = use_completions ? new LinkedBlockingQueue<>() : null;
+        lock = new ReentrantLock();
+        has_work = lock.newCondition();
+        next_id = 0;
+        running = true;
+        worker = new Thread(this::work, "SAC-disk-io");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    //=========================
+    //  Submission
+    //=========================
+
+    //Precond:
+    //  length is the number of bytes to read.
+    //  block is the block to read from.
+    //  offset is how far into the block to start reading.
+    //
+    //Postcond:
+    //  Queues the read and returns its request.
+    public DiskRequest submit_read(int length, long block, long offset){
+        return submit(DiskRequest.TYPE.READ, block, offset, length, null);
+    }
+
+    //Precond:
+    //  bytes is the data to write, it is copied.
+    //  block is the block to write to.
+    //  offset is how far into the block to start writing.
+    //
+    //Postcond:
+    //  Queues the write and returns its request.
+    public DiskRequest submit_write(byte[] bytes, long block, long offset){
+        return submit(DiskRequest.TYPE.WRITE, block, offset, bytes.length, bytes.clone());
+    }
+
+    //=========================
+    //  Completion Queue
+    //=========================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Removes and returns the next completed request.
+    //  Returns null if no request has completed.
+    //  Throws an IllegalStateException if the completion queue is off.
+    public DiskRequest poll_completion(){
+        return completion_queue().poll();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Removes and returns the next completed request, waiting for one if needed.
+    //  Throws an IllegalStateException if the completion queue is off.
+    public DiskRequest take_completion() throws InterruptedException {
+        return completion_queue().take();
+    }
+
+    //Precond:
+    //  timeout is the longest time to wait, in milliseconds.
+    //
+    //Postcond:
+    //  Removes and returns the next completed request.
+    //  Returns null if none completed in time.
+    //  Throws an IllegalStateException if the completion queue is off.
+    public DiskRequest take_completion(long timeout) throws InterruptedException {
+        return completion_queue().poll(timeout, TimeUnit.MILLISECONDS);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of requests waiting to be carried out.
+    public int pending(){
+        lock.lock();
+        try {
+            return submitted.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Carries out every queued request, then stops the worker thread.
+    //  The disk is left open.
+    public void shutdown(){
+        lock.lock();
+        try {
+            running = false;
+            has_work.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            worker.join();
+        } catch (InterruptedException exp){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the completion queue.
+    //  Throws an IllegalStateException if the completion queue is off.
+    private LinkedBlockingQueue<DiskRequest> completion_queue(){
+        if(completed == null)throw new IllegalStateException("Completion queue is not in use.");
+        return completed;
+    }
+
+    //Precond:
+    //  The arguments describe a valid request.
+    //
+    //Postcond:
+    //  Queues the request and wakes the worker.
+    private DiskRequest submit(DiskRequest.TYPE type, long block, long offset, int length, byte[] data){
+        lock.lock();
+        try {
+            if(!running)throw new IllegalStateException("Disk request submitted after shutdown.");
+            DiskRequest request = new DiskRequest(next_id++, type, block, offset, length, data);
+            submitted.add(request);
+            has_work.signal();
+            return request;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Worker loop, runs batches until shut down with an empty queue.
+    private void work(){
+        ArrayList<DiskRequest> batch = new ArrayList<>();
+        while(true){
+            lock.lock();
+            try {
+                while(submitted.isEmpty() && running)has_work.awaitUninterruptibly();
+                if(submitted.isEmpty())return;
+                take_batch(batch);
+            } finally {
+                lock.unlock();
+            }
+            run_batch(batch);
+            batch.clear();
+        }
+    }
+
+    //Precond:
+    //  The lock is held and there is at least one queued request.
+    //  batch is empty.
+    //
+    //Postcond:
+    //  Moves the longest run of non-conflicting queued requests, up to batch_limit, into batch.
+    private void take_batch(ArrayList<DiskRequest> batch){
+        while(!submitted.isEmpty() && batch.size() < batch_limit){
+            DiskRequest next = submitted.peek();
+            for(DiskRequest prev : batch){
+                if(next.conflicts(prev, block_size))return;
+            }
+            batch.add(submitted.poll());
+        }
+    }
+
+    //Precond:
+    //  batch holds requests which do not conflict with each other.
+    //
+    //Postcond:
+    //  Carries out the requests in address order and completes them.
+    //  A request which throws is completed exceptionally, if the commit throws every request is.
+    private void run_batch(ArrayList<DiskRequest> batch){
+        batch.sort(Comparator.comparingLong(req -> req.start(block_size)));
+        byte[][] results = new byte[batch.size()][];
+        RuntimeException[] errors = new RuntimeException[batch.size()];
+        for(int i = 0;i < batch.size();i++){
+            DiskRequest req = batch.get(i);
+            try {
+                if(req.type == DiskRequest.TYPE.READ){
+                    results[i] = disk.read_bytes(req.length, req.block, req.offset);
+                }
+                else{
+                    disk.write_bytes(req.data, req.block, req.offset);
+                    results[i] = req.data;
+                }
+            } catch (RuntimeException exp){
+                errors[i] = exp;
+            }
+        }
+        RuntimeException commit_error = null;
+        try {
+            disk.commit();
+        } catch (RuntimeException exp){
+            commit_error = exp;
+        }
+        for(int i = 0;i < batch.size();i++){
+            DiskRequest req = batch.get(i);
+            if(completed != null)completed.add(req);
+            if(errors[i] != null)req.future.completeExceptionally(errors[i]);
+            else if(commit_error != null)req.future.completeExceptionally(commit_error);
+            else req.future.complete(results[i]);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+/* File: BlockDevice.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  The operations a block based disk image provides to the file system, the DMA controller
+ *  and the asynchronous request queue.
+ * Notes:
+ *  Blocks are addressed by number, bytes within a block by offset from the start of its data.
+ *  A device only has to provide whole block I/O, byte and vectored access are built on
+ *  read_blocks and write_blocks.
+ *  Errors are fatal and reported the same way as ManagedHardDisk (see exit_codes.txt).
+ */
+
+
+package com.hardware;
+
+import java.util.Arrays;
+import java.util.List;
+
+public interface BlockDevice {
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Opens the image if it is not already open.
+    void open();
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Makes all writes durable and closes the image.
+    void close();
+
+    //Precond:
+    //  The image is open.
+    //
+    //Postcond:
+    //  Makes all writes made so far durable.
+    void commit();
+
+    //Precond:
+    //  The image has been opened.
+    //
+    //Postcond:
+    //  Marks every block free and clears the image.
+    void format();
+
+    //Precond:
+    //  bytes is the data to write.
+    //  block is the block to start writing at.
+    //  offset is the position within block to start writing at.
+    //
+    //Postcond:
+    //  Writes the bytes and marks the blocks written to as in-use.
+    //  Blocks only partly covered are read first, then every block touched is written with a
+    //  single write_blocks. The device's monitor is held throughout, so devices whose block
+    //  methods are synchronized never interleave another write with the read-modify-write.
+    default void write_bytes(byte[] bytes, long block, long offset){
+        if(bytes.length == 0)return;
+        int block_size = get_block_size();
+        long position = block*block_size + offset;
+        long first = position/block_size;
+        long last = (position + bytes.length - 1)/block_size;
+        int count = (int)(last - first + 1);
+        int start = (int)(position - first*block_size);
+        byte[] data = new byte[count*block_size];
+        synchronized(this){
+            if(start != 0)System.arraycopy(read_blocks(first, 1), 0, data, 0, block_size);
+            if((start + bytes.length) % block_size != 0 && (last != first || start == 0)){
+                System.arraycopy(read_blocks(last, 1), 0, data, (count - 1)*block_size, block_size);
+            }
+            System.arraycopy(bytes, 0, data, start, bytes.length);
+            write_blocks(data, first, count);
+        }
+    }
+
+    //Precond:
+    //  val is the byte to write.
+    //  block is the block to write to.
+    //  offset is the position within the block.
+    //
+    //Postcond:
+    //  Writes the byte and marks the block as in-use.
+    default void write_byte(byte val, long block, long offset){
+        write_bytes(new byte[]{val}, block, offset);
+    }
+
+    //Precond:
+    //  length is the number of bytes to read.
+    //  block is the block to start reading at.
+    //  offset is the position within block to start reading at.
+    //
+    //Postcond:
+    //  Returns the bytes read, fetched with a single read_blocks.
+    default byte[] read_bytes(int length, long block, long offset){
+        if(length == 0)return new byte[0];
+        int block_size = get_block_size();
+        long position = block*block_size + offset;
+        long first = position/block_size;
+        long last = (position + length - 1)/block_size;
+        byte[] data = read_blocks(first, (int)(last - first + 1));
+        return Arrays.copyOfRange(data, (int)(position - first*block_size), (int)(position - first*block_size) + length);
+    }
+
+    //Precond:
+    //  block is the block to read from.
+    //  offset is the position within the block.
+    //
+    //Postcond:
+    //  Returns the byte read.
+    default byte read_byte(long block, long offset){
+        return read_bytes(1, block, offset)[0];
+    }
+
+    //Precond:
+    //  block is the first block to read.
+    //  count is the number of consecutive blocks to read.
+    //
+    //Postcond:
+    //  Returns the data of the blocks, get_block_size() bytes per block.
+    byte[] read_blocks(long block, int count);
+
+    //Precond:
+    //  data holds get_block_size() bytes per block.
+    //  block is the first block to write.
+    //  count is the number of consecutive blocks to write.
+    //
+    //Postcond:
+    //  Writes the blocks and marks them as in-use.
+    void write_blocks(byte[] data, long block, int count);
+
+    //Precond:
+    //  segments lists the ranges to read.
+    //
+    //Postcond:
+    //  Returns the bytes of every segment, one after another in list order.
+    //  Consecutive whole blocks are read with a single read_blocks.
+    default byte[] read_vectored(List<DiskSegment> segments){
+        byte[] result = new byte[DiskSegment.total_length(segments)];
+        int at = 0;
+        int i = 0;
+        while(i < segments.size()){
+            DiskSegment segment = segments.get(i);
+            int run = whole_block_run(segments, i);
+            byte[] part = (run > 0) ? read_blocks(segment.block, run) : read_bytes(segment.length, segment.block, segment.offset);
+            System.arraycopy(part, 0, result, at, part.length);
+            at += part.length;
+            i += Math.max(run, 1);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  data holds the bytes of every segment, one after another in list order.
+    //  segments lists the ranges to write, they must not overlap.
+    //
+    //Postcond:
+    //  Writes each segment and marks the blocks written to as in-use.
+    //  Consecutive whole blocks are written with a single write_blocks.
+    //  Any part of the segments not covered by data is zero filled.
+    default void write_vectored(byte[] data, List<DiskSegment> segments){
+        int at = 0;
+        int i = 0;
+        while(i < segments.size()){
+            DiskSegment segment = segments.get(i);
+            int run = whole_block_run(segments, i);
+            int length = (run > 0) ? run*get_block_size() : segment.length;
+            int from = Math.min(at, data.length);
+            byte[] part = Arrays.copyOfRange(data, from, from + length);
+            if(run > 0)write_blocks(part, segment.block, run);
+            else write_bytes(part, segment.block, segment.offset);
+            at += length;
+            i += Math.max(run, 1);
+        }
+    }
+
+    //Precond:
+    //  segments lists ranges of the disk.
+    //  start is an index into segments.
+    //
+    //Postcond:
+    //  Returns the number of segments from start on that each cover one whole block, the block
+    //  after the previous one. Returns 0 if the segment at start is not a whole block.
+    private int whole_block_run(List<DiskSegment> segments, int start){
+        int run = 0;
+        long block = segments.get(start).block;
+        while(start + run < segments.size()){
+            DiskSegment segment = segments.get(start + run);
+            if(segment.offset != 0 || segment.length != get_block_size() || segment.block != block + run)break;
+            run += 1;
+        }
+        return run;
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Marks the block as free.
+    void free_block(long block);
+
+    //Precond:
+    //  The image is open.
+    //
+    //Postcond:
+    //  Returns space held by free blocks to the host file system, where the image format allows.
+    //  Returns the number of bytes released.
+    default long trim(){
+        return 0;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the next free block.
+    //  Returns -1 if there is no free block remaining.
+    default long next_free_block(){
+        return next_free_block(0);
+    }
+
+    //Precond:
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first free block at or after from.
+    //  Returns -1 if there is no free block remaining.
+    long next_free_block(long from);
+
+    //Precond:
+    //  count is the number of contiguous blocks required.
+    //
+    //Postcond:
+    //  Returns the first block of the lowest run of at least count free blocks.
+    //  Returns -1 if no such run exists.
+    default long next_free_run(int count){
+        return next_free_run(count, 0);
+    }
+
+    //Precond:
+    //  count is the number of contiguous blocks required.
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first block of the lowest run of at least count free blocks at or after from.
+    //  Returns -1 if no such run exists.
+    long next_free_run(int count, long from);
+
+    //Precond:
+    //  block is a block on the disk.
+    //  limit is the largest run length of interest.
+    //
+    //Postcond:
+    //  Returns the number of consecutive free blocks starting at block, at most limit.
+    int free_run_length(long block, int limit);
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns true if the block is free.
+    boolean is_free(long block);
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of free blocks remaining on the disk.
+    long free_blocks();
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of blocks on the disk.
+    long get_blocks();
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of data bytes in each block.
+    int get_block_size();
+}
@@ -0,0 +1,210 @@
+/* File: BlockMap.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  In-memory map of which blocks of a disk are in use.
+ * Notes:
+ *  Lets disks answer allocation queries without scanning their block flags on disk.
+ *  The map is safe to use from several threads without locking, each 64 block word is
+ *  updated atomically.
+ */
+
+
+package com.hardware;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+class BlockMap {
+    //Instance Variables
+    private final AtomicLongArray used; //Bit i of word w is set if block 64*w + i is in-use.
+    private final AtomicLong used_count;
+    private final long blocks;
+
+    //Precond:
+    //  blocks is the number of blocks on the disk.
+    //
+    //Postcond:
+    //  Creates a map with every block free.
+    public BlockMap(long blocks){
+        this.blocks = blocks;
+        used = new AtomicLongArray((int)((blocks + 63)/64));
+        used_count = new AtomicLong(0);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Marks every block free.
+    public void clear(){
+        for(int i = 0;i < used.length();i++)used.set(i, 0);
+        used_count.set(0);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Marks the block in-use.
+    public void set_used(long block){
+        set_bits((int)(block >>> 6), 1L << block);
+    }
+
+    //Precond:
+    //  from and to bound a range of blocks on the disk, to is exclusive.
+    //
+    //Postcond:
+    //  Marks the range in-use.
+    public void set_used(long from, long to){
+        to = Math.min(to, blocks);
+        while(from < to){
+            int word = (int)(from >>> 6);
+            int bits = (int)Math.min(64 - (from & 63), to - from);
+            long mask = (bits == 64) ? -1L : ((1L << bits) - 1) << from;
+            set_bits(word, mask);
+            from += bits;
+        }
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Marks the block free.
+    public void set_free(long block){
+        long mask = 1L << block;
+        long previous = used.getAndAccumulate((int)(block >>> 6), ~mask, (a, b) -> a & b);
+        if((previous & mask) != 0)used_count.decrementAndGet();
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Marks the block in-use if it is free.
+    //  Returns true if this call marked it in-use.
+    public boolean claim(long block){
+        int word = (int)(block >>> 6);
+        long mask = 1L << block;
+        while(true){
+            long current = used.get(word);
+            if((current & mask) != 0)return false;
+            if(used.compareAndSet(word, current, current | mask)){
+                used_count.incrementAndGet();
+                return true;
+            }
+        }
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns true if the block is free.
+    public boolean is_free(long block){
+        return (used.get((int)(block >>> 6)) & (1L << block)) == 0;
+    }
+
+    //Precond:
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first free block at or after from.
+    //  Returns -1 if there is none.
+    public long next_free(long from){
+        if(from < 0)from = 0;
+        while(from < blocks){
+            int word = (int)(from >>> 6);
+            long free = ~used.get(word) & (-1L << from);
+            if(free != 0){
+                long block = ((long)word << 6) + Long.numberOfTrailingZeros(free);
+                return (block < blocks) ? block : -1;
+            }
+            from = ((long)word + 1) << 6;
+        }
+        return -1;
+    }
+
+    //Precond:
+    //  count is the number of contiguous blocks required.
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first block of the lowest run of at least count free blocks at or after from.
+    //  Returns -1 if no such run exists.
+    public long next_free_run(int count, long from){
+        long start = next_free(from);
+        while(start >= 0){
+            long end = next_used(start);
+            if(end - start >= count)return start;
+            start = next_free(end);
+        }
+        return -1;
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //  limit is the largest run length of interest.
+    //
+    //Postcond:
+    //  Returns the number of consecutive free blocks starting at block, at most limit.
+    public int free_run_length(long block, int limit){
+        if(block < 0 || block >= blocks || !is_free(block))return 0;
+        return (int)Math.min(next_used(block) - block, limit);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the last in-use block, -1 if every block is free.
+    public long last_used(){
+        for(int word = used.length() - 1;word >= 0;word--){
+            long taken = used.get(word);
+            if(taken != 0)return ((long)word << 6) + 63 - Long.numberOfLeadingZeros(taken);
+        }
+        return -1;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of free blocks.
+    public long free_count(){
+        return blocks - used_count.get();
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  word is a word of the map.
+    //  mask holds the bits to set.
+    //
+    //Postcond:
+    //  Sets the bits and counts the blocks that were free before.
+    private void set_bits(int word, long mask){
+        long previous = used.getAndAccumulate(word, mask, (a, b) -> a | b);
+        long added = Long.bitCount(mask & ~previous);
+        if(added != 0)used_count.addAndGet(added);
+    }
+
+    //Precond:
+    //  from is a block on the disk.
+    //
+    //Postcond:
+    //  Returns the first in-use block at or after from, or the number of blocks if there is none.
+    private long next_used(long from){
+        while(from < blocks){
+            int word = (int)(from >>> 6);
+            long taken = used.get(word) & (-1L << from);
+            if(taken != 0)return Math.min(((long)word << 6) + Long.numberOfTrailingZeros(taken), blocks);
+            from = ((long)word + 1) << 6;
+        }
+        return blocks;
+    }
+}
@@ -15,6 +15,7 @@ import java.util.Scanner;
 public class CPU {
     //Constants
     private static final int REGISTER_COUNT = 16;
+    public static final int REGISTER_TOTAL = REGISTER_COUNT + 4; //General purpose and special registers.
     private static final int ls_byte = 0xFF;
     public static final String[] special_registers = {"RA","SP","PC","RS"};
 
@@ -30,7 +31,7 @@ public class CPU {
     }
 
     //Member data
-    private final int[] registers = new int[REGISTER_COUNT + 4];; //General purpose registers.
+    private final int[] registers = new int[REGISTER_TOTAL]; //General purpose registers.
     public final static byte ra = 16; //Return address register.
     public final static byte sp = 17; //Stack point register.
     public final static byte pc = 18; //Program counter register.
@@ -85,7 +86,7 @@ public class CPU {
                 execute_one_register(cmd, reg1);
                 break;
             //Double register commands
-            case 0x07, 0x0A, 0x0B, 0x0F, 0x11, 0x17, 0x18, 0x19, 0x1A, 0x1C:
+            case 0x07, 0x0A, 0x0B, 0x0F, 0x11, 0x17, 0x18, 0x19, 0x1A, 0x1C, 0x21, 0x22:
                 reg1 = RAM.getInstance().load_byte(registers[pc]+1);
                 reg2 = RAM.getInstance().load_byte(registers[pc]+2);
                 execute_two_register(cmd, reg1, reg2);
@@ -108,6 +109,17 @@ public class CPU {
                 literal = RAM.getInstance().load_word(registers[pc]+2);
                 execute_register_literal(cmd, reg1, literal);
                 break;
+            //Relative jump commands
+            case 0x23, 0x24:
+                literal = load_displacement(registers[pc]+1, cmd == 0x23 ? 1 : 2);
+                execute_relative_jump(cmd, literal);
+                break;
+            //Relative branch commands
+            case 0x25, 0x26:
+                reg1 = RAM.getInstance().load_byte(registers[pc]+1);
+                literal = load_displacement(registers[pc]+2, cmd == 0x25 ? 1 : 2);
+                execute_relative_branch(cmd, reg1, literal);
+                break;
             default:
                 System.exit(100);
                 
@@ -176,7 +188,7 @@ public class CPU {
      *
      * Postcond:
      *  Executes the given commands and forwards the pc by three byte.
-     * 0x07, 0x0A, 0x0B, 0x0F, 0x11, 0x17, 0x18, 0x19, 0x1A, 0x1C
+     * 0x07, 0x0A, 0x0B, 0x0F, 0x11, 0x17, 0x18, 0x19, 0x1A, 0x1C, 0x21, 0x22
      */
     public void execute_two_register(byte cmd, byte reg1, byte reg2){
         if(reg1 < 0 || reg1 >= registers.length)System.exit(101);
@@ -218,9 +230,30 @@ public class CPU {
                     if((offset % 10) == 0)System.out.println();
                 }
             }
+            case 0x21 -> {
+                //DISK_READ
+                if(!DMAController.get_instance().disk_to_ram(mounted_disk(), registers[reg1], 1, registers[reg2]))
+                    System.exit(103);
+            }
+            case 0x22 -> {
+                //DISK_WRITE
+                if(!DMAController.get_instance().ram_to_disk(mounted_disk(), registers[reg1], 1, registers[reg2]))
+                    System.exit(103);
+            }
         }
     }
 
+    /* Precond:
+     *  None.
+     *
+     * Postcond:
+     *  Returns the mounted hard disk, exits if there is none.
+     */
+    private ManagedHardDisk mounted_disk(){
+        if(ManagedHardDisk.instance == null)System.exit(102);
+        return ManagedHardDisk.instance;
+    }
+
     /* Precond:
      *  cmd is a valid command code for the cpu which takes three register argument.
      *  reg2 is a byte value indicating the index of the register to use.
@@ -306,4 +339,45 @@ public class CPU {
             }
         }
     }
+
+    /* Precond:
+     *  cmd is a valid command code for the cpu which takes one displacement argument.
+     *  disp is the displacement argument to the command.
+     *
+     * Postcond:
+     *  Forwards the pc by two bytes for JUMP_SHORT or three for JUMP_NEAR, then adds the
+     *  displacement to it.
+     */
+    public void execute_relative_jump(byte cmd, int disp){
+        registers[pc] += (cmd == 0x23) ? 2 : 3;
+        registers[pc] += disp;
+    }
+
+    /* Precond:
+     *  cmd is a valid command code for the cpu which takes a register and a displacement argument.
+     *  reg is the register containing required information.
+     *  disp is the displacement argument to the command.
+     *
+     * Postcond:
+     *  Forwards the pc by three bytes for BRANCH_SHORT or four for BRANCH_NEAR, then adds the
+     *  displacement to it if the value in reg is non-zero.
+     */
+    public void execute_relative_branch(byte cmd, byte reg, int disp){
+        if(reg < 0 || reg >= registers.length)System.exit(101);
+        registers[pc] += (cmd == 0x25) ? 3 : 4;
+        if(registers[reg] != 0)registers[pc] += disp;
+    }
+
+    /* Precond:
+     *  addr is the address of a displacement.
+     *  width is the number of bytes in the displacement, 1 or 2.
+     *
+     * Postcond:
+     *  Returns the sign extended big-endian displacement.
+     */
+    private int load_displacement(int addr, int width){
+        int disp = RAM.getInstance().load_byte(addr);
+        if(width == 2)disp = (short)((disp << 8) | (RAM.getInstance().load_byte(addr+1) & 0xFF));
+        return disp;
+    }
 }
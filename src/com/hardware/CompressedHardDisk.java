@@ -0,0 +1,655 @@
+/* File: CompressedHardDisk.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A disk image which stores each block compressed, with the same block/offset interface
+ *  as ManagedHardDisk.
+ * Notes:
+ *  Unlike ManagedHardDisk this is not a singleton, any number of images may be open at once.
+ *  Positions are logical: offset may run past the end of block into the following blocks.
+ *  File structure:
+ *      Header (11 bytes):
+ *          byte 0-2) Magic number.
+ *          byte 3-6) Number of blocks.
+ *          byte 7-10) Block size.
+ *      Block table, 13 bytes per block:
+ *          byte 0) Kind of block, see below.
+ *          byte 1-8) File address of the stored data.
+ *          byte 9-12) Length of the stored data.
+ *      Packed region) Stored block data, in no particular order.
+ *  Block kinds:
+ *      0) Free, no data is stored.
+ *      1) In-use and all zero, no data is stored.
+ *      2) In-use and stored uncompressed.
+ *      3) In-use and stored deflated.
+ *  New data is written over the old data of a block if it fits and appended otherwise, so the
+ *  packed region slowly gathers unused space. compact() rewrites the image without it.
+ */
+
+
+package com.hardware;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+public class CompressedHardDisk implements BlockDevice {
+    //Constants
+    private static final byte[] magic = {11, 13, 64};
+    private static final int header_length = magic.length + Integer.BYTES + Integer.BYTES;
+    private static final int entry_length = 1 + Long.BYTES + Integer.BYTES;
+    private static final byte kind_free = 0;
+    private static final byte kind_zero = 1;
+    private static final byte kind_raw = 2;
+    private static final byte kind_deflated = 3;
+    private static final int block_size = (int)ManagedHardDisk.KB;
+    private static final int cache_blocks = 64; //Number of decompressed blocks kept in memory.
+    private static final int copy_run = 64; //Number of blocks copied at once by pack.
+
+    //Creation Methods
+    public static CompressedHardDisk create(String filename, long disk_size){
+        long blocks = disk_size/block_size;
+        if(disk_size % block_size != 0)blocks += 1;
+        CompressedHardDisk disk = new CompressedHardDisk(filename, (int)blocks);
+        disk.format();
+        return disk;
+    }
+
+    public static CompressedHardDisk mount(String filename){
+        return new CompressedHardDisk(filename);
+    }
+
+    //Precond:
+    //  source is a disk with the same block size as a CompressedHardDisk.
+    //  filename is the name of the file to store the compressed image in.
+    //
+    //Postcond:
+    //  Creates a compressed image holding a copy of every in-use block of source.
+    //  Returns the new image, closed.
+    public static CompressedHardDisk pack(BlockDevice source, String filename){
+        if(source.get_block_size() != block_size){
+            System.err.println("Unsupported block size for compressed hard disk " + filename);
+            System.exit(205);
+        }
+        CompressedHardDisk disk = new CompressedHardDisk(filename, (int)source.get_blocks());
+        disk.format();
+        source.open();
+        disk.open();
+        long block = next_used(source, 0);
+        while(block >= 0 && block < disk.blocks){
+            int count = 1;
+            while(count < copy_run && block + count < disk.blocks && !source.is_free(block + count))count++;
+            disk.write_blocks(source.read_blocks(block, count), block, count);
+            block = next_used(source, block + count);
+        }
+        disk.close();
+        return disk;
+    }
+
+    //Instance Variables
+    private final int blocks;
+    private final String filename;
+    private final File handle;
+    private RandomAccessFile access;
+    private final byte[] kinds;
+    private final long[] addresses;
+    private final int[] lengths;
+    private final BlockMap used_map;
+    private long packed_end; //Address one past the last byte of the packed region.
+    private long stored_bytes; //Bytes of block data held in the packed region.
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final LinkedHashMap<Long, byte[]> cache = new LinkedHashMap<>(cache_blocks, 0.75f, true){
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest){
+            return size() > cache_blocks;
+        }
+    };
+
+    //Precond:
+    //  filename is the name of the file to store the data in.
+    //  blocks is the number of blocks on the disk.
+    //
+    //Postcond:
+    //  Creates an unformatted CompressedHardDisk object for the file.
+    private CompressedHardDisk(String filename, int blocks){
+        this.filename = filename;
+        this.blocks = blocks;
+        handle = new File(filename);
+        kinds = new byte[blocks];
+        addresses = new long[blocks];
+        lengths = new int[blocks];
+        used_map = new BlockMap(blocks);
+        access = null;
+    }
+
+    //Precond:
+    //  filename is the name of the file where the data is stored.
+    //
+    //Postcond:
+    //  Opens an existing compressed hard disk file and loads its block table.
+    private CompressedHardDisk(String filename){
+        this.filename = filename;
+        handle = new File(filename);
+        access = null;
+        open();
+        int count = 0;
+        try{
+            access.seek(0);
+            for(byte b : magic){
+                if(b != access.readByte())bad_image();
+            }
+            count = access.readInt();
+            if(count < 0 || access.readInt() != block_size)bad_image();
+        } catch (IOException exp){
+            bad_image();
+        }
+        blocks = count;
+        kinds = new byte[blocks];
+        addresses = new long[blocks];
+        lengths = new int[blocks];
+        used_map = new BlockMap(blocks);
+        try{
+            byte[] table = new byte[blocks*entry_length];
+            access.seek(header_length);
+            access.readFully(table);
+            ByteBuffer entries = ByteBuffer.wrap(table);
+            stored_bytes = 0;
+            for(int i = 0;i < blocks;i++){
+                kinds[i] = entries.get();
+                addresses[i] = entries.getLong();
+                lengths[i] = entries.getInt();
+                if(kinds[i] != kind_free)used_map.set_used(i);
+                stored_bytes += lengths[i];
+            }
+            packed_end = access.length();
+        } catch (IOException exp){
+            bad_image();
+        }
+    }
+
+    //======================
+    //  File Access Methods
+    //======================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Opens the image file so it can be read from and written to.
+    public synchronized void open(){
+        if(access != null)return;
+        try {
+            access = new RandomAccessFile(handle, "rw");
+        } catch (IOException exp){
+            System.err.println("Problem opening hard disk.");
+            exp.printStackTrace();
+            System.exit(200);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Closes file access, if the file is open.
+    public synchronized void close(){
+        if(access == null)return;
+        try {
+            access.close();
+            access = null;
+        } catch (IOException exp){
+            System.err.println("Problem closing hard disk.");
+            exp.printStackTrace();
+            System.exit(200);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Forces every write so far to the image file.
+    public synchronized void commit(){
+        if(access == null)return;
+        try {
+            access.getChannel().force(false);
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        }
+    }
+
+    //=========================
+    //  Hard Disk Read/Write
+    //=========================
+
+    //Precond:
+    //  block is the first block to read.
+    //  count is the number of consecutive blocks to read.
+    //
+    //Postcond:
+    //  Returns the decompressed data of count consecutive blocks.
+    public synchronized byte[] read_blocks(long block, int count){
+        check_open(202, "Attempted to read from a closed hard disk.");
+        byte[] result = new byte[count*block_size];
+        for(int i = 0;i < count;i++){
+            System.arraycopy(block_data(block + i), 0, result, i*block_size, block_size);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  data is the data to store, at most count blocks long.
+    //  block is the first block to write.
+    //  count is the number of consecutive blocks to write.
+    //
+    //Postcond:
+    //  Compresses and writes the data and sets the flag of every block to in-use.
+    //  Any part of the blocks not covered by data is zero filled.
+    public synchronized void write_blocks(byte[] data, long block, int count){
+        check_open(201, "Attempted to write to a closed hard disk.");
+        byte[] full = data;
+        if(data.length != count*block_size){
+            full = new byte[count*block_size];
+            System.arraycopy(data, 0, full, 0, Math.min(data.length, full.length));
+        }
+        store_blocks(full, block, count);
+    }
+
+    //========================
+    //  Hard Disk Management
+    //========================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Marks every block free and discards all stored data.
+    public synchronized void format(){
+        open();
+        try{
+            long packed_start = header_length + (long)blocks*entry_length;
+            access.setLength(0);
+            access.setLength(packed_start);
+            access.seek(0);
+            access.write(magic);
+            access.writeInt(blocks);
+            access.writeInt(block_size);
+            packed_end = packed_start;
+            stored_bytes = 0;
+            for(int i = 0;i < blocks;i++){
+                kinds[i] = kind_free;
+                addresses[i] = 0;
+                lengths[i] = 0;
+            }
+            used_map.clear();
+            cache.clear();
+        } catch(IOException exp){
+            System.err.println("Problem formatting hard disk.");
+            exp.printStackTrace();
+            System.exit(203);
+        }
+        close();
+    }
+
+    //Precond:
+    //  block is the block to free.
+    //
+    //Postcond:
+    //  Marks the block free and releases its stored data.
+    public synchronized void free_block(long block){
+        check_open(204, "Attempted to deleting block data in closed hard disk.");
+        int index = (int)block;
+        stored_bytes -= lengths[index];
+        kinds[index] = kind_free;
+        addresses[index] = 0;
+        lengths[index] = 0;
+        used_map.set_free(block);
+        cache.remove(block);
+        try{
+            write_entries(block, 1);
+        } catch (IOException exp){
+            System.err.println("Problem deleting block data from disk.");
+            exp.printStackTrace();
+            System.exit(204);
+        }
+    }
+
+    //Precond:
+    //  The image is open.
+    //
+    //Postcond:
+    //  Compacts the image if any of its packed region is wasted.
+    //  Returns the number of bytes the image file shrank by.
+    public synchronized long trim(){
+        if(get_wasted_bytes() == 0)return 0;
+        long before = new File(filename).length();
+        compact();
+        return before - new File(filename).length();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Rewrites the image so the packed region holds only the data of in-use blocks.
+    public synchronized void compact(){
+        check_open(201, "Attempted to write to a closed hard disk.");
+        File temp = new File(filename + ".tmp");
+        long packed_start = header_length + (long)blocks*entry_length;
+        try(RandomAccessFile out = new RandomAccessFile(temp, "rw")){
+            out.setLength(0);
+            out.seek(packed_start);
+            long next = packed_start;
+            for(int i = 0;i < blocks;i++){
+                if(lengths[i] == 0)continue;
+                byte[] stored = new byte[lengths[i]];
+                access.seek(addresses[i]);
+                access.readFully(stored);
+                out.write(stored);
+                addresses[i] = next;
+                next += stored.length;
+            }
+            packed_end = next;
+            out.seek(0);
+            out.write(magic);
+            out.writeInt(blocks);
+            out.writeInt(block_size);
+            out.write(table_bytes(0, blocks));
+            out.getChannel().force(false);
+        } catch (IOException exp){
+            System.err.println("Problem compacting hard disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        }
+        close();
+        if(!temp.renameTo(handle)){
+            handle.delete();
+            temp.renameTo(handle);
+        }
+        open();
+    }
+
+    //Precond:
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first free block at or after from.
+    //  Returns -1 if there is no free block remaining.
+    public synchronized long next_free_block(long from){
+        check_open(206, "Attempted to search closed hard disk.");
+        return used_map.next_free(from);
+    }
+
+    //Precond:
+    //  count is the number of contiguous blocks required.
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first block of the lowest run of at least count free blocks at or after from.
+    //  Returns -1 if no such run exists.
+    public synchronized long next_free_run(int count, long from){
+        check_open(206, "Attempted to search closed hard disk.");
+        return used_map.next_free_run(count, from);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //  limit is the largest run length of interest.
+    //
+    //Postcond:
+    //  Returns the number of consecutive free blocks starting at block, at most limit.
+    public synchronized int free_run_length(long block, int limit){
+        return used_map.free_run_length(block, limit);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns true if the block is free.
+    public synchronized boolean is_free(long block){
+        return used_map.is_free(block);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of free blocks remaining on the disk.
+    public synchronized long free_blocks(){
+        return used_map.free_count();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of blocks on the disk.
+    public long get_blocks(){
+        return blocks;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of data bytes in each block.
+    public int get_block_size(){
+        return block_size;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of bytes of block data held in the image.
+    public synchronized long get_stored_bytes(){
+        return stored_bytes;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of bytes in the packed region no longer used by any block.
+    public synchronized long get_wasted_bytes(){
+        return packed_end - (header_length + (long)blocks*entry_length) - stored_bytes;
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  code is the exit code to use if the image is closed.
+    //  message describes the attempted operation.
+    //
+    //Postcond:
+    //  Exits if the image is not open.
+    private void check_open(int code, String message){
+        if(access == null){
+            System.err.println(message);
+            System.exit(code);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Reports that the file is not a compressed hard disk image and exits.
+    private void bad_image(){
+        System.err.println("Problem opening existing hard disk in " + filename);
+        close();
+        System.exit(205);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns the decompressed data of the block.
+    //  The returned array is shared with the cache and must not be modified.
+    private byte[] block_data(long block){
+        byte[] data = cache.get(block);
+        if(data != null)return data;
+        int index = (int)block;
+        data = new byte[block_size];
+        try{
+            if(kinds[index] == kind_raw || kinds[index] == kind_deflated){
+                byte[] stored = new byte[lengths[index]];
+                access.seek(addresses[index]);
+                access.readFully(stored);
+                if(kinds[index] == kind_raw){
+                    data = stored;
+                }
+                else{
+                    inflater.reset();
+                    inflater.setInput(stored);
+                    if(inflater.inflate(data) != block_size)throw new DataFormatException("Short block");
+                }
+            }
+        } catch (IOException | DataFormatException exp){
+            System.err.println("Problem reading bytes from disk.");
+            exp.printStackTrace();
+            System.exit(202);
+        }
+        cache.put(block, data);
+        return data;
+    }
+
+    //Precond:
+    //  data holds count*block_size bytes.
+    //  block is the first block to store.
+    //  count is the number of consecutive blocks to store.
+    //
+    //Postcond:
+    //  Compresses and stores each block, appending all data that does not fit in its old
+    //  place with one write, then writes the table entries of the blocks with one write.
+    private void store_blocks(byte[] data, long block, int count){
+        ByteArrayOutputStream appended = new ByteArrayOutputStream();
+        byte[] packed = new byte[block_size];
+        try{
+            for(int i = 0;i < count;i++){
+                int index = (int)(block + i);
+                int start = i*block_size;
+                byte kind;
+                byte[] stored = null;
+                if(is_zero(data, start)){
+                    kind = kind_zero;
+                }
+                else{
+                    deflater.reset();
+                    deflater.setInput(data, start, block_size);
+                    deflater.finish();
+                    int length = deflater.deflate(packed, 0, block_size - 1);
+                    if(deflater.finished()){
+                        kind = kind_deflated;
+                        stored = new byte[length];
+                        System.arraycopy(packed, 0, stored, 0, length);
+                    }
+                    else{
+                        kind = kind_raw;
+                        stored = new byte[block_size];
+                        System.arraycopy(data, start, stored, 0, block_size);
+                    }
+                }
+                stored_bytes -= lengths[index];
+                if(stored == null){
+                    addresses[index] = 0;
+                    lengths[index] = 0;
+                }
+                else if(stored.length <= lengths[index]){
+                    access.seek(addresses[index]);
+                    access.write(stored);
+                    lengths[index] = stored.length;
+                }
+                else{
+                    addresses[index] = packed_end + appended.size();
+                    lengths[index] = stored.length;
+                    appended.write(stored);
+                }
+                stored_bytes += lengths[index];
+                kinds[index] = kind;
+                byte[] copy = new byte[block_size];
+                System.arraycopy(data, start, copy, 0, block_size);
+                cache.put(block + i, copy);
+            }
+            if(appended.size() > 0){
+                access.seek(packed_end);
+                access.write(appended.toByteArray());
+                packed_end += appended.size();
+            }
+            write_entries(block, count);
+            used_map.set_used(block, block + count);
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        }
+    }
+
+    //Precond:
+    //  block is the first table entry to write.
+    //  count is the number of consecutive entries to write.
+    //
+    //Postcond:
+    //  Writes the in-memory table entries to the image.
+    private void write_entries(long block, int count) throws IOException {
+        access.seek(header_length + block*entry_length);
+        access.write(table_bytes(block, count));
+    }
+
+    //Precond:
+    //  block is the first table entry.
+    //  count is the number of consecutive entries.
+    //
+    //Postcond:
+    //  Returns the entries encoded as they are stored in the image.
+    private byte[] table_bytes(long block, int count){
+        ByteBuffer entries = ByteBuffer.allocate(count*entry_length);
+        for(int i = 0;i < count;i++){
+            int index = (int)(block + i);
+            entries.put(kinds[index]);
+            entries.putLong(addresses[index]);
+            entries.putInt(lengths[index]);
+        }
+        return entries.array();
+    }
+
+    //Precond:
+    //  data holds at least one block starting at start.
+    //
+    //Postcond:
+    //  Returns true if every byte of the block is zero.
+    private static boolean is_zero(byte[] data, int start){
+        for(int i = start;i < start + block_size;i++){
+            if(data[i] != 0)return false;
+        }
+        return true;
+    }
+
+    //Precond:
+    //  disk is an open disk.
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first in-use block at or after from, -1 if there is none.
+    private static long next_used(BlockDevice disk, long from){
+        for(long block = from;block < disk.get_blocks();block++){
+            if(!disk.is_free(block))return block;
+        }
+        return -1;
+    }
+}
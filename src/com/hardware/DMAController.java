@@ -0,0 +1,94 @@
+/* File: DMAController.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Direct memory access between hard disk blocks and RAM.
+ * Notes:
+ *  Each transfer moves whole blocks with a single disk access and a single RAM copy.
+ *  Used by the DISK_READ and DISK_WRITE commands.
+ */
+
+
+package com.hardware;
+
+public class DMAController {
+    //Singleton Setup
+    private static DMAController instance = null;
+    public static DMAController get_instance(){
+        if(instance == null)instance = new DMAController();
+        return instance;
+    }
+
+    //Member data
+    private long transfers;
+    private long bytes_moved;
+
+    //Constructor
+    private DMAController(){
+        transfers = 0;
+        bytes_moved = 0;
+    }
+
+    //Getters
+    public long get_transfers(){
+        return transfers;
+    }
+
+    public long get_bytes_moved(){
+        return bytes_moved;
+    }
+
+    /* Precond:
+     *  disk is a BlockDevice.
+     *  block is the first block to copy.
+     *  count is the number of consecutive blocks to copy.
+     *  addr is the RAM address to copy the blocks to.
+     *
+     * Postcond:
+     *  Copies the blocks into RAM.
+     *  Returns false, copying nothing, if the blocks or the RAM range do not exist.
+     */
+    public boolean disk_to_ram(BlockDevice disk, long block, int count, int addr){
+        if(!valid(disk, block, count, addr))return false;
+        disk.open();
+        byte[] data = disk.read_blocks(block, count);
+        RAM.getInstance().store_bytes(addr, data);
+        transfers += 1;
+        bytes_moved += data.length;
+        return true;
+    }
+
+    /* Precond:
+     *  disk is a BlockDevice.
+     *  block is the first block to copy into.
+     *  count is the number of consecutive blocks to copy.
+     *  addr is the RAM address to copy the blocks from.
+     *
+     * Postcond:
+     *  Copies the RAM range into the blocks and marks them in-use.
+     *  Returns false, copying nothing, if the blocks or the RAM range do not exist.
+     */
+    public boolean ram_to_disk(BlockDevice disk, long block, int count, int addr){
+        if(!valid(disk, block, count, addr))return false;
+        disk.open();
+        byte[] data = RAM.getInstance().load_bytes(addr, count*disk.get_block_size());
+        disk.write_blocks(data, block, count);
+        disk.commit();
+        transfers += 1;
+        bytes_moved += data.length;
+        return true;
+    }
+
+    /* Precond:
+     *  None.
+     *
+     * Postcond:
+     *  Returns true if the blocks exist on the disk and the RAM range exists.
+     */
+    private boolean valid(BlockDevice disk, long block, int count, int addr){
+        if(count <= 0 || block < 0 || block + count > disk.get_blocks())return false;
+        long length = (long)count*disk.get_block_size();
+        return addr >= 0 && addr + length <= RAM.getInstance().get_size();
+    }
+}
@@ -0,0 +1,310 @@
+/* File: DedupBlockStore.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A content-addressed store of 1KB blocks shared by many DedupHardDisk images.
+ * Notes:
+ *  Identical blocks are stored once, found by the SHA-256 of their data, and kept while at
+ *  least one image refers to them.
+ *  File structure:
+ *      Header (16 bytes):
+ *          byte 0-3) Store magic number.
+ *          byte 4-11) Store id, recorded by every image using the store.
+ *          byte 12-15) Block size.
+ *      Slots, one after another:
+ *          byte 0-3) Reference count (0 means the slot is free).
+ *          byte 4-35) SHA-256 of the data.
+ *          byte 36- ) Data.
+ *  The hash index is rebuilt from the slots when the store is opened.
+ */
+
+
+package com.hardware;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+
+public class DedupBlockStore {
+    //Constants
+    private static final int store_magic = 0x44445354;
+    private static final int header_length = Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private static final int hash_length = 32;
+    private static final int block_size = (int)ManagedHardDisk.KB;
+    private static final int slot_length = Integer.BYTES + hash_length + block_size;
+
+    //Creation Methods
+    public static DedupBlockStore open(String filename){
+        return new DedupBlockStore(filename);
+    }
+
+    //Instance Variables
+    private final String filename;
+    private final RandomAccessFile access;
+    private final long id;
+    private final HashMap<ByteBuffer, Long> index; //Hash of the data to slot.
+    private final ArrayList<Integer> references; //Reference count of every slot.
+    private final ArrayList<ByteBuffer> hashes; //Hash of every slot, null for free slots.
+    private final ArrayDeque<Long> free_slots;
+    private final MessageDigest digest;
+
+    //Precond:
+    //  filename is the name of the store file, which is created if it does not exist.
+    //
+    //Postcond:
+    //  Opens the store and rebuilds its hash index.
+    private DedupBlockStore(String filename){
+        this.filename = filename;
+        index = new HashMap<>();
+        references = new ArrayList<>();
+        hashes = new ArrayList<>();
+        free_slots = new ArrayDeque<>();
+        RandomAccessFile file = null;
+        MessageDigest sha = null;
+        long store_id = 0;
+        try{
+            sha = MessageDigest.getInstance("SHA-256");
+            file = new RandomAccessFile(new File(filename), "rw");
+            if(file.length() == 0){
+                store_id = new Random().nextLong();
+                file.writeInt(store_magic);
+                file.writeLong(store_id);
+                file.writeInt(block_size);
+            }
+            else{
+                file.seek(0);
+                if(file.readInt() != store_magic){
+                    System.err.println("Problem opening block store in " + filename);
+                    System.exit(205);
+                }
+                store_id = file.readLong();
+                if(file.readInt() != block_size){
+                    System.err.println("Unsupported block size in " + filename);
+                    System.exit(205);
+                }
+                long slots = (file.length() - header_length)/slot_length;
+                byte[] slot_header = new byte[Integer.BYTES + hash_length];
+                for(long slot = 0;slot < slots;slot++){
+                    file.seek(slot_address(slot));
+                    file.readFully(slot_header);
+                    ByteBuffer header = ByteBuffer.wrap(slot_header);
+                    int count = header.getInt();
+                    references.add(count);
+                    if(count == 0){
+                        hashes.add(null);
+                        free_slots.add(slot);
+                    }
+                    else{
+                        ByteBuffer hash = ByteBuffer.wrap(Arrays.copyOfRange(slot_header, Integer.BYTES, slot_header.length));
+                        hashes.add(hash);
+                        index.put(hash, slot);
+                    }
+                }
+            }
+        } catch (IOException | NoSuchAlgorithmException exp){
+            System.err.println("Problem opening block store in " + filename);
+            exp.printStackTrace();
+            System.exit(205);
+        }
+        access = file;
+        digest = sha;
+        id = store_id;
+    }
+
+    //Precond:
+    //  data holds a block of data starting at offset.
+    //
+    //Postcond:
+    //  Adds a reference to the slot holding the block, storing it if it is not already stored.
+    //  Returns the slot.
+    public synchronized long put(byte[] data, int offset){
+        digest.update(data, offset, block_size);
+        ByteBuffer hash = ByteBuffer.wrap(digest.digest());
+        Long existing = index.get(hash);
+        try{
+            if(existing != null){
+                set_references(existing, references.get(existing.intValue()) + 1);
+                return existing;
+            }
+            long slot = free_slots.isEmpty() ? references.size() : free_slots.poll();
+            ByteBuffer record = ByteBuffer.allocate(slot_length);
+            record.putInt(1);
+            record.put(hash.array());
+            record.put(data, offset, block_size);
+            access.seek(slot_address(slot));
+            access.write(record.array());
+            if(slot == references.size()){
+                references.add(1);
+                hashes.add(hash);
+            }
+            else{
+                references.set((int)slot, 1);
+                hashes.set((int)slot, hash);
+            }
+            index.put(hash, slot);
+            return slot;
+        } catch (IOException exp){
+            System.err.println("Problem writing to block store " + filename);
+            exp.printStackTrace();
+            System.exit(201);
+        }
+        return -1;
+    }
+
+    //Precond:
+    //  slot is an in-use slot.
+    //
+    //Postcond:
+    //  Returns the data stored in the slot.
+    public synchronized byte[] get(long slot){
+        byte[] data = new byte[block_size];
+        try{
+            access.seek(slot_address(slot) + Integer.BYTES + hash_length);
+            access.readFully(data);
+        } catch (IOException exp){
+            System.err.println("Problem reading from block store " + filename);
+            exp.printStackTrace();
+            System.exit(202);
+        }
+        return data;
+    }
+
+    //Precond:
+    //  slot is an in-use slot.
+    //
+    //Postcond:
+    //  Adds a reference to the slot.
+    public synchronized void retain(long slot){
+        set_references(slot, references.get((int)slot) + 1);
+    }
+
+    //Precond:
+    //  slots lists in-use slots, a slot may be listed many times and negative entries are ignored.
+    //
+    //Postcond:
+    //  Adds a reference to each slot for every time it is listed.
+    //  Each slot's count is written once, in file order, in a single pass over the store.
+    public synchronized void retain_all(long[] slots){
+        long[] sorted = slots.clone();
+        Arrays.sort(sorted);
+        int i = 0;
+        while(i < sorted.length){
+            int run = 1;
+            while(i + run < sorted.length && sorted[i + run] == sorted[i])run++;
+            if(sorted[i] >= 0)set_references(sorted[i], references.get((int)sorted[i]) + run);
+            i += run;
+        }
+    }
+
+    //Precond:
+    //  slot is an in-use slot.
+    //
+    //Postcond:
+    //  Removes a reference to the slot, freeing it when no references remain.
+    public synchronized void release(long slot){
+        int count = references.get((int)slot) - 1;
+        set_references(slot, count);
+        if(count == 0){
+            index.remove(hashes.get((int)slot));
+            hashes.set((int)slot, null);
+            free_slots.add(slot);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Forces every write so far to the store file.
+    public synchronized void commit(){
+        try{
+            access.getChannel().force(false);
+        } catch (IOException exp){
+            System.err.println("Problem writing to block store " + filename);
+            exp.printStackTrace();
+            System.exit(201);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Closes the store file.
+    public synchronized void close(){
+        try{
+            access.close();
+        } catch (IOException exp){
+            System.err.println("Problem closing block store " + filename);
+            exp.printStackTrace();
+            System.exit(200);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the id recorded by images using this store.
+    public long get_id(){
+        return id;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of distinct blocks held in the store.
+    public synchronized long get_unique_blocks(){
+        return index.size();
+    }
+
+    //Precond:
+    //  slot is a slot in the store.
+    //
+    //Postcond:
+    //  Returns the number of references to the slot.
+    public synchronized int get_references(long slot){
+        return references.get((int)slot);
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  slot is a slot in the store.
+    //  count is the new reference count.
+    //
+    //Postcond:
+    //  Updates the reference count in memory and in the store file.
+    private void set_references(long slot, int count){
+        references.set((int)slot, count);
+        try{
+            access.seek(slot_address(slot));
+            access.writeInt(count);
+        } catch (IOException exp){
+            System.err.println("Problem writing to block store " + filename);
+            exp.printStackTrace();
+            System.exit(201);
+        }
+    }
+
+    //Precond:
+    //  slot is a slot in the store.
+    //
+    //Postcond:
+    //  Returns the file address of the slot.
+    private static long slot_address(long slot){
+        return header_length + slot*slot_length;
+    }
+}
@@ -0,0 +1,466 @@
+/* File: DedupHardDisk.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A disk image whose blocks are kept in a shared DedupBlockStore, so identical blocks of
+ *  any number of images are stored once.
+ * Notes:
+ *  The image file holds only a block table, so an image can be cloned by copying its table.
+ *  Positions are logical: offset may run past the end of block into the following blocks.
+ *  File structure:
+ *      Header (19 bytes):
+ *          byte 0-2) Magic number.
+ *          byte 3-6) Number of blocks.
+ *          byte 7-10) Block size.
+ *          byte 11-18) Id of the block store holding the data.
+ *      Block table, 8 bytes per block:
+ *          Slot of the block in the store, -1 for a free block, -2 for an all zero block.
+ */
+
+
+package com.hardware;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class DedupHardDisk implements BlockDevice {
+    //Constants
+    private static final byte[] magic = {11, 13, 65};
+    private static final int header_length = magic.length + Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final long free_slot = -1;
+    private static final long zero_slot = -2;
+    private static final int block_size = (int)ManagedHardDisk.KB;
+
+    //Creation Methods
+    public static DedupHardDisk create(DedupBlockStore store, String filename, long disk_size){
+        long blocks = disk_size/block_size;
+        if(disk_size % block_size != 0)blocks += 1;
+        DedupHardDisk disk = new DedupHardDisk(store, filename, (int)blocks);
+        disk.format();
+        return disk;
+    }
+
+    public static DedupHardDisk mount(DedupBlockStore store, String filename){
+        return new DedupHardDisk(store, filename);
+    }
+
+    //Instance Variables
+    private final DedupBlockStore store;
+    private final int blocks;
+    private final String filename;
+    private final File handle;
+    private RandomAccessFile access;
+    private final long[] slots;
+    private final BlockMap used_map;
+
+    //Precond:
+    //  store is the block store to keep the data in.
+    //  filename is the name of the file to store the block table in.
+    //  blocks is the number of blocks on the disk.
+    //
+    //Postcond:
+    //  Creates an unformatted DedupHardDisk object for the file.
+    private DedupHardDisk(DedupBlockStore store, String filename, int blocks){
+        this.store = store;
+        this.filename = filename;
+        this.blocks = blocks;
+        handle = new File(filename);
+        slots = new long[blocks];
+        Arrays.fill(slots, free_slot);
+        used_map = new BlockMap(blocks);
+        access = null;
+    }
+
+    //Precond:
+    //  store is the block store the image was created with.
+    //  filename is the name of the file where the block table is stored.
+    //
+    //Postcond:
+    //  Opens an existing image and loads its block table.
+    private DedupHardDisk(DedupBlockStore store, String filename){
+        this.store = store;
+        this.filename = filename;
+        handle = new File(filename);
+        access = null;
+        open();
+        int count = 0;
+        try{
+            access.seek(0);
+            for(byte b : magic){
+                if(b != access.readByte())bad_image();
+            }
+            count = access.readInt();
+            if(count < 0 || access.readInt() != block_size)bad_image();
+            if(access.readLong() != store.get_id()){
+                System.err.println("Hard disk " + filename + " does not belong to the given block store.");
+                close();
+                System.exit(205);
+            }
+        } catch (IOException exp){
+            bad_image();
+        }
+        blocks = count;
+        slots = new long[blocks];
+        used_map = new BlockMap(blocks);
+        try{
+            byte[] table = new byte[blocks*Long.BYTES];
+            access.readFully(table);
+            ByteBuffer entries = ByteBuffer.wrap(table);
+            for(int i = 0;i < blocks;i++){
+                slots[i] = entries.getLong();
+                if(slots[i] != free_slot)used_map.set_used(i);
+            }
+        } catch (IOException exp){
+            bad_image();
+        }
+    }
+
+    //======================
+    //  File Access Methods
+    //======================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Opens the image file so it can be read from and written to.
+    public synchronized void open(){
+        if(access != null)return;
+        try {
+            access = new RandomAccessFile(handle, "rw");
+        } catch (IOException exp){
+            System.err.println("Problem opening hard disk.");
+            exp.printStackTrace();
+            System.exit(200);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Closes file access, if the file is open.
+    //  The block store stays open for other images.
+    public synchronized void close(){
+        if(access == null)return;
+        try {
+            access.close();
+            access = null;
+        } catch (IOException exp){
+            System.err.println("Problem closing hard disk.");
+            exp.printStackTrace();
+            System.exit(200);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Forces every write so far to the block store and the image file.
+    public synchronized void commit(){
+        if(access == null)return;
+        store.commit();
+        try {
+            access.getChannel().force(false);
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        }
+    }
+
+    //Precond:
+    //  filename is the name of the file to store the clone's block table in.
+    //
+    //Postcond:
+    //  Creates an image in the same store with the same contents as this one, sharing every block.
+    //  Returns the clone, closed.
+    public synchronized DedupHardDisk clone_image(String filename){
+        DedupHardDisk clone = new DedupHardDisk(store, filename, blocks);
+        System.arraycopy(slots, 0, clone.slots, 0, blocks);
+        store.retain_all(slots);
+        for(int i = 0;i < blocks;i++){
+            if(slots[i] != free_slot)clone.used_map.set_used(i);
+        }
+        clone.open();
+        try{
+            clone.write_image();
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        }
+        clone.close();
+        return clone;
+    }
+
+    //=========================
+    //  Hard Disk Read/Write
+    //=========================
+
+    //Precond:
+    //  block is the first block to read.
+    //  count is the number of consecutive blocks to read.
+    //
+    //Postcond:
+    //  Returns the data of count consecutive blocks.
+    public synchronized byte[] read_blocks(long block, int count){
+        check_open(202, "Attempted to read from a closed hard disk.");
+        byte[] result = new byte[count*block_size];
+        for(int i = 0;i < count;i++){
+            System.arraycopy(block_data(block + i), 0, result, i*block_size, block_size);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  data is the data to store, at most count blocks long.
+    //  block is the first block to write.
+    //  count is the number of consecutive blocks to write.
+    //
+    //Postcond:
+    //  Writes the data and sets the flag of every block to in-use.
+    //  Any part of the blocks not covered by data is zero filled.
+    public synchronized void write_blocks(byte[] data, long block, int count){
+        check_open(201, "Attempted to write to a closed hard disk.");
+        byte[] full = data;
+        if(data.length != count*block_size){
+            full = new byte[count*block_size];
+            System.arraycopy(data, 0, full, 0, Math.min(data.length, full.length));
+        }
+        store_blocks(full, block, count);
+    }
+
+    //========================
+    //  Hard Disk Management
+    //========================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Marks every block free and releases every block held in the store.
+    public synchronized void format(){
+        open();
+        for(int i = 0;i < blocks;i++){
+            if(slots[i] >= 0)store.release(slots[i]);
+            slots[i] = free_slot;
+        }
+        used_map.clear();
+        try{
+            write_image();
+        } catch(IOException exp){
+            System.err.println("Problem formatting hard disk.");
+            exp.printStackTrace();
+            System.exit(203);
+        }
+        close();
+    }
+
+    //Precond:
+    //  block is the block to free.
+    //
+    //Postcond:
+    //  Marks the block free and drops its reference to the stored data.
+    public synchronized void free_block(long block){
+        check_open(204, "Attempted to deleting block data in closed hard disk.");
+        int index = (int)block;
+        if(slots[index] >= 0)store.release(slots[index]);
+        slots[index] = free_slot;
+        used_map.set_free(block);
+        try{
+            write_entries(block, 1);
+        } catch (IOException exp){
+            System.err.println("Problem deleting block data from disk.");
+            exp.printStackTrace();
+            System.exit(204);
+        }
+    }
+
+    //Precond:
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first free block at or after from.
+    //  Returns -1 if there is no free block remaining.
+    public synchronized long next_free_block(long from){
+        check_open(206, "Attempted to search closed hard disk.");
+        return used_map.next_free(from);
+    }
+
+    //Precond:
+    //  count is the number of contiguous blocks required.
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first block of the lowest run of at least count free blocks at or after from.
+    //  Returns -1 if no such run exists.
+    public synchronized long next_free_run(int count, long from){
+        check_open(206, "Attempted to search closed hard disk.");
+        return used_map.next_free_run(count, from);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //  limit is the largest run length of interest.
+    //
+    //Postcond:
+    //  Returns the number of consecutive free blocks starting at block, at most limit.
+    public synchronized int free_run_length(long block, int limit){
+        return used_map.free_run_length(block, limit);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns true if the block is free.
+    public synchronized boolean is_free(long block){
+        return used_map.is_free(block);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of free blocks remaining on the disk.
+    public synchronized long free_blocks(){
+        return used_map.free_count();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of blocks on the disk.
+    public long get_blocks(){
+        return blocks;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of data bytes in each block.
+    public int get_block_size(){
+        return block_size;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the block store holding the data of the disk.
+    public DedupBlockStore get_store(){
+        return store;
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  code is the exit code to use if the image is closed.
+    //  message describes the attempted operation.
+    //
+    //Postcond:
+    //  Exits if the image is not open.
+    private void check_open(int code, String message){
+        if(access == null){
+            System.err.println(message);
+            System.exit(code);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Reports that the file is not a deduplicated hard disk image and exits.
+    private void bad_image(){
+        System.err.println("Problem opening existing hard disk in " + filename);
+        close();
+        System.exit(205);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns the data of the block, all zero for free and zero blocks.
+    private byte[] block_data(long block){
+        long slot = slots[(int)block];
+        if(slot < 0)return new byte[block_size];
+        return store.get(slot);
+    }
+
+    //Precond:
+    //  data holds count*block_size bytes.
+    //  block is the first block to store.
+    //  count is the number of consecutive blocks to store.
+    //
+    //Postcond:
+    //  Points each block at the store slot holding its data, then writes the table entries of
+    //  the blocks with one write.
+    private void store_blocks(byte[] data, long block, int count){
+        for(int i = 0;i < count;i++){
+            int index = (int)(block + i);
+            long old = slots[index];
+            slots[index] = is_zero(data, i*block_size) ? zero_slot : store.put(data, i*block_size);
+            if(old >= 0)store.release(old);
+        }
+        used_map.set_used(block, block + count);
+        try{
+            write_entries(block, count);
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        }
+    }
+
+    //Precond:
+    //  The image is open.
+    //
+    //Postcond:
+    //  Writes the header and the whole block table to the image.
+    private void write_image() throws IOException {
+        access.setLength(header_length + (long)blocks*Long.BYTES);
+        access.seek(0);
+        access.write(magic);
+        access.writeInt(blocks);
+        access.writeInt(block_size);
+        access.writeLong(store.get_id());
+        write_entries(0, blocks);
+    }
+
+    //Precond:
+    //  block is the first table entry to write.
+    //  count is the number of consecutive entries to write.
+    //
+    //Postcond:
+    //  Writes the in-memory table entries to the image.
+    private void write_entries(long block, int count) throws IOException {
+        ByteBuffer entries = ByteBuffer.allocate(count*Long.BYTES);
+        for(int i = 0;i < count;i++)entries.putLong(slots[(int)(block + i)]);
+        access.seek(header_length + block*Long.BYTES);
+        access.write(entries.array());
+    }
+
+    //Precond:
+    //  data holds at least one block starting at start.
+    //
+    //Postcond:
+    //  Returns true if every byte of the block is zero.
+    private static boolean is_zero(byte[] data, int start){
+        for(int i = start;i < start + block_size;i++){
+            if(data[i] != 0)return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,187 @@
+/* File: DiskDefragmenter.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Moves the files of a mounted DiskFileSystem so each is contiguous and free space gathers at
+ *  the end of the disk.
+ * Notes:
+ *  Work is done one file at a time. Each step rewrites a single file into the lowest free run
+ *  that can hold it, preferring the files highest on the disk, and otherwise makes a
+ *  fragmented file contiguous. Each step is committed on its own, so the file system stays
+ *  usable and consistent between steps.
+ *  Files too large for any free run below them are left where they are.
+ *  The background thread pauses after each step so it never moves more than the configured
+ *  number of blocks per second, and checks again every idle_pause milliseconds once the disk
+ *  is defragmented.
+ */
+
+
+package com.hardware;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.locks.LockSupport;
+
+public class DiskDefragmenter {
+    //Constants
+    private static final long idle_pause = 1000;
+
+    //Instance Variables
+    private final DiskFileSystem fs;
+    private final long blocks_per_second;
+    private Thread worker;
+    private volatile boolean running;
+    private volatile long moved_blocks;
+    private volatile long moved_files;
+
+    //Precond:
+    //  fs is a mounted file system.
+    //  blocks_per_second is the highest rate to move blocks at, 0 for no limit.
+    //
+    //Postcond:
+    //  Creates a defragmenter which has not been started.
+    public DiskDefragmenter(DiskFileSystem fs, long blocks_per_second){
+        this.fs = fs;
+        this.blocks_per_second = blocks_per_second;
+        worker = null;
+        running = false;
+        moved_blocks = 0;
+        moved_files = 0;
+    }
+
+    //Getters
+    public long get_moved_blocks(){
+        return moved_blocks;
+    }
+
+    public long get_moved_files(){
+        return moved_files;
+    }
+
+    public boolean is_running(){
+        return running;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the current fragmentation of the file system.
+    public FragmentationReport analyze(){
+        return fs.fragmentation();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Starts defragmenting on a background thread, if it is not already running.
+    public void start(){
+        if(running)return;
+        running = true;
+        worker = new Thread(this::work, "SAC-disk-defragmenter");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Stops the background thread and waits for it to finish the current step.
+    public void stop(){
+        running = false;
+        if(worker == null)return;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException exp){
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Moves one file, if any file would benefit.
+    //  Returns the number of blocks moved, 0 if there was nothing to do.
+    public int step(){
+        ArrayList<DiskFile> files = fs.files();
+        files.sort(Comparator.comparingLong(DiskFile::get_first_block).reversed());
+        BlockDevice disk = fs.get_disk();
+        for(DiskFile file : files){
+            long run = disk.next_free_run(fs.block_count(file), 0);
+            if(run < 0 || run > file.get_first_block())continue;
+            int moved = fs.relocate(file, false);
+            if(moved > 0)return record(moved);
+        }
+        for(DiskFile file : files){
+            int moved = fs.relocate(file, true);
+            if(moved > 0)return record(moved);
+        }
+        return 0;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Steps on the calling thread, without rate limiting, until nothing is left to move.
+    //  Returns the number of blocks moved.
+    public long run_pass(){
+        long total = 0;
+        //Moving a file rewrites its directories, so cap the steps in case two files keep trading places.
+        long limit = 4L*(fs.files().size() + 1);
+        for(long i = 0;i < limit;i++){
+            int moved = step();
+            if(moved == 0)break;
+            total += moved;
+        }
+        return total;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Moves every file as low on the disk as it will go, then trims the disk so the free space
+    //  gathered at the end is returned to the host.
+    //  Returns the number of bytes released.
+    public long compact(){
+        run_pass();
+        return fs.get_disk().trim();
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  moved is the number of blocks moved by a step.
+    //
+    //Postcond:
+    //  Adds the step to the totals and returns moved.
+    private int record(int moved){
+        moved_blocks += moved;
+        moved_files += 1;
+        return moved;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Background loop, takes steps at the configured rate until stopped.
+    private void work(){
+        while(running){
+            int moved = step();
+            long wait = (moved == 0) ? idle_pause*1_000_000L :
+                    (blocks_per_second > 0) ? (moved*1_000_000_000L)/blocks_per_second : 0;
+            if(wait <= 0)continue;
+            DiskThrottle.pause_for(this, wait, () -> running);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/* File: DiskFile.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A handle to a file or directory held in a DiskFileSystem.
+ * Notes:
+ *  Handles are owned by the file system's directory index and stay valid until the file is deleted.
+ */
+
+
+package com.hardware;
+
+import java.util.LinkedHashMap;
+
+public class DiskFile {
+    //Instance Variables
+    final String path;
+    final String name;
+    final DiskFileType type;
+    final DiskFile parent;
+    long first_block;
+    long size;
+    final LinkedHashMap<String, DiskFile> children; //Only used by directories.
+
+    DiskFile(String path, String name, DiskFileType type, DiskFile parent, long first_block, long size){
+        this.path = path;
+        this.name = name;
+        this.type = type;
+        this.parent = parent;
+        this.first_block = first_block;
+        this.size = size;
+        children = (type == DiskFileType.DIRECTORY) ? new LinkedHashMap<>() : null;
+    }
+
+    //Getters
+    public String get_path(){
+        return path;
+    }
+
+    public String get_name(){
+        return name;
+    }
+
+    public DiskFileType get_type(){
+        return type;
+    }
+
+    public long get_size(){
+        return size;
+    }
+
+    public long get_first_block(){
+        return first_block;
+    }
+
+    public boolean is_directory(){
+        return type == DiskFileType.DIRECTORY;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns a string representation of the file.
+    public String toString(){
+        return String.format("%s (%s, %d bytes)", path, type, size);
+    }
+}
@@ -0,0 +1,634 @@
+/* File: DiskFileSystem.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A block-level file system layered on top of a BlockDevice such as a ManagedHardDisk.
+ * Notes:
+ *  Follows the file layout in hard_disk_design.txt.
+ *  Every block of a file starts with a 12 byte header:
+ *      byte 0) File type.
+ *      byte 1-8) Next block (-1 means last block).
+ *      byte 9-11) Bytes used in this block.
+ *  The root directory always starts at block 0.
+ *  Directories hold a list of 57 byte entries:
+ *      byte 0-39) Name (zero padded).
+ *      byte 40) File type.
+ *      byte 41-48) First block.
+ *      byte 49-56) File length in bytes.
+ *  Every directory is read when the file system is mounted, so paths are looked up in memory.
+ *  Files are placed in the lowest run of contiguous blocks large enough to hold them, when one exists.
+ *  On a journaled disk every create, write, and delete is committed as a single group, and so is
+ *  atomic, as long as the blocks it writes fit in ManagedHardDisk.journal_group_limit. A larger
+ *  write is split over several groups and a crash part way through may leave only some of them.
+ *  Operations do not trim the disk. A ManagedHardDisk returns space freed at its end to the host
+ *  when it is closed, and DiskDefragmenter.compact trims on request.
+ *  Operations are synchronized so a DiskDefragmenter can move files while the file system is in use.
+ */
+
+
+package com.hardware;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class DiskFileSystem {
+    //Constants
+    public static final String separator = "/";
+    public static final int max_name_length = 40;
+    private static final int header_length = 12;
+    private static final int entry_length = max_name_length + 1 + Long.BYTES + Long.BYTES;
+    private static final int byte_mask = 0xFF;
+    private static final long last_block = -1;
+    private static final long root_block = 0;
+    private static final int max_read_run = 64; //Largest number of blocks fetched in one read.
+
+    //Creation Methods
+
+    //Precond:
+    //  disk is a BlockDevice.
+    //
+    //Postcond:
+    //  Formats the disk and returns a file system containing only an empty root directory.
+    public static DiskFileSystem format(BlockDevice disk){
+        disk.format();
+        DiskFileSystem fs = new DiskFileSystem(disk);
+        fs.root.first_block = last_block;
+        if(!fs.write_chain(fs.root, new byte[0])){
+            System.err.println("Problem creating the root directory.");
+            System.exit(207);
+        }
+        disk.commit();
+        return fs;
+    }
+
+    //Precond:
+    //  disk is a BlockDevice which has previously been formatted with a file system.
+    //
+    //Postcond:
+    //  Returns the file system stored on the disk with every directory loaded into memory.
+    public static DiskFileSystem mount(BlockDevice disk){
+        DiskFileSystem fs = new DiskFileSystem(disk);
+        if(disk.is_free(root_block)){
+            System.err.println("Disk does not contain a file system.");
+            System.exit(207);
+        }
+        fs.load_directory(fs.root);
+        return fs;
+    }
+
+    //Instance Variables
+    private final BlockDevice disk;
+    private final int block_size;
+    private final int payload; //Bytes of file data held by each block.
+    private final HashMap<String, DiskFile> index; //Full path to file.
+    private final DiskFile root;
+
+    //Instance Methods
+
+    //Precond:
+    //  disk is a BlockDevice.
+    //
+    //Postcond:
+    //  Opens the disk and creates an empty index holding only the root directory.
+    private DiskFileSystem(BlockDevice disk){
+        this.disk = disk;
+        disk.open();
+        block_size = disk.get_block_size();
+        payload = block_size - header_length;
+        index = new HashMap<>();
+        root = new DiskFile(separator, "", DiskFileType.DIRECTORY, null, root_block, 0);
+        index.put(separator, root);
+    }
+
+    //=========================
+    //  File Operations
+    //=========================
+
+    //Precond:
+    //  path is the path of the file to create.
+    //  type is the type of the new file.
+    //
+    //Postcond:
+    //  Creates an empty file and returns its handle.
+    //  Returns null if the file exists, the parent directory does not exist,
+    //  the name is invalid, or the disk is full.
+    public synchronized DiskFile create(String path, DiskFileType type){
+        path = normalize(path);
+        if(path == null || index.containsKey(path))return null;
+        DiskFile parent = index.get(parent_path(path));
+        if(parent == null || !parent.is_directory())return null;
+        String name = base_name(path);
+        if(name.isEmpty() || name.getBytes(StandardCharsets.US_ASCII).length > max_name_length)return null;
+        DiskFile file = new DiskFile(path, name, type, parent, last_block, 0);
+        if(!write_chain(file, new byte[0]))return null;
+        parent.children.put(name, file);
+        index.put(path, file);
+        if(!write_directory(parent)){
+            parent.children.remove(name);
+            index.remove(path);
+            free_chain(file.first_block);
+            disk.commit();
+            return null;
+        }
+        disk.commit();
+        return file;
+    }
+
+    //Precond:
+    //  path is the path of a file.
+    //
+    //Postcond:
+    //  Returns the handle of the file.
+    //  Returns null if no such file exists.
+    public synchronized DiskFile open(String path){
+        path = normalize(path);
+        if(path == null)return null;
+        return index.get(path);
+    }
+
+    //Precond:
+    //  path is the path of a file.
+    //
+    //Postcond:
+    //  Returns the contents of the file.
+    //  Returns null if no such file exists.
+    public synchronized byte[] read(String path){
+        DiskFile file = open(path);
+        if(file == null)return null;
+        return read(file);
+    }
+
+    //Precond:
+    //  file is a handle returned by this file system.
+    //
+    //Postcond:
+    //  Returns the contents of the file.
+    public synchronized byte[] read(DiskFile file){
+        return read_chain(file.first_block, file.size);
+    }
+
+    //Precond:
+    //  path is the path of a file.
+    //  data is the new contents of the file.
+    //
+    //Postcond:
+    //  Replaces the contents of the file.
+    //  Returns false if no such file exists, it is a directory, or the disk is full.
+    public synchronized boolean write(String path, byte[] data){
+        DiskFile file = open(path);
+        if(file == null)return false;
+        return write(file, data);
+    }
+
+    //Precond:
+    //  file is a handle returned by this file system.
+    //  data is the new contents of the file.
+    //
+    //Postcond:
+    //  Replaces the contents of the file.
+    //  Returns false if the file is a directory or the disk is full.
+    public synchronized boolean write(DiskFile file, byte[] data){
+        if(file.is_directory() || !index.containsKey(file.path))return false;
+        boolean result = write_chain(file, data) && write_directory(file.parent);
+        disk.commit();
+        return result;
+    }
+
+    //Precond:
+    //  path is the path of a file or empty directory.
+    //
+    //Postcond:
+    //  Removes the file and frees its blocks.
+    //  Returns false if no such file exists, it is the root, or it is a directory that is not empty.
+    public synchronized boolean delete(String path){
+        DiskFile file = open(path);
+        if(file == null || file == root)return false;
+        if(file.is_directory() && !file.children.isEmpty())return false;
+        free_chain(file.first_block);
+        file.parent.children.remove(file.name);
+        index.remove(file.path);
+        boolean result = write_directory(file.parent);
+        disk.commit();
+        return result;
+    }
+
+    //Precond:
+    //  path is the path of a directory.
+    //
+    //Postcond:
+    //  Returns the names of the files in the directory.
+    //  Returns null if no such directory exists.
+    public synchronized ArrayList<String> list(String path){
+        DiskFile dir = open(path);
+        if(dir == null || !dir.is_directory())return null;
+        return new ArrayList<>(dir.children.keySet());
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the disk the file system is stored on.
+    public BlockDevice get_disk(){
+        return disk;
+    }
+
+    //=========================
+    //  Defragmentation
+    //=========================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns every file and directory except the root.
+    synchronized ArrayList<DiskFile> files(){
+        ArrayList<DiskFile> result = new ArrayList<>(index.values());
+        result.remove(root);
+        return result;
+    }
+
+    //Precond:
+    //  file is a handle returned by this file system.
+    //
+    //Postcond:
+    //  Returns the number of blocks the file occupies.
+    int block_count(DiskFile file){
+        return blocks_needed(file.size);
+    }
+
+    //Precond:
+    //  file is a handle returned by this file system.
+    //  fragmented_only is true if a contiguous file should not be moved.
+    //
+    //Postcond:
+    //  Rewrites the file into the lowest contiguous run of free blocks, if that would leave it
+    //  contiguous and either lower on the disk or no longer fragmented.
+    //  Returns the number of blocks moved, 0 if the file was left alone.
+    synchronized int relocate(DiskFile file, boolean fragmented_only){
+        if(file == root || index.get(file.path) != file)return 0;
+        ArrayList<Long> blocks = chain_blocks(file.first_block);
+        boolean contiguous = extents(blocks) == 1;
+        if(contiguous && fragmented_only)return 0;
+        long run = disk.next_free_run(blocks.size(), 0);
+        if(run < 0 || (contiguous && run > file.first_block))return 0;
+        boolean moved;
+        if(file.is_directory())moved = write_directory(file);
+        else moved = write_chain(file, read_listed(blocks)) && write_directory(file.parent);
+        disk.commit();
+        return moved ? blocks.size() : 0;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the current fragmentation of files and free space.
+    public synchronized FragmentationReport fragmentation(){
+        long files = 0;
+        long fragmented = 0;
+        long extents = 0;
+        long used = 0;
+        for(DiskFile file : index.values()){
+            ArrayList<Long> blocks = chain_blocks(file.first_block);
+            int count = extents(blocks);
+            files += 1;
+            extents += count;
+            used += blocks.size();
+            if(count > 1)fragmented += 1;
+        }
+        long free_extents = 0;
+        long largest_free = 0;
+        long last_used = -1;
+        long block = disk.next_free_block(0);
+        while(block >= 0){
+            int length = disk.free_run_length(block, Integer.MAX_VALUE);
+            free_extents += 1;
+            largest_free = Math.max(largest_free, length);
+            block = disk.next_free_block(block + length);
+        }
+        for(long b = disk.get_blocks() - 1;b >= 0;b--){
+            if(!disk.is_free(b)){
+                last_used = b;
+                break;
+            }
+        }
+        return new FragmentationReport(files, fragmented, extents, used, disk.free_blocks(),
+                free_extents, largest_free, disk.get_blocks() - (last_used + 1));
+    }
+
+    //Precond:
+    //  blocks is a chain of blocks, in order.
+    //
+    //Postcond:
+    //  Returns the number of runs of consecutive blocks in the chain.
+    private int extents(ArrayList<Long> blocks){
+        int result = blocks.isEmpty() ? 0 : 1;
+        for(int i = 1;i < blocks.size();i++){
+            if(blocks.get(i) != blocks.get(i - 1) + 1)result += 1;
+        }
+        return result;
+    }
+
+    //=========================
+    //  Block Chains
+    //=========================
+
+    //Precond:
+    //  file is a file handle, first_block is -1 if it has no blocks yet.
+    //  data is the new contents of the file.
+    //
+    //Postcond:
+    //  Frees the old blocks of the file and writes data into newly allocated blocks.
+    //  Every block is written with a single vectored write, which merges contiguous blocks.
+    //  Returns false, leaving the file untouched, if the disk does not have enough free blocks.
+    private boolean write_chain(DiskFile file, byte[] data){
+        int count = blocks_needed(data.length);
+        ArrayList<Long> old = (file.first_block == last_block) ? new ArrayList<>() : chain_blocks(file.first_block);
+        if(disk.free_blocks() + old.size() < count)return false;
+        for(long block : old)disk.free_block(block);
+        long[] blocks = allocate(count, file == root);
+        byte[] buffer = new byte[count*block_size];
+        ArrayList<DiskSegment> segments = new ArrayList<>(count);
+        for(int n = 0;n < count;n++){
+            int start = n*payload;
+            int used = Math.max(0, Math.min(payload, data.length - start));
+            long next = (n + 1 < count) ? blocks[n + 1] : last_block;
+            write_header(buffer, n*block_size, file.type, next, used);
+            if(used > 0)System.arraycopy(data, start, buffer, (n*block_size) + header_length, used);
+            segments.add(new DiskSegment(blocks[n], 0, block_size));
+        }
+        disk.write_vectored(buffer, segments);
+        file.first_block = blocks[0];
+        file.size = data.length;
+        return true;
+    }
+
+    //Precond:
+    //  first is the first block of a chain.
+    //  size is the number of data bytes in the chain, or -1 if unknown.
+    //
+    //Postcond:
+    //  Returns the data stored in the chain.
+    //  Contiguous blocks are fetched together, up to max_read_run blocks per access.
+    private byte[] read_chain(long first, long size){
+        ByteArrayOutputStream result = new ByteArrayOutputStream((size < 0) ? payload : (int)size);
+        long remaining = (size < 0) ? disk.get_blocks() : blocks_needed(size);
+        long block = first;
+        while(block != last_block){
+            if(remaining <= 0 || block < 0 || block >= disk.get_blocks())corrupt();
+            int run = (size < 0) ? 1 : (int)Math.min(Math.min(remaining, max_read_run), disk.get_blocks() - block);
+            byte[] raw = disk.read_blocks(block, run);
+            long next = last_block;
+            for(int i = 0;i < run;i++){
+                int base = i*block_size;
+                next = read_long(raw, base + 1);
+                int used = read_used(raw, base);
+                if(used > payload)corrupt();
+                result.write(raw, base + header_length, used);
+                remaining -= 1;
+                if(next != block + i + 1)break;
+            }
+            block = next;
+        }
+        return result.toByteArray();
+    }
+
+    //Precond:
+    //  blocks lists every block of a chain, in order.
+    //
+    //Postcond:
+    //  Returns the data stored in the chain, fetched with a single vectored read.
+    private byte[] read_listed(ArrayList<Long> blocks){
+        ArrayList<DiskSegment> segments = new ArrayList<>(blocks.size());
+        for(long block : blocks)segments.add(new DiskSegment(block, 0, block_size));
+        byte[] raw = disk.read_vectored(segments);
+        ByteArrayOutputStream result = new ByteArrayOutputStream(blocks.size()*payload);
+        for(int i = 0;i < blocks.size();i++){
+            int used = read_used(raw, i*block_size);
+            if(used > payload)corrupt();
+            result.write(raw, (i*block_size) + header_length, used);
+        }
+        return result.toByteArray();
+    }
+
+    //Precond:
+    //  first is the first block of a chain.
+    //
+    //Postcond:
+    //  Returns every block in the chain, in order.
+    private ArrayList<Long> chain_blocks(long first){
+        ArrayList<Long> result = new ArrayList<>();
+        long block = first;
+        while(block != last_block){
+            if(block < 0 || block >= disk.get_blocks() || result.size() > disk.get_blocks())corrupt();
+            result.add(block);
+            block = read_long(disk.read_bytes(header_length, block, 0), 1);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  first is the first block of a chain.
+    //
+    //Postcond:
+    //  Frees every block in the chain.
+    private void free_chain(long first){
+        for(long block : chain_blocks(first))disk.free_block(block);
+    }
+
+    //Precond:
+    //  count is the number of blocks needed, the disk has at least count free blocks.
+    //  pin_root is true if the first block must be the root block.
+    //
+    //Postcond:
+    //  Returns count free blocks, using a single contiguous run when one is available
+    //  and otherwise filling the lowest free runs in address order.
+    private long[] allocate(int count, boolean pin_root){
+        long[] result = new long[count];
+        int filled = 0;
+        long from = 0;
+        if(pin_root){
+            result[filled++] = root_block;
+            from = root_block + 1;
+            if(count == 1)return result;
+            if(disk.free_run_length(from, count - 1) == count - 1){
+                for(int i = 1;i < count;i++)result[i] = root_block + i;
+                return result;
+            }
+        }
+        long run = disk.next_free_run(count - filled, from);
+        if(run >= 0){
+            for(int i = filled;i < count;i++)result[i] = run + (i - filled);
+            return result;
+        }
+        long block = disk.next_free_block(from);
+        while(filled < count){
+            int length = disk.free_run_length(block, count - filled);
+            for(int i = 0;i < length;i++)result[filled++] = block + i;
+            block = disk.next_free_block(block + length);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  length is a number of data bytes.
+    //
+    //Postcond:
+    //  Returns the number of blocks needed to hold that many bytes, at least one.
+    private int blocks_needed(long length){
+        return (int)Math.max(1, (length + payload - 1)/payload);
+    }
+
+    //=========================
+    //  Directories
+    //=========================
+
+    //Precond:
+    //  dir is a directory which has been added to the index.
+    //
+    //Postcond:
+    //  Reads the directory's entries from disk and adds them, recursively, to the index.
+    private void load_directory(DiskFile dir){
+        byte[] data = read_chain(dir.first_block, (dir == root) ? -1 : dir.size);
+        if(data.length % entry_length != 0)corrupt();
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        byte[] raw_name = new byte[max_name_length];
+        while(buffer.hasRemaining()){
+            buffer.get(raw_name);
+            int name_length = 0;
+            while(name_length < max_name_length && raw_name[name_length] != 0)name_length += 1;
+            String name = new String(raw_name, 0, name_length, StandardCharsets.US_ASCII);
+            DiskFileType type = DiskFileType.from_code(buffer.get());
+            long first = buffer.getLong();
+            long size = buffer.getLong();
+            if(type == null || name.isEmpty())corrupt();
+            String path = (dir == root) ? separator + name : dir.path + separator + name;
+            DiskFile child = new DiskFile(path, name, type, dir, first, size);
+            dir.children.put(name, child);
+            index.put(path, child);
+            if(child.is_directory())load_directory(child);
+        }
+    }
+
+    //Precond:
+    //  dir is a directory in the index.
+    //
+    //Postcond:
+    //  Writes the directory's entries to disk, then updates its entry in the parent directory.
+    //  Returns false if the disk is full.
+    private boolean write_directory(DiskFile dir){
+        ByteBuffer buffer = ByteBuffer.allocate(dir.children.size()*entry_length);
+        for(DiskFile child : dir.children.values()){
+            byte[] name = child.name.getBytes(StandardCharsets.US_ASCII);
+            buffer.put(name);
+            buffer.position(buffer.position() + (max_name_length - name.length));
+            buffer.put(child.type.val);
+            buffer.putLong(child.first_block);
+            buffer.putLong(child.size);
+        }
+        if(!write_chain(dir, buffer.array()))return false;
+        if(dir == root)return true;
+        return write_directory(dir.parent);
+    }
+
+    //=========================
+    //  Paths
+    //=========================
+
+    //Precond:
+    //  path is a path, with or without a leading separator.
+    //
+    //Postcond:
+    //  Returns the path with a single leading separator and no trailing or repeated separators.
+    //  Returns null if the path is null.
+    private String normalize(String path){
+        if(path == null)return null;
+        StringBuilder result = new StringBuilder();
+        for(String part : path.split(separator)){
+            if(part.isEmpty())continue;
+            result.append(separator);
+            result.append(part);
+        }
+        if(result.isEmpty())return separator;
+        return result.toString();
+    }
+
+    //Precond:
+    //  path is a normalized path.
+    //
+    //Postcond:
+    //  Returns the path of the directory containing path.
+    private String parent_path(String path){
+        int split = path.lastIndexOf(separator);
+        if(split <= 0)return separator;
+        return path.substring(0, split);
+    }
+
+    //Precond:
+    //  path is a normalized path.
+    //
+    //Postcond:
+    //  Returns the last component of the path.
+    private String base_name(String path){
+        return path.substring(path.lastIndexOf(separator) + 1);
+    }
+
+    //=========================
+    //  Block Headers
+    //=========================
+
+    //Precond:
+    //  buffer holds a block starting at base.
+    //
+    //Postcond:
+    //  Writes a file block header into the buffer.
+    private void write_header(byte[] buffer, int base, DiskFileType type, long next, int used){
+        buffer[base] = type.val;
+        for(int i = Long.BYTES;i > 0;i--){
+            buffer[base + i] = (byte)(next & byte_mask);
+            next = next >> 8;
+        }
+        buffer[base + 9] = (byte)((used >> 16) & byte_mask);
+        buffer[base + 10] = (byte)((used >> 8) & byte_mask);
+        buffer[base + 11] = (byte)(used & byte_mask);
+    }
+
+    //Precond:
+    //  buffer holds a big-endian long at base.
+    //
+    //Postcond:
+    //  Returns the long.
+    private long read_long(byte[] buffer, int base){
+        long result = 0;
+        for(int i = 0;i < Long.BYTES;i++){
+            result = (result << 8) | (buffer[base + i] & byte_mask);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  buffer holds a block header at base.
+    //
+    //Postcond:
+    //  Returns the number of data bytes used in the block.
+    private int read_used(byte[] buffer, int base){
+        return ((buffer[base + 9] & byte_mask) << 16) |
+               ((buffer[base + 10] & byte_mask) << 8) |
+               (buffer[base + 11] & byte_mask);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Reports a damaged file system and exits.
+    private void corrupt(){
+        System.err.println("Problem reading file system, disk structure is corrupt.");
+        System.exit(207);
+    }
+}
@@ -0,0 +1,38 @@
+/* File: DiskFileType.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Enumeration of the file types stored in the first byte of every file block.
+ * Notes:
+ *  Codes match hard_disk_design.txt.
+ */
+
+
+package com.hardware;
+
+public enum DiskFileType {
+    DIRECTORY(0),
+    GATE(1),
+    DHD(2),
+    TEXT(3);
+
+    public final byte val;
+
+    private DiskFileType(int val){
+        this.val = (byte)val;
+    }
+
+    //Precond:
+    //  val is a file type code read from disk.
+    //
+    //Postcond:
+    //  Returns the matching file type.
+    //  Returns null if the code is unknown.
+    public static DiskFileType from_code(byte val){
+        for(DiskFileType type : values()){
+            if(type.val == val)return type;
+        }
+        return null;
+    }
+}
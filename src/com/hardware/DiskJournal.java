@@ -0,0 +1,315 @@
+/* File: DiskJournal.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A write-ahead log kept in a reserved region of a ManagedHardDisk image.
+ * Notes:
+ *  Writes are collected in memory into a group. Committing a group appends it to the log
+ *  with one sequential write and makes it durable with a single force, after which the
+ *  writes are applied to their home locations without forcing.
+ *  When the log fills (or the disk is closed) the home locations are forced and the log is
+ *  emptied, this is a checkpoint.
+ *  A group is only committed early when it would no longer fit in the log region, so every write
+ *  between two commits is atomic as long as the records, 12 bytes plus the data per write, fit in
+ *  group_limit bytes. A single write larger than that is written in place without the log.
+ *  Log layout:
+ *      Header (16 bytes):
+ *          byte 0-3) Journal magic number.
+ *          byte 4-11) Sequence number of the first group after the last checkpoint.
+ *          byte 12-15) Unused.
+ *      Groups, one after another:
+ *          byte 0-3) Group magic number.
+ *          byte 4-11) Sequence number.
+ *          byte 12-15) Length of the records in bytes.
+ *          byte 16-19) CRC32C of the records.
+ *          Records, one after another:
+ *              byte 0-7) Disk address.
+ *              byte 8-11) Length.
+ *              byte 12- ) Data.
+ *  On mount, groups are replayed in order until a group with the wrong sequence number or a
+ *  bad checksum is found, so a group that was only partly written is ignored.
+ *  Every method synchronizes on the journal, which the disk also holds while it reads a range
+ *  and overlays the pending writes on it.
+ *  The journal reaches the disk file through a Storage supplied by the disk, so its reads, writes and
+ *  forces survive an interrupted thread closing the file channel just as the disk's own I/O does.
+ */
+
+
+package com.hardware;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.zip.CRC32C;
+
+class DiskJournal {
+    //Constants
+    private static final int journal_magic = 0x4A524E4C;
+    private static final int group_magic = 0x47525550;
+    private static final int header_length = 16;
+    private static final int group_header_length = 20;
+    private static final int record_header_length = Long.BYTES + Integer.BYTES;
+    public static final long min_length = 4*ManagedHardDisk.KB;
+
+    //Positional access to the disk file
+    interface Storage{
+        //Precond:
+        //  address is a file address.
+        //  data is the data to write there.
+        //
+        //Postcond:
+        //  Writes the data at the address.
+        void write(long address, byte[] data) throws IOException;
+
+        //Precond:
+        //  address is a file address.
+        //  buffer is the buffer to fill.
+        //
+        //Postcond:
+        //  Fills the buffer from the address, bytes past the end of the file are left zero.
+        void read(long address, byte[] buffer) throws IOException;
+
+        //Precond:
+        //  None.
+        //
+        //Postcond:
+        //  Forces every write made so far to the device.
+        void force() throws IOException;
+    }
+
+    //Pending write
+    private static class Record{
+        public final long address;
+        public final byte[] data;
+
+        public Record(long address, byte[] data){
+            this.address = address;
+            this.data = data;
+        }
+    }
+
+    //Instance Variables
+    private final long start; //File address of the log region.
+    private final long length; //Length of the log region.
+    private long sequence; //Sequence number of the next group.
+    private long tail; //Offset of the next group within the log region.
+    private final ArrayList<Record> pending;
+    private long pending_bytes;
+
+    //Precond:
+    //  start is the file address of the log region.
+    //  length is the length of the log region, at least min_length.
+    //
+    //Postcond:
+    //  Creates a journal for the region with no pending writes.
+    public DiskJournal(long start, long length){
+        this.start = start;
+        this.length = length;
+        sequence = 0;
+        tail = header_length;
+        pending = new ArrayList<>();
+        pending_bytes = 0;
+    }
+
+    //Precond:
+    //  storage is the open disk file.
+    //  address is the file address the data belongs at.
+    //  data is the data to write.
+    //
+    //Postcond:
+    //  Adds the write to the current group.
+    //  Commits the group first if adding the write would make it too large for the log region,
+    //  only then is one group split across two commits.
+    public synchronized void log(Storage storage, long address, byte[] data) throws IOException {
+        long size = record_header_length + data.length;
+        if(!pending.isEmpty() && pending_bytes + size > group_limit())commit(storage);
+        pending.add(new Record(address, data));
+        pending_bytes += size;
+    }
+
+    //Precond:
+    //  address is the file address that buffer was read from.
+    //  buffer holds data read from the disk file.
+    //
+    //Postcond:
+    //  Copies any uncommitted writes overlapping the buffer into it, in the order they were made.
+    public synchronized void overlay(long address, byte[] buffer){
+        long end = address + buffer.length;
+        for(Record rec : pending){
+            long rec_end = rec.address + rec.data.length;
+            if(rec_end <= address || rec.address >= end)continue;
+            long from = Math.max(address, rec.address);
+            long to = Math.min(end, rec_end);
+            System.arraycopy(rec.data, (int)(from - rec.address), buffer, (int)(from - address), (int)(to - from));
+        }
+    }
+
+    //Precond:
+    //  storage is the open disk file.
+    //
+    //Postcond:
+    //  Makes the current group durable with one log write and one force, then applies it.
+    //  A group too large for the log is written in place and forced instead.
+    public synchronized void commit(Storage storage) throws IOException {
+        if(pending.isEmpty())return;
+        long group_length = group_header_length + pending_bytes;
+        if(tail + group_length > length)checkpoint(storage);
+        if(tail + group_length > length){
+            apply(storage);
+            storage.force();
+            pending.clear();
+            pending_bytes = 0;
+            return;
+        }
+        ByteBuffer group = ByteBuffer.allocate((int)group_length);
+        group.position(group_header_length);
+        for(Record rec : pending){
+            group.putLong(rec.address);
+            group.putInt(rec.data.length);
+            group.put(rec.data);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(group.array(), group_header_length, (int)pending_bytes);
+        group.putInt(0, group_magic);
+        group.putLong(4, sequence);
+        group.putInt(12, (int)pending_bytes);
+        group.putInt(16, (int)crc.getValue());
+        storage.write(start + tail, group.array());
+        storage.force();
+        apply(storage);
+        tail += group_length;
+        sequence += 1;
+        pending.clear();
+        pending_bytes = 0;
+    }
+
+    //Precond:
+    //  storage is the open disk file.
+    //
+    //Postcond:
+    //  Forces all applied groups to their home locations and empties the log.
+    public synchronized void checkpoint(Storage storage) throws IOException {
+        storage.force();
+        write_header(storage);
+        storage.force();
+        tail = header_length;
+    }
+
+    //Precond:
+    //  storage is the open disk file.
+    //
+    //Postcond:
+    //  Discards pending writes and writes an empty log.
+    //  The sequence number is carried past every group left in the region, so none is replayed.
+    public synchronized void reset(Storage storage) throws IOException {
+        pending.clear();
+        pending_bytes = 0;
+        ByteBuffer old = ByteBuffer.allocate(header_length);
+        storage.read(start, old.array());
+        //At most max_groups groups follow the sequence number in an old header.
+        if(old.getInt() == journal_magic)sequence = Math.max(sequence, old.getLong() + max_groups());
+        write_header(storage);
+        tail = header_length;
+    }
+
+    //Precond:
+    //  storage is the open disk file.
+    //
+    //Postcond:
+    //  Applies every complete group logged since the last checkpoint, then checkpoints.
+    //  Returns the number of groups replayed.
+    public synchronized int replay(Storage storage) throws IOException {
+        ByteBuffer log_header = ByteBuffer.allocate(header_length);
+        storage.read(start, log_header.array());
+        if(log_header.getInt() != journal_magic){
+            reset(storage);
+            return 0;
+        }
+        sequence = log_header.getLong();
+        long offset = header_length;
+        int replayed = 0;
+        byte[] group_header = new byte[group_header_length];
+        while(offset + group_header_length <= length){
+            storage.read(start + offset, group_header);
+            ByteBuffer header = ByteBuffer.wrap(group_header);
+            if(header.getInt() != group_magic || header.getLong() != sequence)break;
+            int body_length = header.getInt();
+            int checksum = header.getInt();
+            if(body_length < 0 || offset + group_header_length + body_length > length)break;
+            byte[] body = new byte[body_length];
+            storage.read(start + offset + group_header_length, body);
+            CRC32C crc = new CRC32C();
+            crc.update(body);
+            if((int)crc.getValue() != checksum)break;
+            ByteBuffer records = ByteBuffer.wrap(body);
+            while(records.hasRemaining()){
+                long address = records.getLong();
+                byte[] data = new byte[records.getInt()];
+                records.get(data);
+                pending.add(new Record(address, data));
+            }
+            apply(storage);
+            pending.clear();
+            offset += group_header_length + body_length;
+            sequence += 1;
+            replayed += 1;
+        }
+        checkpoint(storage);
+        return replayed;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns true if there are writes which have not been committed.
+    public synchronized boolean has_pending(){
+        return !pending.isEmpty();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the largest number of record bytes allowed in one group, the whole log region.
+    public long group_limit(){
+        return length - header_length - group_header_length;
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the largest number of groups the log region can hold.
+    private long max_groups(){
+        return (length - header_length)/group_header_length;
+    }
+
+    //Precond:
+    //  storage is the open disk file.
+    //
+    //Postcond:
+    //  Writes the pending records to their home locations.
+    private void apply(Storage storage) throws IOException {
+        for(Record rec : pending){
+            storage.write(rec.address, rec.data);
+        }
+    }
+
+    //Precond:
+    //  storage is the open disk file.
+    //
+    //Postcond:
+    //  Writes the log header, starting the log at the current sequence number.
+    private void write_header(Storage storage) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(header_length);
+        header.putInt(journal_magic);
+        header.putLong(sequence);
+        storage.write(start, header.array());
+    }
+}
@@ -0,0 +1,191 @@
+/* File: DiskMetrics.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Counters and latency histograms kept by a disk for every operation it carries out.
+ * Notes:
+ *  Every counter is updated without locking, so the host may read the metrics of a disk, or
+ *  reset them, while the disk is in use.
+ *  A seek is counted whenever an access does not start where the previous one ended.
+ *  Allocation scans record how many blocks a free block search passed over.
+ */
+
+
+package com.hardware;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+public class DiskMetrics {
+    public enum Operation {
+        READ,
+        WRITE,
+        FORMAT,
+        FREE
+    }
+
+    //Instance Variables
+    private final LongAdder[] operations;
+    private final LongAdder[] bytes;
+    private final LatencyHistogram[] latencies;
+    private final LongAdder seeks;
+    private final AtomicLong next_address; //Address just past the previous access.
+    private final LatencyHistogram scan_lengths;
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Creates an empty set of metrics.
+    public DiskMetrics(){
+        int kinds = Operation.values().length;
+        operations = new LongAdder[kinds];
+        bytes = new LongAdder[kinds];
+        latencies = new LatencyHistogram[kinds];
+        for(int i = 0;i < kinds;i++){
+            operations[i] = new LongAdder();
+            bytes[i] = new LongAdder();
+            latencies[i] = new LatencyHistogram();
+        }
+        seeks = new LongAdder();
+        next_address = new AtomicLong(0);
+        scan_lengths = new LatencyHistogram();
+    }
+
+    //=====================
+    //  Recording Methods
+    //=====================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the start time to pass to record.
+    public long start(){
+        return System.nanoTime();
+    }
+
+    //Precond:
+    //  operation is the operation carried out.
+    //  start is the value returned by start when the operation began.
+    //  length is the number of bytes the operation moved.
+    //
+    //Postcond:
+    //  Counts the operation and records its latency.
+    public void record(Operation operation, long start, long length){
+        int kind = operation.ordinal();
+        latencies[kind].record(System.nanoTime() - start);
+        operations[kind].increment();
+        bytes[kind].add(length);
+    }
+
+    //Precond:
+    //  address is where an access to the backing file starts.
+    //  length is the number of bytes accessed.
+    //
+    //Postcond:
+    //  Counts a seek if the access does not follow on from the previous one.
+    public void record_access(long address, long length){
+        if(next_address.getAndSet(address + length) != address)seeks.increment();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Counts a seek.
+    public void record_seek(){
+        seeks.increment();
+    }
+
+    //Precond:
+    //  blocks is the number of blocks a free block search passed over.
+    //
+    //Postcond:
+    //  Records the length of the search.
+    public void record_scan(long blocks){
+        scan_lengths.record(blocks);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Clears every counter and histogram.
+    public void reset(){
+        for(int i = 0;i < latencies.length;i++){
+            operations[i].reset();
+            bytes[i].reset();
+            latencies[i].reset();
+        }
+        seeks.reset();
+        scan_lengths.reset();
+    }
+
+    //===========
+    //  Getters
+    //===========
+
+    //Precond:
+    //  operation is an operation kind.
+    //
+    //Postcond:
+    //  Returns the number of operations of that kind carried out.
+    public long get_operations(Operation operation){
+        return operations[operation.ordinal()].sum();
+    }
+
+    //Precond:
+    //  operation is an operation kind.
+    //
+    //Postcond:
+    //  Returns the number of bytes moved by operations of that kind.
+    public long get_bytes(Operation operation){
+        return bytes[operation.ordinal()].sum();
+    }
+
+    //Precond:
+    //  operation is an operation kind.
+    //
+    //Postcond:
+    //  Returns the histogram of latencies, in nanoseconds, of operations of that kind.
+    public LatencyHistogram get_latency(Operation operation){
+        return latencies[operation.ordinal()];
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of seeks counted.
+    public long get_seeks(){
+        return seeks.sum();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the histogram of blocks passed over by free block searches.
+    public LatencyHistogram get_scan_lengths(){
+        return scan_lengths;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns a report of every metric, one line per operation kind.
+    @Override
+    public String toString(){
+        StringBuilder report = new StringBuilder();
+        for(Operation operation : Operation.values()){
+            report.append(String.format("%-6s ops=%d bytes=%d latency(ns): %s\n", operation,
+                    get_operations(operation), get_bytes(operation), get_latency(operation)));
+        }
+        report.append(String.format("seeks=%d\n", get_seeks()));
+        report.append(String.format("scans(blocks): %s\n", scan_lengths));
+        return report.toString();
+    }
+}
@@ -0,0 +1,92 @@
+/* File: DiskRequest.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A single read or write request submitted to an AsyncHardDisk.
+ * Notes:
+ *  The request doubles as its own completion queue entry.
+ */
+
+
+package com.hardware;
+
+import java.util.concurrent.CompletableFuture;
+
+public class DiskRequest {
+    //Request types
+    public enum TYPE{
+        READ,
+        WRITE
+    }
+
+    //Instance Variables
+    public final long id;
+    public final TYPE type;
+    public final long block;
+    public final long offset;
+    public final int length;
+    final byte[] data; //Data to write, null for reads.
+    final CompletableFuture<byte[]> future;
+
+    DiskRequest(long id, TYPE type, long block, long offset, int length, byte[] data){
+        this.id = id;
+        this.type = type;
+        this.block = block;
+        this.offset = offset;
+        this.length = length;
+        this.data = data;
+        future = new CompletableFuture<>();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the future completed with the bytes read, or the bytes written for writes.
+    //  The future is completed exceptionally if the request failed.
+    public CompletableFuture<byte[]> get_future(){
+        return future;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns true once the request has been carried out or has failed.
+    public boolean is_done(){
+        return future.isDone();
+    }
+
+    //Precond:
+    //  The request is done.
+    //
+    //Postcond:
+    //  Returns the bytes read, or the bytes written for writes.
+    //  Throws a CompletionException if the request failed.
+    public byte[] get_result(){
+        return future.getNow(null);
+    }
+
+    //Precond:
+    //  block_size is the block size of the disk.
+    //
+    //Postcond:
+    //  Returns the first logical byte address covered by the request.
+    long start(int block_size){
+        return (block*block_size) + offset;
+    }
+
+    //Precond:
+    //  block_size is the block size of the disk.
+    //  other is another request.
+    //
+    //Postcond:
+    //  Returns true if the requests touch the same bytes and at least one of them is a write.
+    boolean conflicts(DiskRequest other, int block_size){
+        if(type == TYPE.READ && other.type == TYPE.READ)return false;
+        long a = start(block_size);
+        long b = other.start(block_size);
+        return a < b + other.length && b < a + length;
+    }
+}
@@ -0,0 +1,165 @@
+/* File: DiskScrubber.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Background thread which checks every block of a checksummed ManagedHardDisk.
+ * Notes:
+ *  The scrubber walks the disk from the first to the last block over and over,
+ *  pausing between blocks so it never checks more than the configured number of blocks per second.
+ *  Corrupt blocks are printed to standard error as soon as they are found and kept in a list.
+ *  Nothing is checked while the disk is closed, the scrubber waits for it to be opened again and
+ *  a pass cut short by a close is not counted.
+ */
+
+
+package com.hardware;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+public class DiskScrubber {
+    //Constants
+    private static final long closed_pause = 100_000_000L; //Nanoseconds between checks for a closed disk reopening.
+
+    //Instance Variables
+    private final ManagedHardDisk disk;
+    private final long blocks_per_second;
+    private final List<Long> corrupt_blocks;
+    private Thread worker;
+    private volatile boolean running;
+    private volatile long passes;
+
+    //Precond:
+    //  disk is a ManagedHardDisk, usually one with checksums.
+    //  blocks_per_second is the highest rate to check blocks at, 0 for no limit.
+    //
+    //Postcond:
+    //  Creates a scrubber which has not been started.
+    public DiskScrubber(ManagedHardDisk disk, long blocks_per_second){
+        this.disk = disk;
+        this.blocks_per_second = blocks_per_second;
+        corrupt_blocks = Collections.synchronizedList(new ArrayList<>());
+        worker = null;
+        running = false;
+        passes = 0;
+    }
+
+    //Getters
+    public long get_passes(){
+        return passes;
+    }
+
+    public boolean is_running(){
+        return running;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns every distinct corrupt block found so far.
+    public ArrayList<Long> get_corrupt_blocks(){
+        synchronized (corrupt_blocks){
+            return new ArrayList<>(corrupt_blocks);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Starts scrubbing on a background thread, if it is not already running.
+    public void start(){
+        if(running)return;
+        running = true;
+        worker = new Thread(this::work, "SAC-disk-scrubber");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Stops the background thread and waits for it to finish the current block.
+    public void stop(){
+        running = false;
+        if(worker == null)return;
+        LockSupport.unpark(worker);
+        try {
+            worker.join();
+        } catch (InterruptedException exp){
+            Thread.currentThread().interrupt();
+        }
+        worker = null;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Checks every block once on the calling thread, without rate limiting.
+    //  Returns the corrupt blocks found in this pass, none if the disk is closed.
+    public ArrayList<Long> run_pass(){
+        ArrayList<Long> found = new ArrayList<>();
+        if(!disk.is_open())return found;
+        for(long block = 0;block < disk.get_blocks();block++){
+            if(disk.verify_block(block))continue;
+            found.add(block);
+            record(block, false);
+        }
+        passes += 1;
+        return found;
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Background loop, checks blocks at the configured rate until stopped.
+    private void work(){
+        long pause = (blocks_per_second > 0) ? 1_000_000_000L/blocks_per_second : 0;
+        while(running){
+            if(!disk.is_open()){
+                DiskThrottle.pause_for(this, closed_pause, () -> running);
+                continue;
+            }
+            long next_check = System.nanoTime();
+            boolean complete = true;
+            for(long block = 0;block < disk.get_blocks() && running;block++){
+                if(!disk.is_open()){
+                    complete = false;
+                    break;
+                }
+                if(!disk.verify_block(block))record(block, true);
+                next_check += pause;
+                long wait = next_check - System.nanoTime();
+                if(wait > 0){
+                    DiskThrottle.pause_for(this, wait, () -> running);
+                }
+            }
+            if(running && complete)passes += 1;
+        }
+    }
+
+    //Precond:
+    //  block is a corrupt block.
+    //  report is true if a newly corrupt block should be printed.
+    //
+    //Postcond:
+    //  Adds the block to the corrupt block list if it is not already known.
+    private void record(long block, boolean report){
+        synchronized (corrupt_blocks){
+            if(corrupt_blocks.contains(block))return;
+            corrupt_blocks.add(block);
+        }
+        if(report)System.err.printf("Scrubber found corrupt hard disk block %d.\n", block);
+    }
+}
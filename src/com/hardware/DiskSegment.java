@@ -0,0 +1,43 @@
+/* File: DiskSegment.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  One range of a scatter/gather read or write, see BlockDevice.read_vectored and write_vectored.
+ * Notes:
+ *  The range is addressed the same way as read_bytes and write_bytes, by block and offset.
+ */
+
+
+package com.hardware;
+
+public class DiskSegment {
+    //Instance Variables
+    public final long block;
+    public final long offset;
+    public final int length;
+
+    //Precond:
+    //  block is the block the range starts in.
+    //  offset is the position within the block, at least 0.
+    //  length is the number of bytes in the range.
+    //
+    //Postcond:
+    //  Creates a segment covering the range.
+    public DiskSegment(long block, long offset, int length){
+        this.block = block;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    //Precond:
+    //  segments is a list of segments.
+    //
+    //Postcond:
+    //  Returns the number of bytes covered by every segment together.
+    public static int total_length(Iterable<DiskSegment> segments){
+        int total = 0;
+        for(DiskSegment segment : segments)total += segment.length;
+        return total;
+    }
+}
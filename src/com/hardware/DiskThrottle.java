@@ -0,0 +1,36 @@
+/* File: DiskThrottle.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Rate limiting pause shared by the background disk tasks, DiskScrubber and DiskDefragmenter.
+ * Notes:
+ *  A background task is never interrupted, an interrupt would close the disk's file channel mid I/O.
+ *  Instead it parks, and the task's stop method clears its running flag and unparks the thread.
+ */
+
+
+package com.hardware;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+final class DiskThrottle {
+    private DiskThrottle(){
+    }
+
+    //Precond:
+    //  blocker is the task the thread is pausing for.
+    //  wait is the time to pause in nanoseconds.
+    //  running reports whether the task is still running.
+    //
+    //Postcond:
+    //  Parks the calling thread until the time passes or running reports false after an unpark.
+    static void pause_for(Object blocker, long wait, BooleanSupplier running){
+        long deadline = System.nanoTime() + wait;
+        while(running.getAsBoolean() && wait > 0){
+            LockSupport.parkNanos(blocker, wait);
+            wait = deadline - System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+/* File: FragmentationReport.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  Fragmentation of the files and free space of a DiskFileSystem at one point in time.
+ * Notes:
+ *  An extent is a run of consecutive blocks. A file stored in one extent is contiguous.
+ */
+
+
+package com.hardware;
+
+public class FragmentationReport {
+    //Instance Variables
+    private final long files;
+    private final long fragmented_files;
+    private final long extents;
+    private final long used_blocks;
+    private final long free_blocks;
+    private final long free_extents;
+    private final long largest_free_run;
+    private final long trailing_free_blocks;
+
+    FragmentationReport(long files, long fragmented_files, long extents, long used_blocks, long free_blocks,
+                        long free_extents, long largest_free_run, long trailing_free_blocks){
+        this.files = files;
+        this.fragmented_files = fragmented_files;
+        this.extents = extents;
+        this.used_blocks = used_blocks;
+        this.free_blocks = free_blocks;
+        this.free_extents = free_extents;
+        this.largest_free_run = largest_free_run;
+        this.trailing_free_blocks = trailing_free_blocks;
+    }
+
+    //Getters
+    public long get_files(){
+        return files;
+    }
+
+    public long get_fragmented_files(){
+        return fragmented_files;
+    }
+
+    public long get_extents(){
+        return extents;
+    }
+
+    public long get_used_blocks(){
+        return used_blocks;
+    }
+
+    public long get_free_blocks(){
+        return free_blocks;
+    }
+
+    public long get_free_extents(){
+        return free_extents;
+    }
+
+    public long get_largest_free_run(){
+        return largest_free_run;
+    }
+
+    public long get_trailing_free_blocks(){
+        return trailing_free_blocks;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the average number of extents per file, 1 when every file is contiguous.
+    public double get_extents_per_file(){
+        if(files == 0)return 1;
+        return (double)extents/files;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the fraction of free blocks outside the largest free run, 0 when free space is one run.
+    public double get_free_space_fragmentation(){
+        if(free_blocks == 0)return 0;
+        return 1.0 - ((double)largest_free_run/free_blocks);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%d files, %d fragmented, %.2f extents per file, %d free blocks in %d runs (largest %d, %d at the end)",
+                files, fragmented_files, get_extents_per_file(), free_blocks, free_extents, largest_free_run, trailing_free_blocks);
+    }
+}
@@ -7,8 +7,8 @@
  * Notes:
  *  All data is stored on disk in a series of random access files.
  *  Multiple hard drives can be made.
- *  Default size is 20MB.
- *  Minimum size is 10MB.
+ *  Default size is 10MB, a larger size may be given when the disk is first requested.
+ *  Minimum size is 10MB. Existing files larger than the requested size are never truncated.
  *  First three bytes of an already set up HardDisk file are:
  *      0) 0x2A
  *      1) 0x1B
@@ -19,11 +19,19 @@
  *  Files are comprised of blocks, each block is 1KB in size.
  *  File may be up to 3 blocks in size.
  *  Block addresses are 4 bytes in length.
+ *  Reads and writes go through a single buffered window of the file. The window is filled
+ *  with one read when a read falls outside it, and written back with one write when an access
+ *  falls outside it, or on flush, getSize or close. seek only moves the logical file pointer.
+ *  Metrics count every read and write call, seeks count window fills and write backs that do
+ *  not follow on from the previous file access.
  */
 
 
 package com.hardware;
 
+import com.hardware.DiskMetrics.Operation;
+
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
@@ -33,7 +41,9 @@ public class HardDisk {
     //Basic Disk Constants
     public static final long KB = 1024;
     public static final long MB = 1024*KB;
-    private static final long DISK_SIZE = 10*MB;
+    public static final long DEFAULT_DISK_SIZE = 10*MB;
+    public static final long MIN_DISK_SIZE = 10*MB;
+    private static final int BUFFER_SIZE = (int)(64*KB);
 
     //Singleton variables
     private static HardDisk instance = null;
@@ -41,25 +51,39 @@ public class HardDisk {
     //Instance variables
     private final String filename;
     private final File handle;
+    private final long size; //Size the file is extended to when opened.
     private RandomAccessFile fio;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private long buffer_start; //File position of buffer[0].
+    private int buffer_length; //Number of valid bytes in buffer.
+    private int dirty_start; //Range of buffer that must be written back, empty if dirty_start >= dirty_end.
+    private int dirty_end;
+    private long position; //Logical file pointer.
+    private final DiskMetrics metrics = new DiskMetrics();
 
     //==============================
     //  Singleton Methods
     //==============================
     public static HardDisk getInstance(String diskname){
+        if(instance != null && instance.filename.equals(diskname))return instance;
+        return getInstance(diskname, DEFAULT_DISK_SIZE);
+    }
+
+    public static HardDisk getInstance(String diskname, long size){
+        size = Math.max(size, MIN_DISK_SIZE);
         if(instance == null){
-            instance = new HardDisk(diskname);
+            instance = new HardDisk(diskname, size);
         }
-        else if(!instance.filename.equals(diskname)){
+        else if(!instance.filename.equals(diskname) || instance.size != size){
             instance.close();
-            instance = new HardDisk(diskname);
+            instance = new HardDisk(diskname, size);
         }
         return instance;
     }
 
     public static HardDisk getInstance(){
         if(instance == null){
-            instance = new HardDisk("SAC-HD");
+            instance = new HardDisk("SAC-HD", DEFAULT_DISK_SIZE);
         }
         return instance;
     }
@@ -70,12 +94,14 @@ public class HardDisk {
     //==============================
 
     //Constructor
-    private HardDisk(String filename){
+    private HardDisk(String filename, long size){
         this.filename = filename;
+        this.size = size;
         handle = new File(filename);
         try {
             fio = new RandomAccessFile(handle, "rw");
-            fio.setLength(DISK_SIZE);
+            if(fio.length() < size)fio.setLength(size);
+            reset_window(0);
         } catch(IOException exp){
             System.out.println("Problem accessing hard disk file.");
             exp.printStackTrace();
@@ -96,21 +122,19 @@ public class HardDisk {
         return fio != null;
     }
 
+    public DiskMetrics getMetrics(){
+        return metrics;
+    }
+
     public long getFilePointer(){
         if(fio == null)return -1;
-        try {
-            return fio.getFilePointer();
-        } catch(IOException exp){
-            System.out.println("Problem retrieving hard disk information.");
-            exp.printStackTrace();
-            System.exit(Interupts.HARDDISK_RETRIEVAL_ERROR.ordinal());
-        }
-        return -1;
+        return position;
     }
 
     public long getSize(){
         if(fio == null)return 0;
         try{
+            flush();
             return fio.length();
         } catch(IOException exp){
             System.out.println("Problem retrieving hard disk information.");
@@ -125,12 +149,14 @@ public class HardDisk {
     //  None.
     //
     //Postcond:
-    //  Opens the hard disk file contained by handle.
+    //  Opens the hard disk file contained by handle with the file pointer at its start.
     public void open(){
         if(fio != null)return;
         try {
             fio = new RandomAccessFile(handle, "rw");
-            fio.setLength(DISK_SIZE);
+            if(fio.length() < size)fio.setLength(size);
+            position = 0;
+            reset_window(0);
         } catch(IOException exp){
             System.out.println("Problem accessing hard disk file.");
             exp.printStackTrace();
@@ -145,13 +171,11 @@ public class HardDisk {
     //  Seeks the random access file to the given position.
     public boolean seek(long position){
         if(fio == null)return false;
-        try {
-            fio.seek(position);
-        } catch(IOException exp){
+        if(position < 0){
             System.out.println("Problem seeking hard disk.");
-            exp.printStackTrace();
             System.exit(Interupts.HARDDISK_SEEK_ERROR.ordinal());
         }
+        this.position = position;
         return true;
     }
 
@@ -165,7 +189,7 @@ public class HardDisk {
         if(fio == null)return null;
         byte[] result = new byte[length];
         try {
-            fio.read(result);
+            read_into(result, false);
         } catch(IOException exp){
             System.out.println("Problem reading from hard disk.");
             exp.printStackTrace();
@@ -184,7 +208,9 @@ public class HardDisk {
         if(fio == null)return null;
         Integer result = null;
         try {
-            result = fio.readInt();
+            byte[] bytes = new byte[Integer.BYTES];
+            read_into(bytes, true);
+            result = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16) | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
         } catch(IOException exp){
             System.out.println("Problem reading from hard disk.");
             exp.printStackTrace();
@@ -203,7 +229,9 @@ public class HardDisk {
         if(fio == null)return null;
         Byte result = null;
         try {
-            result = fio.readByte();
+            byte[] bytes = new byte[1];
+            read_into(bytes, true);
+            result = bytes[0];
         } catch(IOException exp){
             System.out.println("Problem reading from hard disk.");
             exp.printStackTrace();
@@ -222,9 +250,11 @@ public class HardDisk {
         if(fio == null)return null;
         StringBuilder result = new StringBuilder();
         try {
+            byte[] bytes = new byte[Character.BYTES];
             char temp;
             do{
-                temp = fio.readChar();
+                read_into(bytes, true);
+                temp = (char)(((bytes[0] & 0xFF) << 8) | (bytes[1] & 0xFF));
                 if(temp != 0)result.append(temp);
             }while(temp != 0);
         } catch(IOException exp){
@@ -244,7 +274,7 @@ public class HardDisk {
     public boolean write(byte[] data){
         if(fio == null)return false;
         try {
-            fio.write(data);
+            write_from(data);
         } catch(IOException exp){
             System.out.println("Problem writing to hard disk.");
             exp.printStackTrace();
@@ -262,7 +292,7 @@ public class HardDisk {
     public boolean write(byte data){
         if(fio == null)return false;
         try {
-            fio.writeByte(data);
+            write_from(new byte[]{data});
         } catch(IOException exp){
             System.out.println("Problem writing to hard disk.");
             exp.printStackTrace();
@@ -280,7 +310,7 @@ public class HardDisk {
     public boolean write(int data){
         if(fio == null)return false;
         try {
-            fio.writeInt(data);
+            write_from(new byte[]{(byte)(data >>> 24), (byte)(data >>> 16), (byte)(data >>> 8), (byte)data});
         } catch(IOException exp){
             System.out.println("Problem writing to hard disk.");
             exp.printStackTrace();
@@ -298,7 +328,12 @@ public class HardDisk {
     public boolean write(long data){
         if(fio == null)return false;
         try {
-            fio.writeLong(data);
+            byte[] bytes = new byte[Long.BYTES];
+            for(int i = Long.BYTES - 1;i >= 0;i--){
+                bytes[i] = (byte)data;
+                data >>>= 8;
+            }
+            write_from(bytes);
         } catch(IOException exp){
             System.out.println("Problem writing to hard disk.");
             exp.printStackTrace();
@@ -315,6 +350,7 @@ public class HardDisk {
     public void close(){
         if(fio == null)return;
         try {
+            flush();
             fio.close();
         } catch(IOException exp){
             System.out.println("Problem closing hard dist file.");
@@ -323,4 +359,133 @@ public class HardDisk {
         }
         fio = null;
     }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Writes any buffered writes to the hard disk file.
+    //  Returns false if the file is closed.
+    public boolean flush(){
+        if(fio == null)return false;
+        try {
+            write_back();
+        } catch(IOException exp){
+            System.out.println("Problem writing to hard disk.");
+            exp.printStackTrace();
+            System.exit(Interupts.HARDDISK_WRITE_ERROR.ordinal());
+        }
+        return true;
+    }
+
+    //=============================
+    //  Private Methods
+    //=============================
+
+    //Precond:
+    //  start is a file position.
+    //
+    //Postcond:
+    //  Empties the window and places it at start, without reading or writing.
+    private void reset_window(long start){
+        buffer_start = start;
+        buffer_length = 0;
+        dirty_start = BUFFER_SIZE;
+        dirty_end = 0;
+    }
+
+    //Precond:
+    //  The file is open.
+    //
+    //Postcond:
+    //  Writes the dirty range of the window to the file with one write.
+    private void write_back() throws IOException {
+        if(dirty_start >= dirty_end)return;
+        metrics.record_access(buffer_start + dirty_start, dirty_end - dirty_start);
+        fio.seek(buffer_start + dirty_start);
+        fio.write(buffer, dirty_start, dirty_end - dirty_start);
+        dirty_start = BUFFER_SIZE;
+        dirty_end = 0;
+    }
+
+    //Precond:
+    //  The file is open.
+    //
+    //Postcond:
+    //  Writes back the window and refills it from the file position with one read.
+    private void fill_window() throws IOException {
+        write_back();
+        reset_window(position);
+        metrics.record_access(position, BUFFER_SIZE);
+        fio.seek(position);
+        int read = fio.read(buffer, 0, BUFFER_SIZE);
+        buffer_length = Math.max(read, 0);
+    }
+
+    //Precond:
+    //  dest is the array to fill from the file pointer.
+    //  exact is true if reaching the end of the file is an error.
+    //
+    //Postcond:
+    //  Copies bytes from the window into dest, refilling the window as needed, and advances the
+    //  file pointer. Bytes past the end of the file are left zero unless exact is set.
+    private void read_into(byte[] dest, boolean exact) throws IOException {
+        long started = metrics.start();
+        try{
+            int done = 0;
+            while(done < dest.length){
+                long window_end = buffer_start + buffer_length;
+                if(position < buffer_start || position >= window_end){
+                    fill_window();
+                    if(buffer_length == 0){
+                        if(exact)throw new EOFException();
+                        return;
+                    }
+                    continue;
+                }
+                int from = (int)(position - buffer_start);
+                int amount = Math.min(dest.length - done, buffer_length - from);
+                System.arraycopy(buffer, from, dest, done, amount);
+                done += amount;
+                position += amount;
+            }
+        } finally {
+            metrics.record(Operation.READ, started, dest.length);
+        }
+    }
+
+    //Precond:
+    //  src is the data to write at the file pointer.
+    //
+    //Postcond:
+    //  Copies the data into the window, writing back and moving the window as needed, and
+    //  advances the file pointer. Data larger than the window is written directly.
+    private void write_from(byte[] src) throws IOException {
+        long started = metrics.start();
+        try{
+            if(src.length > BUFFER_SIZE){
+                write_back();
+                reset_window(position + src.length);
+                metrics.record_access(position, src.length);
+                fio.seek(position);
+                fio.write(src);
+                position += src.length;
+                return;
+            }
+            //The window must hold every byte between its start and the end of the write.
+            if(position < buffer_start || position > buffer_start + buffer_length
+                    || position + src.length > buffer_start + BUFFER_SIZE){
+                write_back();
+                reset_window(position);
+            }
+            int from = (int)(position - buffer_start);
+            System.arraycopy(src, 0, buffer, from, src.length);
+            buffer_length = Math.max(buffer_length, from + src.length);
+            dirty_start = Math.min(dirty_start, from);
+            dirty_end = Math.max(dirty_end, from + src.length);
+            position += src.length;
+        } finally {
+            metrics.record(Operation.WRITE, started, src.length);
+        }
+    }
 }
@@ -30,10 +30,40 @@ public class HardwareTests {
         boolean RAM_status = RAM_test();
         boolean CPU_status = CPU_test();
         boolean disk_status = disk_tests();
+        boolean fs_status = file_system_tests();
+        boolean journal_status = journal_tests();
+        boolean async_status = async_disk_tests();
+        boolean dma_status = dma_tests();
+        boolean checksum_status = checksum_tests();
+        boolean compression_status = compression_tests();
+        boolean dedup_status = dedup_tests();
+        boolean overlay_status = overlay_tests();
+        boolean concurrency_status = concurrency_tests();
+        boolean buffered_status = buffered_disk_tests();
+        boolean defrag_status = defragmenter_tests();
+        boolean metrics_status = metrics_tests();
+        boolean vectored_status = vectored_io_tests();
+        boolean geometry_status = disk_geometry_tests();
+        boolean trim_status = trim_tests();
         System.setOut(temp);
         if(RAM_status)System.out.println("RAM tests passed.");
         if(CPU_status)System.out.println("CPU tests passed.");
         if(disk_status)System.out.println("Hard Disk tests passed.");
+        if(fs_status)System.out.println("File System tests passed.");
+        if(journal_status)System.out.println("Journal tests passed.");
+        if(async_status)System.out.println("Async Disk tests passed.");
+        if(dma_status)System.out.println("DMA tests passed.");
+        if(checksum_status)System.out.println("Checksum tests passed.");
+        if(compression_status)System.out.println("Compression tests passed.");
+        if(dedup_status)System.out.println("Dedup tests passed.");
+        if(overlay_status)System.out.println("Overlay tests passed.");
+        if(concurrency_status)System.out.println("Concurrency tests passed.");
+        if(buffered_status)System.out.println("Buffered Disk tests passed.");
+        if(defrag_status)System.out.println("Defragmenter tests passed.");
+        if(metrics_status)System.out.println("Metrics tests passed.");
+        if(vectored_status)System.out.println("Vectored I/O tests passed.");
+        if(geometry_status)System.out.println("Disk Geometry tests passed.");
+        if(trim_status)System.out.println("Trim tests passed.");
     }
 
     public static boolean RAM_test(){
@@ -427,6 +457,46 @@ public class HardwareTests {
             System.err.printf("Got: %d\n", cpu.getRegisters()[0]);
             passed = false;
         }
+
+        //Relative Jump Commands
+        //JUMP_SHORT
+        cpu.setRegister(CPU.pc, 100);
+        cpu.execute_relative_jump((byte)0x23, -50);
+        if(!cpu.check_register(CPU.pc, 52)){
+            System.err.println("ERROR WITH JUMP_SHORT.");
+            System.err.printf("Expected: %d\n", 52);
+            System.err.printf("Got: %d\n", cpu.getRegisters()[CPU.pc]);
+            passed = false;
+        }
+        //JUMP_NEAR
+        cpu.setRegister(CPU.pc, 100);
+        cpu.execute_relative_jump((byte)0x24, 1000);
+        if(!cpu.check_register(CPU.pc, 1103)){
+            System.err.println("ERROR WITH JUMP_NEAR.");
+            System.err.printf("Expected: %d\n", 1103);
+            System.err.printf("Got: %d\n", cpu.getRegisters()[CPU.pc]);
+            passed = false;
+        }
+        //BRANCH_SHORT
+        cpu.setRegister((byte) 0, 0);
+        cpu.setRegister((byte) 1, 1);
+        cpu.setRegister(CPU.pc, 100);
+        cpu.execute_relative_branch((byte)0x25, (byte) 1, 10);
+        if(!cpu.check_register(CPU.pc, 113)){
+            System.err.println("ERROR WITH BRANCH_SHORT.");
+            System.err.printf("Expected: %d\n", 113);
+            System.err.printf("Got: %d\n", cpu.getRegisters()[CPU.pc]);
+            passed = false;
+        }
+        //BRANCH_NEAR
+        cpu.setRegister(CPU.pc, 100);
+        cpu.execute_relative_branch((byte)0x26, (byte) 0, 1000);
+        if(!cpu.check_register(CPU.pc, 104)){
+            System.err.println("ERROR WITH BRANCH_NEAR.");
+            System.err.printf("Expected: %d\n", 104);
+            System.err.printf("Got: %d\n", cpu.getRegisters()[CPU.pc]);
+            passed = false;
+        }
         return passed;
     }
 
@@ -470,4 +540,843 @@ public class HardwareTests {
         disk.close();
         return passed;
     }
+
+    public static boolean file_system_tests(){
+        boolean passed = true;
+        File temp = new File("SAC_fs.dsk");
+        if(temp.exists())temp.delete();
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_fs.dsk", 256*ManagedHardDisk.KB, 32*ManagedHardDisk.KB);
+        DiskFileSystem fs = DiskFileSystem.format(disk);
+        //Multi-block file in a sub-directory
+        byte[] data = new byte[5000];
+        rng.nextBytes(data);
+        fs.create("/bin", DiskFileType.DIRECTORY);
+        fs.create("/bin/prog", DiskFileType.GATE);
+        fs.create("/notes", DiskFileType.TEXT);
+        if(!fs.write("/bin/prog", data)){
+            System.err.println("File system could not write file.");
+            passed = false;
+        }
+        fs.write("/notes", "hello".getBytes());
+        if(fs.create("/bin/prog", DiskFileType.TEXT) != null){
+            System.err.println("File system allowed a duplicate file.");
+            passed = false;
+        }
+        //Remount and check everything survived
+        disk.close();
+        disk = ManagedHardDisk.mount("SAC_fs.dsk");
+        fs = DiskFileSystem.mount(disk);
+        byte[] rec = fs.read("/bin/prog");
+        if(rec == null || !java.util.Arrays.equals(rec, data)){
+            System.err.println("File system did not read back file contents.");
+            passed = false;
+        }
+        if(fs.open("/bin/prog").get_type() != DiskFileType.GATE){
+            System.err.println("File system did not keep the file type.");
+            passed = false;
+        }
+        if(!fs.list("/").contains("bin") || !fs.list("/").contains("notes")){
+            System.err.println("File system did not list the root directory.");
+            System.err.printf("Got: %s\n", fs.list("/"));
+            passed = false;
+        }
+        //Deleting
+        if(fs.delete("/bin")){
+            System.err.println("File system deleted a directory that was not empty.");
+            passed = false;
+        }
+        long free_before = disk.free_blocks();
+        fs.delete("/bin/prog");
+        if(fs.open("/bin/prog") != null || disk.free_blocks() <= free_before){
+            System.err.println("File system did not delete file.");
+            passed = false;
+        }
+        disk.close();
+        temp.delete();
+        return passed;
+    }
+
+    public static boolean journal_tests() throws IOException {
+        boolean passed = true;
+        File temp = new File("SAC_jrnl.dsk");
+        if(temp.exists())temp.delete();
+        long journal_size = 16*ManagedHardDisk.KB;
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_jrnl.dsk", 64*ManagedHardDisk.KB, journal_size);
+        disk.open();
+        byte[] vals = {9, 8, 7, 6};
+        disk.write_bytes(vals, 3, 0);
+        //Uncommitted writes are visible to reads
+        byte[] rec = disk.read_bytes(4, 3, 0);
+        if(!java.util.Arrays.equals(vals, rec)){
+            System.err.println("Journal does not show pending writes.");
+            passed = false;
+        }
+        disk.commit();
+        //Simulate a crash which lost the in place writes: wipe the blocks and drop the disk unclosed.
+        //The image ends with the last block written, block 3.
+        RandomAccessFile raw = new RandomAccessFile(temp, "rw");
+        raw.setLength(raw.length() - (3*(ManagedHardDisk.KB + 1) + 1 + vals.length));
+        raw.close();
+        ManagedHardDisk.instance = null;
+        disk = ManagedHardDisk.mount("SAC_jrnl.dsk");
+        disk.open();
+        rec = disk.read_bytes(4, 3, 0);
+        if(!java.util.Arrays.equals(vals, rec) || disk.is_free(3)){
+            System.err.println("Journal did not replay committed writes.");
+            System.err.printf("Got: %s\n", java.util.Arrays.toString(rec));
+            passed = false;
+        }
+        //Writes up to the group limit are one group, a crash before the commit loses all of them.
+        int written = 0;
+        byte[] block = new byte[(int)ManagedHardDisk.KB];
+        for(long b = 0;(written + 1)*(block.length + 13L) <= disk.journal_group_limit();b++){
+            if(b == 3)continue;
+            disk.write_bytes(block, b, 0);
+            written += 1;
+        }
+        ManagedHardDisk.instance = null;
+        disk = ManagedHardDisk.mount("SAC_jrnl.dsk");
+        if(written < 2 || disk.free_blocks() != disk.get_blocks() - 1){
+            System.err.println("Journal committed part of an uncommitted group.");
+            System.err.printf("Expected: %d\n", disk.get_blocks() - 1);
+            System.err.printf("Got: %d\n", disk.free_blocks());
+            passed = false;
+        }
+        disk.open();
+        //Formatting empties the log, groups logged before it are not replayed on the next mount.
+        disk.format();
+        disk = ManagedHardDisk.mount("SAC_jrnl.dsk");
+        if(disk.free_blocks() != disk.get_blocks()){
+            System.err.println("Journal replayed writes made before a format.");
+            System.err.printf("Expected: %d\n", disk.get_blocks());
+            System.err.printf("Got: %d\n", disk.free_blocks());
+            passed = false;
+        }
+        //Creating a journaled disk over an old image does not bring back its logged writes either.
+        disk.open();
+        disk.write_bytes(vals, 5, 0);
+        disk.commit();
+        disk.close();
+        disk = ManagedHardDisk.create("SAC_jrnl.dsk", 64*ManagedHardDisk.KB, journal_size);
+        disk = ManagedHardDisk.mount("SAC_jrnl.dsk");
+        if(disk.free_blocks() != disk.get_blocks()){
+            System.err.println("Journal replayed writes from an image created over.");
+            System.err.printf("Expected: %d\n", disk.get_blocks());
+            System.err.printf("Got: %d\n", disk.free_blocks());
+            passed = false;
+        }
+        //An interrupted thread can commit, the journal reopens the channel the interrupt closes.
+        disk.open();
+        disk.write_bytes(vals, 6, 0);
+        Thread.currentThread().interrupt();
+        disk.commit();
+        boolean still_interrupted = Thread.interrupted();
+        rec = disk.read_bytes(4, 6, 0);
+        if(!still_interrupted || !java.util.Arrays.equals(vals, rec)){
+            System.err.println("Journal commit failed on an interrupted thread.");
+            System.err.printf("Got: %s\n", java.util.Arrays.toString(rec));
+            passed = false;
+        }
+        disk.close();
+        temp.delete();
+        return passed;
+    }
+
+    public static boolean async_disk_tests(){
+        boolean passed = true;
+        File temp = new File("SAC_async.dsk");
+        if(temp.exists())temp.delete();
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_async.dsk", 64*ManagedHardDisk.KB);
+        AsyncHardDisk async = new AsyncHardDisk(disk, true);
+        //Writes submitted out of address order, followed by overlapping reads.
+        byte[] first = {1, 2, 3};
+        byte[] second = {4, 5, 6};
+        DiskRequest w2 = async.submit_write(second, 9, 10);
+        DiskRequest w1 = async.submit_write(first, 2, 0);
+        DiskRequest r1 = async.submit_read(3, 2, 0);
+        DiskRequest r2 = async.submit_read(3, 9, 10);
+        byte[] got1 = r1.get_future().join();
+        byte[] got2 = r2.get_future().join();
+        if(!java.util.Arrays.equals(first, got1) || !java.util.Arrays.equals(second, got2)){
+            System.err.println("Async reads did not see earlier writes.");
+            passed = false;
+        }
+        int completions = 0;
+        while(async.poll_completion() != null)completions += 1;
+        if(completions != 4 || !w1.is_done() || !w2.is_done()){
+            System.err.println("Async completion queue missing requests.");
+            System.err.printf("Expected: %d\n", 4);
+            System.err.printf("Got: %d\n", completions);
+            passed = false;
+        }
+        async.shutdown();
+        //A failing request must not stop the worker, and without the queue nothing is kept.
+        async = new AsyncHardDisk(disk);
+        DiskRequest bad = async.submit_read(-1, 2, 0);
+        DiskRequest good = async.submit_read(3, 2, 0);
+        if(!java.util.Arrays.equals(first, good.get_future().join()) || !bad.get_future().isCompletedExceptionally()){
+            System.err.println("Async failed request stopped the worker.");
+            passed = false;
+        }
+        try {
+            async.poll_completion();
+            System.err.println("Async completion queue used while off.");
+            passed = false;
+        } catch (IllegalStateException exp){
+            //Expected
+        }
+        async.shutdown();
+        disk.close();
+        temp.delete();
+        return passed;
+    }
+
+    public static boolean dma_tests(){
+        boolean passed = true;
+        File temp = new File("SAC_dma.dsk");
+        if(temp.exists())temp.delete();
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_dma.dsk", 64*ManagedHardDisk.KB);
+        CPU cpu = CPU.get_instance();
+        RAM ram = RAM.getInstance();
+        //DISK_WRITE block 5 from address 0
+        ram.store_string(0, "Disk!");
+        cpu.setRegister((byte) 0, 5);
+        cpu.setRegister((byte) 1, 0);
+        cpu.execute_two_register((byte)0x22, (byte) 0, (byte) 1);
+        if(disk.is_free(5)){
+            System.err.println("ERROR WITH DISK_WRITE.");
+            passed = false;
+        }
+        //DISK_READ block 5 into address 2048
+        cpu.setRegister((byte) 1, 2048);
+        cpu.execute_two_register((byte)0x21, (byte) 0, (byte) 1);
+        if(ram.load_char(2048) != 'D' || ram.load_char(2056) != '!'){
+            System.err.println("ERROR WITH DISK_READ.");
+            System.err.printf("Expected: %s\n", "D");
+            System.err.printf("Got: %s\n", ram.load_char(2048));
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        temp.delete();
+        return passed;
+    }
+
+    public static boolean checksum_tests() throws IOException {
+        boolean passed = true;
+        File temp = new File("SAC_crc.dsk");
+        if(temp.exists())temp.delete();
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_crc.dsk", 64*ManagedHardDisk.KB, 0, true);
+        disk.open();
+        //Write across a block boundary and read it back.
+        byte[] marker = "SCRUB-ME-PLEASE".getBytes();
+        disk.write_bytes(marker, 2, ManagedHardDisk.KB - 4);
+        byte[] rec = disk.read_bytes(marker.length, 2, ManagedHardDisk.KB - 4);
+        if(!java.util.Arrays.equals(marker, rec) || disk.is_free(3)){
+            System.err.println("Checksummed disk did not read back values.");
+            passed = false;
+        }
+        //A negative offset addresses the data bytes of the blocks before, for reads and writes alike.
+        byte[] before = {7, 6};
+        disk.write_bytes(before, 6, -2);
+        disk.write_byte((byte)5, 8, -1);
+        if(!java.util.Arrays.equals(before, disk.read_bytes(2, 5, ManagedHardDisk.KB - 2))
+                || !java.util.Arrays.equals(before, disk.read_bytes(2, 6, -2))
+                || disk.read_byte(7, ManagedHardDisk.KB - 1) != 5 || disk.read_byte(8, -1) != 5){
+            System.err.println("Checksummed disk misplaced a write at a negative offset.");
+            passed = false;
+        }
+        DiskScrubber scrubber = new DiskScrubber(disk, 0);
+        if(!scrubber.run_pass().isEmpty()){
+            System.err.println("Scrubber reported corruption on a clean disk.");
+            passed = false;
+        }
+        disk.close();
+        //Flip a byte of the marker in the image file.
+        byte[] image = java.nio.file.Files.readAllBytes(temp.toPath());
+        RandomAccessFile raw = new RandomAccessFile(temp, "rw");
+        for(int i = 0;i < image.length - 4;i++){
+            if(image[i] == 'S' && image[i+1] == 'C' && image[i+2] == 'R' && image[i+3] == 'U'){
+                raw.seek(i+1);
+                raw.writeByte('X');
+                break;
+            }
+        }
+        raw.close();
+        disk = ManagedHardDisk.mount("SAC_crc.dsk");
+        scrubber = new DiskScrubber(disk, 0);
+        //A closed disk is left closed and nothing is checked.
+        if(!scrubber.run_pass().isEmpty() || !disk.verify_block(2) || disk.is_open()){
+            System.err.println("Scrubber opened a closed disk.");
+            passed = false;
+        }
+        disk.open();
+        java.util.ArrayList<Long> corrupt = scrubber.run_pass();
+        if(corrupt.size() != 1 || corrupt.get(0) != 2){
+            System.err.println("Scrubber did not find the corrupt block.");
+            System.err.printf("Expected: %s\n", "[2]");
+            System.err.printf("Got: %s\n", corrupt);
+            passed = false;
+        }
+        //A slow background scrubber reports the block long before it finishes a pass.
+        PrintStream err = System.err;
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        System.setErr(new PrintStream(report, true));
+        scrubber = new DiskScrubber(disk, 20);
+        scrubber.start();
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while(scrubber.get_corrupt_blocks().isEmpty() && System.nanoTime() < deadline)Thread.onSpinWait();
+        long passes = scrubber.get_passes();
+        scrubber.stop();
+        System.setErr(err);
+        if(scrubber.get_corrupt_blocks().size() != 1 || passes != 0 || !report.toString().contains("block 2.")){
+            System.err.println("Scrubber did not report the corrupt block when it was found.");
+            System.err.printf("Got: %s\n", scrubber.get_corrupt_blocks());
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        temp.delete();
+        return passed;
+    }
+
+    public static boolean compression_tests(){
+        boolean passed = true;
+        File temp = new File("SAC_packed.dsk");
+        CompressedHardDisk disk = CompressedHardDisk.create("SAC_packed.dsk", 128*ManagedHardDisk.KB);
+        disk.open();
+        byte[] text = new byte[(int)(4*ManagedHardDisk.KB)];
+        for(int i = 0;i < text.length;i++)text[i] = (byte)('a' + (i % 7));
+        byte[] noise = new byte[(int)ManagedHardDisk.KB];
+        rng.nextBytes(noise);
+        disk.write_blocks(text, 0, 4);
+        disk.write_blocks(new byte[(int)ManagedHardDisk.KB], 4, 1);
+        disk.write_blocks(noise, 5, 1);
+        disk.write_bytes("HELLO".getBytes(), 1, ManagedHardDisk.KB - 2);
+        if(disk.get_stored_bytes() >= 2*ManagedHardDisk.KB || disk.is_free(4) || disk.free_blocks() != 122){
+            System.err.println("Compressed disk did not pack its blocks.");
+            System.err.printf("Stored bytes: %d\n", disk.get_stored_bytes());
+            passed = false;
+        }
+        disk.close();
+        disk = CompressedHardDisk.mount("SAC_packed.dsk");
+        System.arraycopy("HELLO".getBytes(), 0, text, (int)(2*ManagedHardDisk.KB - 2), 5);
+        if(!java.util.Arrays.equals(text, disk.read_blocks(0, 4))
+                || !java.util.Arrays.equals(noise, disk.read_bytes(noise.length, 5, 0))
+                || disk.read_byte(4, 100) != 0){
+            System.err.println("Compressed disk did not read back values.");
+            passed = false;
+        }
+        for(int i = 0;i < 4;i++)disk.write_blocks(noise, i, 1);
+        long wasted = disk.get_wasted_bytes();
+        disk.compact();
+        if(disk.get_wasted_bytes() != 0 || wasted == 0
+                || !java.util.Arrays.equals(noise, disk.read_blocks(3, 1))){
+            System.err.println("Compressed disk did not compact.");
+            passed = false;
+        }
+        disk.close();
+        //A file system on a packed copy of a ManagedHardDisk.
+        DiskFileSystem fs = DiskFileSystem.format(ManagedHardDisk.create("SAC_plain.dsk", 128*ManagedHardDisk.KB));
+        fs.create("/notes.txt", DiskFileType.TEXT);
+        fs.write("/notes.txt", text);
+        ManagedHardDisk.unmount();
+        CompressedHardDisk.pack(ManagedHardDisk.mount("SAC_plain.dsk"), "SAC_packed.dsk");
+        ManagedHardDisk.unmount();
+        fs = DiskFileSystem.mount(CompressedHardDisk.mount("SAC_packed.dsk"));
+        if(!java.util.Arrays.equals(text, fs.read("/notes.txt"))){
+            System.err.println("File system on packed disk did not read back file.");
+            passed = false;
+        }
+        fs.get_disk().close();
+        new File("SAC_plain.dsk").delete();
+        temp.delete();
+        return passed;
+    }
+
+    public static boolean dedup_tests(){
+        boolean passed = true;
+        new File("SAC_store.dat").delete();
+        DedupBlockStore store = DedupBlockStore.open("SAC_store.dat");
+        DedupHardDisk disk = DedupHardDisk.create(store, "SAC_dedup_a.dsk", 64*ManagedHardDisk.KB);
+        disk.open();
+        byte[] block = new byte[(int)ManagedHardDisk.KB];
+        rng.nextBytes(block);
+        for(int i = 0;i < 8;i++)disk.write_blocks(block, i, 1);
+        disk.write_bytes("EDIT".getBytes(), 7, 10);
+        if(store.get_unique_blocks() != 2){
+            System.err.println("Block store did not deduplicate blocks.");
+            System.err.printf("Expected: %d\n", 2);
+            System.err.printf("Got: %d\n", store.get_unique_blocks());
+            passed = false;
+        }
+        DedupHardDisk clone = disk.clone_image("SAC_dedup_b.dsk");
+        if(store.get_references(0) != 14 || store.get_references(1) != 2){
+            System.err.println("Cloning did not add a reference for every shared block.");
+            System.err.printf("Got: %d and %d\n", store.get_references(0), store.get_references(1));
+            passed = false;
+        }
+        disk.free_block(7);
+        disk.close();
+        clone = DedupHardDisk.mount(store, "SAC_dedup_b.dsk");
+        if(!java.util.Arrays.equals("EDIT".getBytes(), clone.read_bytes(4, 7, 10))
+                || !java.util.Arrays.equals(block, clone.read_blocks(0, 1)) || clone.free_blocks() != 56){
+            System.err.println("Cloned disk did not read back values.");
+            passed = false;
+        }
+        clone.format();
+        if(store.get_unique_blocks() != 1){
+            System.err.println("Block store did not release unreferenced blocks.");
+            passed = false;
+        }
+        store.close();
+        store = DedupBlockStore.open("SAC_store.dat");
+        disk = DedupHardDisk.mount(store, "SAC_dedup_a.dsk");
+        if(store.get_unique_blocks() != 1 || !java.util.Arrays.equals(block, disk.read_blocks(6, 1)) || !disk.is_free(7)){
+            System.err.println("Reopened block store did not read back values.");
+            passed = false;
+        }
+        disk.close();
+        store.close();
+        new File("SAC_dedup_a.dsk").delete();
+        new File("SAC_dedup_b.dsk").delete();
+        new File("SAC_store.dat").delete();
+        return passed;
+    }
+
+    public static boolean overlay_tests(){
+        boolean passed = true;
+        ManagedHardDisk base = ManagedHardDisk.create("SAC_base.dsk", 64*ManagedHardDisk.KB);
+        base.open();
+        base.write_bytes("BASE".getBytes(), 0, 0);
+        base.write_bytes("KEEP".getBytes(), 1, 0);
+        OverlayHardDisk disk = base.clone_image("SAC_overlay.dsk");
+        disk.open();
+        disk.write_bytes("MINE".getBytes(), 0, 0);
+        disk.free_block(1);
+        if(!new String(base.read_bytes(4, 0, 0)).equals("BASE") || base.is_free(1)
+                || !new String(disk.read_bytes(4, 0, 0)).equals("MINE") || !disk.is_free(1)
+                || disk.next_free_block() != 1){
+            System.err.println("Overlay did not keep changes apart from its base.");
+            passed = false;
+        }
+        OverlayHardDisk snap = disk.snapshot("run1");
+        long snap_free = snap.free_blocks();
+        disk.write_bytes("NEXT".getBytes(), 0, 0);
+        disk.write_bytes("LIVE".getBytes(), 5, 0);
+        if(!snap.is_free(5) || snap.free_blocks() != snap_free || snap.next_free_block() != 1){
+            System.err.println("Writes after a snapshot changed its allocation map.");
+            System.err.printf("Expected: %d\n", snap_free);
+            System.err.printf("Got: %d\n", snap.free_blocks());
+            passed = false;
+        }
+        OverlayHardDisk clone = OverlayHardDisk.create(snap, "SAC_clone.dsk");
+        clone.open();
+        if(!new String(snap.read_bytes(4, 0, 0)).equals("MINE") || !new String(clone.read_bytes(4, 0, 0)).equals("MINE")
+                || !new String(disk.read_bytes(4, 0, 0)).equals("NEXT")){
+            System.err.println("Snapshot did not keep its contents.");
+            passed = false;
+        }
+        disk.reset();
+        if(!new String(disk.read_bytes(4, 0, 0)).equals("MINE") || disk.get_changed_blocks() != 0){
+            System.err.println("Reset overlay did not return to its snapshot.");
+            passed = false;
+        }
+        clone.format();
+        if(clone.free_blocks() != 64 || snap.is_free(0)){
+            System.err.println("Formatted clone did not hide its base.");
+            passed = false;
+        }
+        disk.write_bytes("LAST".getBytes(), 2, 0);
+        disk.close();
+        clone.close();
+        snap = OverlayHardDisk.mount_snapshot(base, "SAC_overlay.dsk.run1");
+        disk = OverlayHardDisk.mount(snap, "SAC_overlay.dsk");
+        disk.open();
+        if(!new String(disk.read_bytes(4, 2, 0)).equals("LAST") || !new String(disk.read_bytes(4, 0, 0)).equals("MINE")
+                || !disk.is_free(1)){
+            System.err.println("Remounted overlay did not read back values.");
+            passed = false;
+        }
+        disk.close();
+        snap.close();
+        ManagedHardDisk.unmount();
+        for(String name : new String[]{"SAC_base.dsk", "SAC_overlay.dsk", "SAC_overlay.dsk.run1", "SAC_clone.dsk"}){
+            new File(name).delete();
+        }
+        return passed;
+    }
+
+    public static boolean concurrency_tests(){
+        boolean passed = true;
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_shared.dsk", 256*ManagedHardDisk.KB, 0, true);
+        disk.open();
+        int workers = 8;
+        int per_worker = 24;
+        long[][] allocated = new long[workers][per_worker];
+        boolean[] ok = new boolean[workers];
+        Thread[] threads = new Thread[workers];
+        for(int w = 0;w < workers;w++){
+            final int id = w;
+            threads[w] = new Thread(() -> {
+                ok[id] = true;
+                for(int i = 0;i < per_worker;i++){
+                    long block = disk.allocate_block();
+                    allocated[id][i] = block;
+                    byte[] data = new byte[(int)ManagedHardDisk.KB];
+                    java.util.Arrays.fill(data, (byte)(id*per_worker + i));
+                    disk.write_blocks(data, block, 1);
+                    disk.write_bytes(new byte[]{(byte)id, (byte)i}, block, 100);
+                }
+                for(int i = 0;i < per_worker;i++){
+                    byte[] data = disk.read_blocks(allocated[id][i], 1);
+                    if(data[0] != (byte)(id*per_worker + i) || data[100] != id || data[101] != i)ok[id] = false;
+                }
+            });
+            threads[w].start();
+        }
+        java.util.HashSet<Long> seen = new java.util.HashSet<>();
+        for(int w = 0;w < workers;w++){
+            try{
+                threads[w].join();
+            } catch (InterruptedException exp){
+                passed = false;
+            }
+            if(!ok[w]){
+                System.err.printf("Worker %d did not read back its blocks.\n", w);
+                passed = false;
+            }
+            for(long block : allocated[w])seen.add(block);
+        }
+        if(seen.size() != workers*per_worker || disk.free_blocks() != 256 - workers*per_worker){
+            System.err.println("Concurrent allocation handed out a block twice.");
+            passed = false;
+        }
+        if(!new DiskScrubber(disk, 0).run_pass().isEmpty()){
+            System.err.println("Concurrent writes left a block with a bad checksum.");
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        new File("SAC_shared.dsk").delete();
+        return passed;
+    }
+
+    public static boolean buffered_disk_tests(){
+        boolean passed = true;
+        HardDisk disk = HardDisk.getInstance("SAC_buffered.dsk");
+        byte[] name = {0, 'O', 0, 'K', 0, 0};
+        disk.seek(HardDisk.KB);
+        disk.write(0x12345678);
+        disk.write(0x1122334455667788L);
+        disk.write((byte)7);
+        disk.write(name);
+        if(disk.getFilePointer() != HardDisk.KB + 19){
+            System.err.println("Buffered writes did not advance the file pointer.");
+            passed = false;
+        }
+        byte[] big = new byte[(int)(100*HardDisk.KB)];
+        rng.nextBytes(big);
+        disk.seek(3*HardDisk.MB);
+        disk.write(big);
+        disk.seek(HardDisk.KB);
+        if(disk.readInt() != 0x12345678 || disk.readInt() != 0x11223344 || disk.readInt() != 0x55667788
+                || disk.readByte() != 7 || !disk.readString().equals("OK")){
+            System.err.println("Buffered reads did not read back values.");
+            passed = false;
+        }
+        disk.close();
+        disk.open();
+        if(disk.getFilePointer() != 0){
+            System.err.println("Reopened buffered disk did not start at the beginning of the file.");
+            System.err.printf("Got: %d\n", disk.getFilePointer());
+            passed = false;
+        }
+        disk.seek(3*HardDisk.MB + 10);
+        byte[] rec = disk.read(1000);
+        if(!java.util.Arrays.equals(rec, java.util.Arrays.copyOfRange(big, 10, 1010))){
+            System.err.println("Buffered disk did not read back a large write.");
+            passed = false;
+        }
+        disk.seek(HardDisk.KB + 8);
+        disk.write((byte)9);
+        disk.seek(HardDisk.KB + 7);
+        if(disk.readByte() != 0x44 || disk.readByte() != 9 || disk.getSize() != 10*HardDisk.MB){
+            System.err.println("Buffered disk mixed reads and writes incorrectly.");
+            passed = false;
+        }
+        disk.close();
+        new File("SAC_buffered.dsk").delete();
+        return passed;
+    }
+
+    public static boolean defragmenter_tests(){
+        boolean passed = true;
+        DiskFileSystem fs = DiskFileSystem.format(ManagedHardDisk.create("SAC_defrag.dsk", 128*ManagedHardDisk.KB, 16*ManagedHardDisk.KB));
+        //Fill the disk with two block files, then free every other one.
+        for(int i = 0;i < 56;i++){
+            fs.create("/small" + i, DiskFileType.TEXT);
+            fs.write("/small" + i, new byte[1500]);
+        }
+        for(int i = 0;i < 56;i += 2)fs.delete("/small" + i);
+        byte[] big = new byte[16000];
+        rng.nextBytes(big);
+        fs.create("/big", DiskFileType.DHD);
+        fs.write("/big", big);
+        DiskDefragmenter defrag = new DiskDefragmenter(fs, 0);
+        FragmentationReport before = defrag.analyze();
+        if(before.get_fragmented_files() == 0){
+            System.err.println("Defragmenter test did not fragment a file.");
+            passed = false;
+        }
+        defrag.run_pass();
+        FragmentationReport after = defrag.analyze();
+        if(after.get_fragmented_files() != 0 || after.get_trailing_free_blocks() <= before.get_trailing_free_blocks()
+                || after.get_free_space_fragmentation() >= before.get_free_space_fragmentation()){
+            System.err.println("Defragmenter did not compact the disk.");
+            System.err.printf("Before: %s\n", before);
+            System.err.printf("After: %s\n", after);
+            passed = false;
+        }
+        if(!java.util.Arrays.equals(big, fs.read("/big")) || fs.read("/small1").length != 1500){
+            System.err.println("Defragmenter damaged file contents.");
+            passed = false;
+        }
+        //Online: fragment again and let the background thread clean up while files are read.
+        for(int i = 1;i < 56;i += 4)fs.delete("/small" + i);
+        fs.create("/big2", DiskFileType.DHD);
+        fs.write("/big2", big);
+        defrag.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while(defrag.analyze().get_fragmented_files() != 0 && System.currentTimeMillis() < deadline){
+            if(!java.util.Arrays.equals(big, fs.read("/big2")))passed = false;
+        }
+        defrag.stop();
+        if(defrag.analyze().get_fragmented_files() != 0 || !java.util.Arrays.equals(big, fs.read("/big2"))){
+            System.err.println("Background defragmenter did not defragment the disk.");
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        fs = DiskFileSystem.mount(ManagedHardDisk.mount("SAC_defrag.dsk"));
+        if(!java.util.Arrays.equals(big, fs.read("/big")) || !java.util.Arrays.equals(big, fs.read("/big2"))){
+            System.err.println("Defragmented disk did not read back after remounting.");
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        new File("SAC_defrag.dsk").delete();
+        return passed;
+    }
+
+    public static boolean metrics_tests(){
+        boolean passed = true;
+        LatencyHistogram histogram = new LatencyHistogram();
+        for(long value = 1;value <= 10000;value++)histogram.record(value);
+        long median = histogram.get_percentile(50);
+        if(histogram.get_count() != 10000 || histogram.get_max() != 10000 || histogram.get_percentile(100) != 10000
+                || median < 5000 || median > 5000 + 5000/64 || histogram.get_mean() != 5000.5){
+            System.err.printf("Latency histogram percentiles are wrong: %s\n", histogram);
+            passed = false;
+        }
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_metrics.dsk", 64*ManagedHardDisk.KB);
+        DiskMetrics metrics = disk.get_metrics();
+        metrics.reset();
+        disk.open();
+        long block = disk.allocate_block();
+        disk.write_bytes(new byte[100], block, 0);
+        disk.write_blocks(new byte[2048], 10, 2);
+        disk.read_bytes(100, block, 0);
+        disk.read_blocks(10, 2);
+        disk.free_block(block);
+        if(metrics.get_operations(DiskMetrics.Operation.WRITE) != 2 || metrics.get_bytes(DiskMetrics.Operation.WRITE) != 2148
+                || metrics.get_operations(DiskMetrics.Operation.READ) != 2 || metrics.get_bytes(DiskMetrics.Operation.READ) != 2148
+                || metrics.get_operations(DiskMetrics.Operation.FREE) != 1 || metrics.get_seeks() < 3
+                || metrics.get_latency(DiskMetrics.Operation.READ).get_count() != 2 || metrics.get_scan_lengths().get_count() != 1){
+            System.err.printf("Disk metrics counted operations incorrectly:\n%s", metrics);
+            passed = false;
+        }
+        disk.format();
+        if(metrics.get_operations(DiskMetrics.Operation.FORMAT) != 1){
+            System.err.println("Disk metrics did not count a format.");
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        new File("SAC_metrics.dsk").delete();
+        HardDisk raw = HardDisk.getInstance("SAC_metrics_raw.dsk");
+        raw.getMetrics().reset();
+        raw.seek(0);
+        raw.write(new byte[10]);
+        raw.seek(5*HardDisk.MB);
+        raw.write(1);
+        raw.seek(0);
+        raw.read(10);
+        DiskMetrics raw_metrics = raw.getMetrics();
+        if(raw_metrics.get_operations(DiskMetrics.Operation.WRITE) != 2 || raw_metrics.get_bytes(DiskMetrics.Operation.WRITE) != 14
+                || raw_metrics.get_operations(DiskMetrics.Operation.READ) != 1 || raw_metrics.get_seeks() < 2){
+            System.err.printf("Hard disk metrics counted operations incorrectly:\n%s", raw_metrics);
+            passed = false;
+        }
+        raw.close();
+        new File("SAC_metrics_raw.dsk").delete();
+        return passed;
+    }
+
+    public static boolean vectored_io_tests(){
+        boolean passed = true;
+        int kb = (int)ManagedHardDisk.KB;
+        BlockDevice[] disks = {
+                ManagedHardDisk.create("SAC_vectored.dsk", 64*ManagedHardDisk.KB),
+                ManagedHardDisk.create("SAC_vectored_crc.dsk", 64*ManagedHardDisk.KB, 0, true),
+                CompressedHardDisk.create("SAC_vectored_packed.dsk", 64*ManagedHardDisk.KB)
+        };
+        for(BlockDevice disk : disks){
+            disk.open();
+            //Out of address order, with whole blocks, a run of blocks and partial ranges.
+            java.util.List<DiskSegment> segments = java.util.Arrays.asList(
+                    new DiskSegment(12, 0, kb), new DiskSegment(3, 0, kb), new DiskSegment(4, 0, kb),
+                    new DiskSegment(5, 0, kb), new DiskSegment(20, 100, 50), new DiskSegment(20, 500, 300),
+                    new DiskSegment(30, kb - 10, 30));
+            byte[] data = new byte[DiskSegment.total_length(segments)];
+            rng.nextBytes(data);
+            disk.write_vectored(data, segments);
+            byte[] expected = new byte[data.length];
+            int at = 0;
+            for(DiskSegment segment : segments){
+                System.arraycopy(disk.read_bytes(segment.length, segment.block, segment.offset), 0, expected, at, segment.length);
+                at += segment.length;
+            }
+            if(!java.util.Arrays.equals(data, expected) || !java.util.Arrays.equals(data, disk.read_vectored(segments))
+                    || disk.is_free(3) || disk.is_free(20) || disk.is_free(30) || !disk.is_free(6)){
+                System.err.printf("Vectored I/O did not round trip on %s.\n", disk.getClass().getSimpleName());
+                passed = false;
+            }
+            disk.close();
+        }
+        //Contiguous blocks are read with a single access.
+        ManagedHardDisk disk = (ManagedHardDisk)disks[0];
+        disk.open();
+        java.util.ArrayList<DiskSegment> run = new java.util.ArrayList<>();
+        for(int block = 40;block < 48;block++)run.add(new DiskSegment(block, 0, kb));
+        disk.read_bytes(1, 0, 0);
+        long seeks = disk.get_metrics().get_seeks();
+        disk.read_vectored(run);
+        if(disk.get_metrics().get_seeks() - seeks != 1){
+            System.err.println("Vectored read of contiguous blocks took more than one access.");
+            passed = false;
+        }
+        disk.close();
+        ManagedHardDisk.unmount();
+        new File("SAC_vectored.dsk").delete();
+        new File("SAC_vectored_crc.dsk").delete();
+        new File("SAC_vectored_packed.dsk").delete();
+        return passed;
+    }
+
+    public static boolean disk_geometry_tests(){
+        boolean passed = true;
+        byte[] data = new byte[200000];
+        rng.nextBytes(data);
+        for(int block_size : new int[]{ManagedHardDisk.min_block_size, 4096, ManagedHardDisk.max_block_size}){
+            ManagedHardDisk disk = ManagedHardDisk.create("SAC_geometry.dsk", 2*ManagedHardDisk.MB, 0, true, block_size);
+            DiskFileSystem fs = DiskFileSystem.format(disk);
+            fs.create("/data", DiskFileType.DHD);
+            fs.write("/data", data);
+            ManagedHardDisk.unmount();
+            disk = ManagedHardDisk.mount("SAC_geometry.dsk");
+            fs = DiskFileSystem.mount(disk);
+            if(disk.get_block_size() != block_size || disk.get_blocks() != 2*ManagedHardDisk.MB/block_size
+                    || !java.util.Arrays.equals(data, fs.read("/data"))){
+                System.err.printf("Disk with %d byte blocks did not round trip.\n", block_size);
+                passed = false;
+            }
+            ManagedHardDisk.unmount();
+        }
+        new File("SAC_geometry.dsk").delete();
+        //Addresses past 2GB, the image file is sparse so this takes no real space.
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_large.dsk", 3*1024*ManagedHardDisk.MB, 0, false, ManagedHardDisk.max_block_size);
+        disk.open();
+        long last = disk.get_blocks() - 1;
+        byte[] tail = new byte[ManagedHardDisk.max_block_size];
+        rng.nextBytes(tail);
+        disk.write_blocks(tail, last, 1);
+        if(disk.get_blocks() != 3*1024*ManagedHardDisk.MB/ManagedHardDisk.max_block_size
+                || !java.util.Arrays.equals(tail, disk.read_blocks(last, 1)) || disk.is_free(last)
+                || new File("SAC_large.dsk").length() <= 3*1024*ManagedHardDisk.MB){
+            System.err.println("Large disk did not address its last block.");
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        new File("SAC_large.dsk").delete();
+        HardDisk raw = HardDisk.getInstance("SAC_sized.dsk", 12*HardDisk.MB);
+        if(raw.getSize() != 12*HardDisk.MB || HardDisk.getInstance("SAC_sized.dsk") != raw){
+            System.err.println("Hard disk was not created with the requested size.");
+            passed = false;
+        }
+        raw.close();
+        new File("SAC_sized.dsk").delete();
+        return passed;
+    }
+
+    public static boolean trim_tests(){
+        boolean passed = true;
+        File image = new File("SAC_trim.dsk");
+        ManagedHardDisk disk = ManagedHardDisk.create("SAC_trim.dsk", 256*ManagedHardDisk.KB);
+        if(image.length() >= 2*ManagedHardDisk.KB){
+            System.err.println("Formatted disk was not sparse.");
+            passed = false;
+        }
+        disk.open();
+        byte[] data = new byte[(int)(10*ManagedHardDisk.KB)];
+        rng.nextBytes(data);
+        disk.write_blocks(data, 0, 10);
+        disk.write_bytes(new byte[]{1, 2, 3}, 200, 0);
+        long grown = image.length();
+        disk.free_block(200);
+        long released = disk.trim();
+        if(released <= 0 || image.length() != grown - released || image.length() >= 11*(ManagedHardDisk.KB + 1)
+                || disk.trim() != 0){
+            System.err.println("Trim did not release trailing free blocks.");
+            passed = false;
+        }
+        disk.write_bytes(new byte[]{4}, 150, 0);
+        ManagedHardDisk.unmount();
+        disk = ManagedHardDisk.mount("SAC_trim.dsk");
+        disk.open();
+        if(disk.free_blocks() != disk.get_blocks() - 11 || disk.is_free(150) || !disk.is_free(200)
+                || !java.util.Arrays.equals(data, disk.read_blocks(0, 10)) || disk.read_byte(200, 0) != 0){
+            System.err.println("Trimmed disk did not remount.");
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        //Closing a journaled disk after deleting files at its end, and compacting, shrink the image.
+        DiskFileSystem fs = DiskFileSystem.format(ManagedHardDisk.create("SAC_trim.dsk", 256*ManagedHardDisk.KB, 16*ManagedHardDisk.KB));
+        for(int i = 0;i < 20;i++){
+            fs.create("/file" + i, DiskFileType.DHD);
+            fs.write("/file" + i, data);
+        }
+        long full = image.length();
+        fs.delete("/file19");
+        if(image.length() != full){
+            System.err.println("Deleting a file trimmed the disk before it was closed.");
+            passed = false;
+        }
+        fs.get_disk().close();
+        long after_delete = image.length();
+        fs.get_disk().open();
+        for(int i = 0;i < 18;i += 2)fs.delete("/file" + i);
+        long released_by_compact = new DiskDefragmenter(fs, 0).compact();
+        if(after_delete >= full || released_by_compact <= 0 || image.length() >= after_delete){
+            System.err.println("Deleting and compacting did not shrink the image.");
+            System.err.printf("Full: %d, after delete: %d, compacted: %d\n", full, after_delete, image.length());
+            passed = false;
+        }
+        ManagedHardDisk.unmount();
+        fs = DiskFileSystem.mount(ManagedHardDisk.mount("SAC_trim.dsk"));
+        for(int i = 1;i < 19;i += 2){
+            if(!java.util.Arrays.equals(data, fs.read("/file" + i))){
+                System.err.println("Compacted disk lost file contents.");
+                passed = false;
+                break;
+            }
+        }
+        ManagedHardDisk.unmount();
+        image.delete();
+        return passed;
+    }
 }
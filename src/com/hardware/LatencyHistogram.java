@@ -0,0 +1,163 @@
+/* File: LatencyHistogram.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A fixed size histogram of non-negative long values, used for disk operation latencies in
+ *  nanoseconds and allocation scan lengths in blocks.
+ * Notes:
+ *  Buckets are log-linear, in the style of HdrHistogram. Values below 2^sub_bits each get their
+ *  own bucket, above that every power of two range is split into 2^(sub_bits - 1) equal buckets,
+ *  so a recorded value is off by at most 1/64 of itself.
+ *  Recording is lock-free and the histogram may be read while it is being recorded to, readers
+ *  see a consistent count for each bucket but not necessarily across buckets.
+ */
+
+
+package com.hardware;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+    //Constants
+    private static final int sub_bits = 7;
+    private static final int half_count = 1 << (sub_bits - 1); //Buckets per power of two range.
+
+    //Instance Variables
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong max;
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Creates an empty histogram covering every non-negative long value.
+    public LatencyHistogram(){
+        counts = new AtomicLongArray(bucket_of(Long.MAX_VALUE) + 1);
+        count = new AtomicLong(0);
+        total = new AtomicLong(0);
+        max = new AtomicLong(0);
+    }
+
+    //Precond:
+    //  value is the value to record, negative values are recorded as 0.
+    //
+    //Postcond:
+    //  Adds the value to the histogram.
+    public void record(long value){
+        if(value < 0)value = 0;
+        counts.incrementAndGet(bucket_of(value));
+        count.incrementAndGet();
+        total.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Empties the histogram.
+    public void reset(){
+        for(int i = 0;i < counts.length();i++)counts.set(i, 0);
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of values recorded.
+    public long get_count(){
+        return count.get();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the sum of every value recorded.
+    public long get_total(){
+        return total.get();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the largest value recorded, 0 if none have been.
+    public long get_max(){
+        return max.get();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the mean of the values recorded, 0 if none have been.
+    public double get_mean(){
+        long n = count.get();
+        return (n == 0) ? 0 : (double)total.get()/n;
+    }
+
+    //Precond:
+    //  percent is between 0 and 100.
+    //
+    //Postcond:
+    //  Returns a value that at least percent of the recorded values are less than or equal to,
+    //  the highest value sharing a bucket with the percentile and never more than the maximum.
+    //  Returns 0 if no values have been recorded.
+    public long get_percentile(double percent){
+        long n = 0;
+        for(int i = 0;i < counts.length();i++)n += counts.get(i);
+        if(n == 0)return 0;
+        long target = Math.max(1, (long)Math.ceil((percent/100.0)*n));
+        long seen = 0;
+        for(int i = 0;i < counts.length();i++){
+            seen += counts.get(i);
+            if(seen >= target)return Math.min(highest_in(i), max.get());
+        }
+        return max.get();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns a one line summary of the histogram.
+    @Override
+    public String toString(){
+        return String.format("count=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+                get_count(), get_mean(), get_percentile(50), get_percentile(90),
+                get_percentile(99), get_percentile(99.9), get_max());
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  value is non-negative.
+    //
+    //Postcond:
+    //  Returns the bucket holding the value.
+    private static int bucket_of(long value){
+        int shift = Math.max(0, (63 - Long.numberOfLeadingZeros(value)) - sub_bits + 1);
+        return shift*half_count + (int)(value >>> shift);
+    }
+
+    //Precond:
+    //  bucket is a bucket of the histogram.
+    //
+    //Postcond:
+    //  Returns the highest value held by the bucket.
+    private static long highest_in(int bucket){
+        int shift = Math.max(0, bucket/half_count - 1);
+        long sub = bucket - (long)shift*half_count;
+        return ((sub + 1) << shift) - 1;
+    }
+}
@@ -15,28 +15,45 @@
 
 package com.hardware;
 
+import com.hardware.DiskMetrics.Operation;
+
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Random;
 import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
 
-public class ManagedHardDisk {
+public class ManagedHardDisk implements BlockDevice {
     //Constants
-    private static final byte[] magic = {11, 13, 27};
+    private static final byte[] magic = {11, 13, 29};
+    private static final byte legacy_version = 27; //Last byte of the magic number of images without a journal region.
+    private static final byte int_blocks_version = 28; //Last byte of the magic number of images with a 4 byte block count.
+    private static final int journal_feature = 1;
+    private static final int checksum_feature = 2;
     private static final int byte_mask = 0xFFFF;
     public static final long KB = 1024L;
     public static final long MB = KB*KB;
 
+    public static final int min_block_size = 512;
+    public static final int max_block_size = (int)(64*KB);
+
     //Instance defaults
     private static final long default_disk_size = 10*MB;
-    private static final long default_block_size = KB;
+    private static final int default_block_size = (int)KB;
     private static final String default_disk_name = "SAC.dsk";
 
     //Singleton Variables
-    public static ManagedHardDisk instance = null;
+    public static volatile ManagedHardDisk instance = null;
 
     //Singleton Methods
     //Creation Methods
@@ -44,12 +61,21 @@ public class ManagedHardDisk {
         return create(default_disk_name, default_disk_size);
     }
     public static ManagedHardDisk create(String filename, long disk_size){
+        return create(filename, disk_size, 0);
+    }
+    public static ManagedHardDisk create(String filename, long disk_size, long journal_size){
+        return create(filename, disk_size, journal_size, false);
+    }
+    public static ManagedHardDisk create(String filename, long disk_size, long journal_size, boolean checksums){
+        return create(filename, disk_size, journal_size, checksums, default_block_size);
+    }
+    public static synchronized ManagedHardDisk create(String filename, long disk_size, long journal_size, boolean checksums, int block_size){
         if(instance != null)unmount();
-        instance = new ManagedHardDisk(filename, disk_size);
+        instance = new ManagedHardDisk(filename, disk_size, journal_size, checksums, block_size);
         return instance;
     }
 
-    public static ManagedHardDisk mount(String filename){
+    public static synchronized ManagedHardDisk mount(String filename){
         if(instance != null)unmount();
         instance = new ManagedHardDisk(filename);
         return instance;
@@ -60,18 +86,50 @@ public class ManagedHardDisk {
         return instance;
     }
 
-    public static void unmount(){
+    public static synchronized void unmount(){
         if(instance != null)instance.close();
         instance = null;
     }
 
     //Instance Variables
-    private int blocks;
+    private long blocks;
+    private int block_size; //Data bytes per block, a power of two from min_block_size to max_block_size.
     private long disk_size;
     private final String filename;
     private final File handle;
-    private RandomAccessFile access;
-    private static final long preamble_length = magic.length + Integer.BYTES; //How long the disk preamble is.
+    private volatile RandomAccessFile access;
+    private volatile FileChannel channel; //Channel of access, used for positional reads and writes.
+    private byte version; //Last byte of the magic number.
+    private long preamble_length; //Length of the preamble, which depends on the version.
+    private long data_start; //Address of the first block flag.
+    private DiskJournal journal; //Null if the disk is not journaled.
+    private boolean checksums; //True if every block stores a CRC32C of its data.
+    private int block_header; //Bytes before the data of each block, the flag and optional checksum.
+    private long stride; //Distance between the starts of two blocks.
+    private BlockMap used_map; //In-memory copy of the block flags.
+    private final AtomicLong allocation_hint = new AtomicLong(0); //Where allocate_block starts searching.
+    private final ReentrantReadWriteLock state_lock = new ReentrantReadWriteLock(); //Held exclusively to open, close or format.
+    private final ReentrantReadWriteLock[] stripes = new_stripes();
+    private final DiskMetrics metrics = new DiskMetrics();
+    private final DiskJournal.Storage journal_file = new DiskJournal.Storage(){ //Journal access through the positional helpers.
+        public void write(long address, byte[] data) throws IOException {
+            write_channel(address, data);
+        }
+
+        public void read(long address, byte[] buffer) throws IOException {
+            read_channel(address, buffer);
+        }
+
+        public void force() throws IOException {
+            force_channel();
+        }
+    };
+    private static final int stripe_count = 64; //Number of block range locks.
+    private static final int stripe_span = 16; //Consecutive blocks covered by one stripe.
+    private static final int scan_length = (int)(256*KB); //Largest number of bytes read at once when loading the block flags.
+    private static final long legacy_preamble_length = magic.length + Integer.BYTES;
+    private static final long int_blocks_preamble_length = magic.length + Integer.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES;
+    private static final long current_preamble_length = magic.length + Long.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES;
 
 
     //Instance Methods
@@ -79,17 +137,34 @@ public class ManagedHardDisk {
     //Precond:
     //  filename is the name of the file where the data is to be stored.
     //  disk_size is the size to make the disk.
+    //  journal_size is the size of the write-ahead log region, 0 for no journal.
+    //  checksums is true if every block should be checked against a stored CRC32C when read.
+    //  block_size is the number of data bytes in a block, a power of two from min_block_size to max_block_size.
     //
     //Postcond:
     //  Creates a new ManagedHardDisk object with data stored in the given filename.
     //  Creates a new hard disk file, of the specified size, that has been formatted and cleared.
-    private ManagedHardDisk(String filename, long disk_size){
+    //  The file only takes up space on the host for blocks that have been written.
+    private ManagedHardDisk(String filename, long disk_size, long journal_size, boolean checksums, int block_size){
         this.filename = filename;
         this.disk_size = disk_size;
         handle = new File(filename);
-        blocks = (int)(disk_size/default_block_size);
-        if(disk_size % default_block_size != 0)blocks += 1;
-        this.disk_size = (blocks*(default_block_size+1)) + preamble_length;
+        if(!valid_block_size(block_size)){
+            System.err.println("Unsupported block size " + block_size);
+            System.exit(209);
+        }
+        this.block_size = block_size;
+        blocks = (disk_size + block_size - 1)/block_size;
+        preamble_length = current_preamble_length;
+        if(journal_size > 0){
+            journal_size = Math.max(journal_size, DiskJournal.min_length);
+            journal = new DiskJournal(preamble_length, journal_size);
+        }
+        version = magic[magic.length - 1];
+        set_layout(checksums);
+        data_start = preamble_length + Math.max(journal_size, 0);
+        this.disk_size = (blocks*stride) + data_start;
+        used_map = new BlockMap(blocks);
         access = null;
         format();
         close();
@@ -107,16 +182,49 @@ public class ManagedHardDisk {
         access = null;
         open();
         try {
-            disk_size = access.length();
             access.seek(0);
-            for(int i = 0;i < magic.length; i++){
+            for(int i = 0;i < magic.length - 1; i++){
                 if(magic[i] != access.readByte()){
                     System.err.println("Problem opening existing hard disk in " + filename);
                     close();
                     System.exit(205);
                 }
             }
-            blocks = access.readInt();
+            version = access.readByte();
+            block_size = default_block_size;
+            if(version == legacy_version){
+                blocks = access.readInt();
+                preamble_length = legacy_preamble_length;
+                set_layout(false);
+                data_start = legacy_preamble_length;
+            }
+            else if(version == int_blocks_version || version == magic[magic.length - 1]){
+                boolean long_blocks = version != int_blocks_version;
+                blocks = long_blocks ? access.readLong() : access.readInt();
+                preamble_length = long_blocks ? current_preamble_length : int_blocks_preamble_length;
+                block_size = access.readInt();
+                int features = access.readInt();
+                long journal_size = access.readLong();
+                if(!valid_block_size(block_size) || blocks < 0){
+                    System.err.println("Unsupported block size in " + filename);
+                    close();
+                    System.exit(205);
+                }
+                set_layout((features & checksum_feature) != 0);
+                data_start = preamble_length + journal_size;
+                if((features & journal_feature) != 0){
+                    journal = new DiskJournal(preamble_length, journal_size);
+                    journal.replay(journal_file);
+                }
+            }
+            else{
+                System.err.println("Problem opening existing hard disk in " + filename);
+                close();
+                System.exit(205);
+            }
+            disk_size = data_start + (blocks*stride);
+            used_map = new BlockMap(blocks);
+            load_used_map();
         } catch (IOException exp) {
             System.err.println("Problem opening existing hard disk in " + filename);
             exp.printStackTrace();
@@ -136,13 +244,17 @@ public class ManagedHardDisk {
     //Postcond:
     //  Opens the hard disk file so it can be read from and written to.
     public void open(){
-        if(access != null)return;
+        state_lock.writeLock().lock();
         try {
+            if(access != null)return;
             access = new RandomAccessFile(handle, "rw");
+            channel = access.getChannel();
         } catch (IOException exp){
             System.err.println("Problem opening hard disk.");
             exp.printStackTrace();
             System.exit(200);
+        } finally {
+            state_lock.writeLock().unlock();
         }
     }
 
@@ -151,18 +263,78 @@ public class ManagedHardDisk {
     //
     //Postcond:
     //  Closes file access, if the file is open.
+    //  Trailing free blocks are returned to the host, as trim does.
     public void close(){
-        if(access == null)return;
+        state_lock.writeLock().lock();
         try {
+            if(access == null)return;
+            if(journal != null){
+                journal.commit(journal_file);
+                journal.checkpoint(journal_file);
+            }
+            if(used_map != null)release_tail();
             access.close();
             access = null;
+            channel = null;
         } catch (IOException exp){
             System.err.println("Problem closing hard disk.");
             exp.printStackTrace();
             System.exit(200);
+        } finally {
+            state_lock.writeLock().unlock();
         }
     }
 
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Makes every write since the last commit durable as a single group.
+    //  Does nothing if the disk is not journaled.
+    public void commit(){
+        if(journal == null)return;
+        state_lock.readLock().lock();
+        try {
+            if(access == null)return;
+            journal.commit(journal_file);
+        } catch (IOException exp){
+            System.err.println("Problem committing hard disk journal.");
+            exp.printStackTrace();
+            System.exit(201);
+        } finally {
+            state_lock.readLock().unlock();
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns true if the hard disk file is open.
+    public boolean is_open(){
+        return access != null;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns true if writes to the disk go through a write-ahead journal.
+    public boolean is_journaled(){
+        return journal != null;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the most bytes of writes, counting 12 bytes per write, that are committed as one
+    //  group. Writes past it between two commits are split over several groups.
+    //  Returns 0 if the disk is not journaled.
+    public long journal_group_limit(){
+        return (journal == null) ? 0 : journal.group_limit();
+    }
+
     //=========================
     //  Hard Disk Read/Write
     //=========================
@@ -177,21 +349,36 @@ public class ManagedHardDisk {
     //  Sets the block flag to in-use.
     //  WARNING: This does not prevent writing past block boundary.
     public void write_bytes(byte[] bytes, long block, long offset){
-        if(access == null){
-            System.err.println("Attempted to write to a closed hard disk.");
-            System.exit(201);
-        }
+        long started = metrics.start();
+        boolean[] held = lock_span(block, offset, bytes.length, true);
         try{
-            long data_addr = compute_address(block, offset);
-            long block_flag = compute_address(block, -1);
-            access.seek(block_flag);
-            access.writeByte(1);
-            access.seek(data_addr);
-            access.write(bytes);
+            if(access == null){
+                System.err.println("Attempted to write to a closed hard disk.");
+                System.exit(201);
+            }
+            if(checksums){
+                write_checked(bytes, block, offset);
+                return;
+            }
+            long block_flag = block_address(block);
+            if(offset == 0){
+                byte[] flagged = new byte[bytes.length + 1];
+                flagged[0] = 1;
+                System.arraycopy(bytes, 0, flagged, 1, bytes.length);
+                store(block_flag, flagged);
+            }
+            else{
+                store(block_flag, new byte[]{1});
+                store(compute_address(block, offset), bytes.clone());
+            }
+            used_map.set_used(block);
         } catch (IOException exp){
             System.err.println("Problem writing bytes to disk.");
             exp.printStackTrace();
             System.exit(201);
+        } finally {
+            unlock_blocks(held, true);
+            metrics.record(Operation.WRITE, started, bytes.length);
         }
     }
 
@@ -205,21 +392,33 @@ public class ManagedHardDisk {
     //  Sets the block flag to in-use.
     //  WARNING: This does not prevent writing past block boundary.
     public void write_byte(byte val, long block, long offset){
-        if(access == null){
-            System.err.println("Attempted to write to a closed hard disk.");
-            System.exit(201);
-        }
+        long started = metrics.start();
+        boolean[] held = lock_span(block, offset, 1, true);
         try{
-            long data_addr = compute_address(block, offset);
-            long block_flag = compute_address(block, -1);
-            access.seek(block_flag);
-            access.writeByte(1);
-            access.seek(data_addr);
-            access.writeByte(val);
+            if(access == null){
+                System.err.println("Attempted to write to a closed hard disk.");
+                System.exit(201);
+            }
+            if(checksums){
+                write_checked(new byte[]{val}, block, offset);
+                return;
+            }
+            long block_flag = block_address(block);
+            if(offset == 0){
+                store(block_flag, new byte[]{1, val});
+            }
+            else{
+                store(block_flag, new byte[]{1});
+                store(compute_address(block, offset), new byte[]{val});
+            }
+            used_map.set_used(block);
         } catch (IOException exp){
             System.err.println("Problem writing bytes to disk.");
             exp.printStackTrace();
             System.exit(201);
+        } finally {
+            unlock_blocks(held, true);
+            metrics.record(Operation.WRITE, started, 1);
         }
     }
 
@@ -232,19 +431,23 @@ public class ManagedHardDisk {
     //  Reads the bytes at the specified location.
     //  WARNING: This does not prevent reading past block boundary.
     public byte[] read_bytes(int length, long block, long offset){
-        if(access == null){
-            System.err.println("Attempted to read from a closed hard disk.");
-            System.exit(202);
-        }
+        long started = metrics.start();
         byte[] buffer = new byte[length];
+        boolean[] held = lock_span(block, offset, length, false);
         try{
-            long data_addr = compute_address(block, offset);
-            access.seek(data_addr);
-            access.read(buffer);
+            if(access == null){
+                System.err.println("Attempted to read from a closed hard disk.");
+                System.exit(202);
+            }
+            if(checksums)return read_checked(length, block, offset);
+            read_at(compute_address(block, offset), buffer);
         } catch (IOException exp){
             System.err.println("Problem reading bytes from disk.");
             exp.printStackTrace();
             System.exit(202);
+        } finally {
+            unlock_blocks(held, false);
+            metrics.record(Operation.READ, started, length);
         }
         return buffer;
     }
@@ -257,20 +460,207 @@ public class ManagedHardDisk {
     //  Reads the bytes at the specified location.
     //  WARNING: This does not prevent reading past block boundary.
     public byte read_byte(long block, long offset){
-        if(access == null){
-            System.err.println("Attempted to read from a closed hard disk.");
+        long started = metrics.start();
+        boolean[] held = lock_span(block, offset, 1, false);
+        try{
+            if(access == null){
+                System.err.println("Attempted to read from a closed hard disk.");
+                System.exit(202);
+            }
+            if(checksums)return read_checked(1, block, offset)[0];
+            byte[] buffer = new byte[1];
+            read_at(compute_address(block, offset), buffer);
+            return buffer[0];
+        } catch (IOException exp){
+            System.err.println("Problem reading bytes from disk.");
+            exp.printStackTrace();
             System.exit(202);
+        } finally {
+            unlock_blocks(held, false);
+            metrics.record(Operation.READ, started, 1);
         }
+        return 0;
+    }
+
+    //Precond:
+    //  block is the first block to read.
+    //  count is the number of consecutive blocks to read.
+    //
+    //Postcond:
+    //  Returns the data of count consecutive blocks, without block flags, read in a single access.
+    public byte[] read_blocks(long block, int count){
+        long started = metrics.start();
+        int size = block_size;
+        byte[] result = new byte[count*size];
+        boolean[] held = lock_blocks(block, count, false);
         try{
-            long data_addr = compute_address(block, offset);
-            access.seek(data_addr);
-            return access.readByte();
+            if(access == null){
+                System.err.println("Attempted to read from a closed hard disk.");
+                System.exit(202);
+            }
+            byte[] raw = read_raw(block, count);
+            for(int i = 0;i < count;i++){
+                int base = (int)(i*stride);
+                if(checksums)check_block(raw, base, block + i);
+                System.arraycopy(raw, base + block_header, result, i*size, size);
+            }
         } catch (IOException exp){
             System.err.println("Problem reading bytes from disk.");
             exp.printStackTrace();
             System.exit(202);
+        } finally {
+            unlock_blocks(held, false);
+            metrics.record(Operation.READ, started, (long)count*block_size);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  data is the data to store, at most count blocks long.
+    //  block is the first block to write.
+    //  count is the number of consecutive blocks to write.
+    //
+    //Postcond:
+    //  Writes the data and sets the flag of every block to in-use in a single access.
+    //  Any part of the blocks not covered by data is zero filled.
+    public void write_blocks(byte[] data, long block, int count){
+        long started = metrics.start();
+        boolean[] held = lock_blocks(block, count, true);
+        try{
+            if(access == null){
+                System.err.println("Attempted to write to a closed hard disk.");
+                System.exit(201);
+            }
+            int size = block_size;
+            byte[] raw = new byte[(int)(count*stride)];
+            for(int i = 0;i < count;i++){
+                int base = (int)(i*stride);
+                int start = i*size;
+                int length = Math.min(size, data.length - start);
+                if(length > 0)System.arraycopy(data, start, raw, base + block_header, length);
+                seal_block(raw, base);
+            }
+            store(block_address(block), raw);
+            used_map.set_used(block, block + count);
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        } finally {
+            unlock_blocks(held, true);
+            metrics.record(Operation.WRITE, started, (long)count*block_size);
         }
-        return 0;
+    }
+
+    //Precond:
+    //  segments lists the ranges to read, each with an offset of at least 0.
+    //
+    //Postcond:
+    //  Returns the bytes of every segment, one after another in list order.
+    //  Segments are read in address order, with one positional read for each group of
+    //  segments separated by no more than a block.
+    public byte[] read_vectored(List<DiskSegment> segments){
+        long started = metrics.start();
+        byte[] result = new byte[DiskSegment.total_length(segments)];
+        boolean[] held = lock_segments(segments, false);
+        try{
+            if(access == null){
+                System.err.println("Attempted to read from a closed hard disk.");
+                System.exit(202);
+            }
+            if(checksums)transfer_checked(segments, result, false);
+            else gather(segments, result);
+        } catch (IOException exp){
+            System.err.println("Problem reading bytes from disk.");
+            exp.printStackTrace();
+            System.exit(202);
+        } finally {
+            unlock_blocks(held, false);
+            metrics.record(Operation.READ, started, result.length);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  data holds the bytes of every segment, one after another in list order.
+    //  segments lists the ranges to write, each with an offset of at least 0, they must not overlap.
+    //
+    //Postcond:
+    //  Writes each segment and sets the flag of the blocks written to in-use.
+    //  Segments are written in address order, with one write for each group of touching segments.
+    //  Any part of the segments not covered by data is zero filled.
+    public void write_vectored(byte[] data, List<DiskSegment> segments){
+        long started = metrics.start();
+        int total = DiskSegment.total_length(segments);
+        if(data.length < total)data = Arrays.copyOf(data, total);
+        boolean[] held = lock_segments(segments, true);
+        try{
+            if(access == null){
+                System.err.println("Attempted to write to a closed hard disk.");
+                System.exit(201);
+            }
+            if(checksums)transfer_checked(segments, data, true);
+            else scatter(data, segments);
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        } finally {
+            unlock_blocks(held, true);
+            metrics.record(Operation.WRITE, started, total);
+        }
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns false if the block is in-use and its data does not match its stored checksum.
+    //  Returns true for free blocks, for disks without checksums and while the disk is closed,
+    //  a closed disk is not opened to check it.
+    public boolean verify_block(long block){
+        if(!checksums)return true;
+        boolean[] held = lock_blocks(block, 1, false);
+        try{
+            if(access == null)return true;
+            byte[] raw = read_raw(block, 1);
+            return raw[0] == 0 || stored_checksum(raw, 0) == checksum(raw, 0);
+        } catch (IOException exp){
+            System.err.println("Problem reading bytes from disk.");
+            exp.printStackTrace();
+            System.exit(202);
+        } finally {
+            unlock_blocks(held, false);
+        }
+        return false;
+    }
+
+    //Precond:
+    //  filename is the name of the file to store the clone's changes in.
+    //
+    //Postcond:
+    //  Returns a writable copy-on-write clone of this disk, created without copying any blocks.
+    //  The clone never writes to this disk.
+    public OverlayHardDisk clone_image(String filename){
+        return OverlayHardDisk.create(this, filename);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the disk's operation counts and latencies, which may be read while the disk is in use.
+    public DiskMetrics get_metrics(){
+        return metrics;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns true if every block stores a checksum of its data.
+    public boolean has_checksums(){
+        return checksums;
     }
 
     //========================
@@ -282,22 +672,37 @@ public class ManagedHardDisk {
     //
     //Postcond:
     //  Performs a quick format of the hard disk.
+    //  The file is cut back to the end of the journal, blocks past the end of the file read as free
+    //  zero blocks and the file grows again as they are written.
     public void format(){
+        long started = metrics.start();
+        state_lock.writeLock().lock();
         open();
         try{
-            access.setLength(disk_size);
+            access.setLength(data_start);
             access.seek(0);
-            access.write(magic);
-            access.writeInt(blocks);
+            access.write(magic, 0, magic.length - 1);
+            access.writeByte(version);
+            if(version == magic[magic.length - 1])access.writeLong(blocks);
+            else access.writeInt((int)blocks);
+            if(version != legacy_version){
+                int features = (journal != null) ? journal_feature : 0;
+                if(checksums)features |= checksum_feature;
+                access.writeInt(block_size);
+                access.writeInt(features);
+                access.writeLong(data_start - preamble_length);
+            }
+            if(journal != null)journal.reset(journal_file);
+            used_map.clear();
         } catch(IOException exp){
             System.err.println("Problem formatting hard disk.");
             exp.printStackTrace();
             System.exit(203);
+        } finally {
+            close();
+            state_lock.writeLock().unlock();
+            metrics.record(Operation.FORMAT, started, blocks);
         }
-        for(long block = 0; block < blocks;block++){
-            free_block(block);
-        }
-        close();
     }
 
     //Precond:
@@ -306,18 +711,22 @@ public class ManagedHardDisk {
     //Postcond:
     //  Changes the block's flag to free.
     public void free_block(long block){
-        if(access == null){
-            System.err.println("Attempted to deleting block data in closed hard disk.");
-            System.exit(204);
-        }
+        long started = metrics.start();
+        boolean[] held = lock_blocks(block, 1, true);
         try{
-            long block_flag = compute_address(block, -1);
-            access.seek(block_flag);
-            access.writeByte(0);
+            if(access == null){
+                System.err.println("Attempted to deleting block data in closed hard disk.");
+                System.exit(204);
+            }
+            store(block_address(block), new byte[]{0});
+            used_map.set_free(block);
         } catch (IOException exp){
             System.err.println("Problem deleting block data from disk.");
             exp.printStackTrace();
             System.exit(204);
+        } finally {
+            unlock_blocks(held, true);
+            metrics.record(Operation.FREE, started, 1);
         }
     }
 
@@ -325,31 +734,190 @@ public class ManagedHardDisk {
     //  None.
     //
     //Postcond:
-    //  Returns the next free block.
+    //  Cuts the file back to the end of the last in-use block, returning the space held by
+    //  trailing free blocks to the host. Pending journal writes are applied first.
+    //  Returns the number of bytes released.
+    public long trim(){
+        state_lock.writeLock().lock();
+        try{
+            if(access == null){
+                System.err.println("Attempted to trim a closed hard disk.");
+                System.exit(204);
+            }
+            if(access.length() <= block_address(used_map.last_used() + 1))return 0;
+            if(journal != null){
+                journal.commit(journal_file);
+                journal.checkpoint(journal_file);
+            }
+            return release_tail();
+        } catch (IOException exp){
+            System.err.println("Problem trimming hard disk.");
+            exp.printStackTrace();
+            System.exit(204);
+        } finally {
+            state_lock.writeLock().unlock();
+        }
+        return 0;
+    }
+
+    //Precond:
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first free block at or after from.
     //  Returns -1 if there is no free block remaining.
-    public long next_free_block(){
+    public long next_free_block(long from){
         if(access == null){
             System.err.println("Attempted to search closed hard disk.");
             System.exit(206);
         }
-        try{
-            for(long block = 0; block < blocks;block++) {
-                long block_flag = compute_address(block, -1);
-                access.seek(block_flag);
-                if(access.readByte() == 0)return block;
+        long block = used_map.next_free(from);
+        metrics.record_scan(((block < 0) ? blocks : block) - Math.max(from, 0));
+        return block;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Reserves a free block for the caller and returns it, -1 if the disk is full.
+    //  The block stays reserved as in-use until it is freed, writing it is up to the caller.
+    //  Searches start where the previous allocation ended so concurrent callers rarely meet.
+    public long allocate_block(){
+        if(access == null){
+            System.err.println("Attempted to search closed hard disk.");
+            System.exit(206);
+        }
+        long start = allocation_hint.get();
+        long block = start;
+        boolean wrapped = false;
+        while(true){
+            block = used_map.next_free(block);
+            if(block < 0 || (wrapped && block >= start)){
+                if(wrapped){
+                    metrics.record_scan(blocks);
+                    return -1;
+                }
+                wrapped = true;
+                block = 0;
+                continue;
             }
-        } catch (IOException exp){
-            System.err.println("Problem checking block data from disk.");
-            exp.printStackTrace();
-            System.exit(204);
+            if(used_map.claim(block)){
+                allocation_hint.set(block + 1);
+                metrics.record_scan(wrapped ? (blocks - start) + block : block - start);
+                return block;
+            }
+        }
+    }
+
+    //Precond:
+    //  count is the number of contiguous blocks required.
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first block of the lowest run of at least count free blocks at or after from.
+    //  Returns -1 if no such run exists.
+    public long next_free_run(int count, long from){
+        if(access == null){
+            System.err.println("Attempted to search closed hard disk.");
+            System.exit(206);
         }
-        return -1;
+        long block = used_map.next_free_run(count, from);
+        metrics.record_scan(((block < 0) ? blocks : block) - Math.max(from, 0));
+        return block;
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //  limit is the largest run length of interest.
+    //
+    //Postcond:
+    //  Returns the number of consecutive free blocks starting at block, at most limit.
+    public int free_run_length(long block, int limit){
+        return used_map.free_run_length(block, limit);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns true if the block's flag is set to free.
+    public boolean is_free(long block){
+        return used_map.is_free(block);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of free blocks remaining on the disk.
+    public long free_blocks(){
+        return used_map.free_count();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of blocks on the disk.
+    public long get_blocks(){
+        return blocks;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of data bytes in a single block.
+    public int get_block_size(){
+        return block_size;
     }
 
     //====================
     //  Private Methods
     //====================
 
+    //Precond:
+    //  The disk file is open.
+    //
+    //Postcond:
+    //  Rebuilds the in-memory block flags from the disk, reading several blocks at a time.
+    private void load_used_map() throws IOException {
+        used_map.clear();
+        int scan_chunk = (int)Math.max(1, scan_length/stride);
+        byte[] raw = new byte[(int)(scan_chunk*stride)];
+        long end = access.length(); //Blocks past the end of the file are free.
+        for(long block = 0;block < blocks && block_address(block) < end;block += scan_chunk){
+            int count = (int)Math.min(scan_chunk, blocks - block);
+            Arrays.fill(raw, (byte)0);
+            access.seek(block_address(block));
+            access.readFully(raw, 0, (int)Math.min(count*stride, end - block_address(block)));
+            for(int i = 0;i < count;i++){
+                if(raw[(int)(i*stride)] != 0)used_map.set_used(block + i);
+            }
+        }
+    }
+
+    //Precond:
+    //  block_size is a requested block size.
+    //
+    //Postcond:
+    //  Returns true if the block size is a power of two from min_block_size to max_block_size.
+    private static boolean valid_block_size(long block_size){
+        return block_size >= min_block_size && block_size <= max_block_size && Long.bitCount(block_size) == 1;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns a fresh set of block range locks.
+    private static ReentrantReadWriteLock[] new_stripes(){
+        ReentrantReadWriteLock[] locks = new ReentrantReadWriteLock[stripe_count];
+        for(int i = 0;i < stripe_count;i++)locks[i] = new ReentrantReadWriteLock();
+        return locks;
+    }
+
     //Precond:
     //  block is the block of the address.
     //  offset is the byte offset of the address.
@@ -357,6 +925,550 @@ public class ManagedHardDisk {
     //Postcond:
     //  Returns the byte address block and offset.
     private long compute_address(long block, long offset){
-        return (((default_block_size+1) * block) + offset) + preamble_length + 1;
+        return block_address(block) + block_header + offset;
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns the address of the block's flag.
+    private long block_address(long block){
+        return data_start + (stride*block);
+    }
+
+    //Precond:
+    //  checksums is true if blocks store a checksum.
+    //
+    //Postcond:
+    //  Sets the per block layout.
+    private void set_layout(boolean checksums){
+        this.checksums = checksums;
+        block_header = checksums ? 1 + Integer.BYTES : 1;
+        stride = block_size + block_header;
+    }
+
+    //Precond:
+    //  block is the first block to read.
+    //  count is the number of consecutive blocks to read.
+    //
+    //Postcond:
+    //  Returns the blocks exactly as stored, flags and checksums included, with journaled writes applied.
+    private byte[] read_raw(long block, int count) throws IOException {
+        byte[] raw = new byte[(int)(count*stride)];
+        read_at(block_address(block), raw);
+        return raw;
+    }
+
+    //Precond:
+    //  length is the number of bytes to read.
+    //  block is the block to read from.
+    //  offset is how far into the block to start, it may be negative or run past the end of the block.
+    //
+    //Postcond:
+    //  Reads every block the range touches in one access, checks them, and returns the range.
+    private byte[] read_checked(int length, long block, long offset) throws IOException {
+        int size = block_size;
+        long first = block + Math.floorDiv(offset, size);
+        int start = (int)Math.floorMod(offset, size);
+        int count = Math.max(1, (start + length + size - 1)/size);
+        byte[] raw = read_raw(first, count);
+        byte[] result = new byte[length];
+        int filled = 0;
+        for(int i = 0;i < count && filled < length;i++){
+            int base = (int)(i*stride);
+            check_block(raw, base, first + i);
+            int from = (i == 0) ? start : 0;
+            int n = Math.min(size - from, length - filled);
+            System.arraycopy(raw, base + block_header + from, result, filled, n);
+            filled += n;
+        }
+        return result;
+    }
+
+    //Precond:
+    //  bytes is the data to write.
+    //  block is the block to write to.
+    //  offset is how far into the block to start, it may be negative or run past the end of the block.
+    //
+    //Postcond:
+    //  Rewrites every block the range touches with new checksums in one access.
+    //  Existing data in those blocks is checked before it is kept.
+    private void write_checked(byte[] bytes, long block, long offset) throws IOException {
+        int size = block_size;
+        long first = block + Math.floorDiv(offset, size);
+        int start = (int)Math.floorMod(offset, size);
+        int count = Math.max(1, (start + bytes.length + size - 1)/size);
+        byte[] raw = read_raw(first, count);
+        int copied = 0;
+        for(int i = 0;i < count;i++){
+            int base = (int)(i*stride);
+            check_block(raw, base, first + i);
+            int from = (i == 0) ? start : 0;
+            int n = Math.min(size - from, bytes.length - copied);
+            System.arraycopy(bytes, copied, raw, base + block_header + from, n);
+            copied += n;
+            seal_block(raw, base);
+        }
+        store(block_address(first), raw);
+        used_map.set_used(first, first + count);
+    }
+
+    //Precond:
+    //  segments lists ranges of a disk without checksums.
+    //  result has room for every segment.
+    //
+    //Postcond:
+    //  Reads the segments into result, one after another in list order.
+    //  Segments are sorted by address and any separated by no more than a block are read together.
+    private void gather(List<DiskSegment> segments, byte[] result) throws IOException {
+        int count = segments.size();
+        long[] address = new long[count];
+        int[] position = new int[count];
+        int at = 0;
+        for(int i = 0;i < count;i++){
+            DiskSegment segment = segments.get(i);
+            address[i] = compute_address(segment.block, segment.offset);
+            position[i] = at;
+            at += segment.length;
+        }
+        Integer[] order = sort_by(address);
+        int i = 0;
+        while(i < count){
+            int first = i;
+            long start = address[order[i]];
+            long end = start + segments.get(order[i]).length;
+            for(i += 1;i < count && address[order[i]] - end <= stride;i++){
+                end = Math.max(end, address[order[i]] + segments.get(order[i]).length);
+            }
+            byte[] run = new byte[(int)(end - start)];
+            read_at(start, run);
+            for(int k = first;k < i;k++){
+                int n = order[k];
+                System.arraycopy(run, (int)(address[n] - start), result, position[n], segments.get(n).length);
+            }
+        }
+    }
+
+    //Precond:
+    //  data holds every segment, one after another in list order.
+    //  segments lists non-overlapping ranges of a disk without checksums.
+    //
+    //Postcond:
+    //  Writes the segments and the flag of each segment's block, the same bytes write_bytes would.
+    //  Writes are sorted by address and any that touch are stored together.
+    private void scatter(byte[] data, List<DiskSegment> segments) throws IOException {
+        ArrayList<Long> starts = new ArrayList<>();
+        ArrayList<byte[]> pieces = new ArrayList<>();
+        int at = 0;
+        for(DiskSegment segment : segments){
+            byte[] piece = new byte[segment.length + ((segment.offset == 0) ? 1 : 0)];
+            System.arraycopy(data, at, piece, piece.length - segment.length, segment.length);
+            if(segment.offset == 0){
+                piece[0] = 1;
+                starts.add(block_address(segment.block));
+            }
+            else{
+                starts.add(block_address(segment.block));
+                pieces.add(new byte[]{1});
+                starts.add(compute_address(segment.block, segment.offset));
+            }
+            pieces.add(piece);
+            at += segment.length;
+        }
+        long[] address = new long[starts.size()];
+        for(int i = 0;i < address.length;i++)address[i] = starts.get(i);
+        Integer[] order = sort_by(address);
+        int i = 0;
+        while(i < order.length){
+            int first = i;
+            long start = address[order[i]];
+            long end = start + pieces.get(order[i]).length;
+            for(i += 1;i < order.length && address[order[i]] <= end;i++){
+                end = Math.max(end, address[order[i]] + pieces.get(order[i]).length);
+            }
+            byte[] run = new byte[(int)(end - start)];
+            for(int k = first;k < i;k++){
+                byte[] piece = pieces.get(order[k]);
+                System.arraycopy(piece, 0, run, (int)(address[order[k]] - start), piece.length);
+            }
+            store(start, run);
+        }
+        for(DiskSegment segment : segments)used_map.set_used(segment.block);
+    }
+
+    //Precond:
+    //  segments lists ranges of a disk with checksums.
+    //  data holds, or has room for, every segment one after another in list order.
+    //  write is true to write data to the segments, false to read the segments into data.
+    //
+    //Postcond:
+    //  Groups the blocks the segments touch into runs of consecutive blocks and reads each run,
+    //  checked, in one access. Writes copy data into the run, reseal it and store it with one write.
+    private void transfer_checked(List<DiskSegment> segments, byte[] data, boolean write) throws IOException {
+        int size = block_size;
+        int count = segments.size();
+        long[] first = new long[count];
+        long[] last = new long[count];
+        int[] position = new int[count];
+        int at = 0;
+        for(int i = 0;i < count;i++){
+            DiskSegment segment = segments.get(i);
+            first[i] = segment.block + Math.floorDiv(segment.offset, size);
+            last[i] = first[i] + Math.max(1, (Math.floorMod(segment.offset, size) + segment.length + size - 1)/size) - 1;
+            position[i] = at;
+            at += segment.length;
+        }
+        Integer[] order = sort_by(first);
+        int i = 0;
+        while(i < count){
+            int group = i;
+            long run_first = first[order[i]];
+            long run_last = last[order[i]];
+            for(i += 1;i < count && first[order[i]] <= run_last + 1;i++){
+                run_last = Math.max(run_last, last[order[i]]);
+            }
+            int blocks_in_run = (int)(run_last - run_first + 1);
+            byte[] raw = read_raw(run_first, blocks_in_run);
+            for(int b = 0;b < blocks_in_run;b++)check_block(raw, (int)(b*stride), run_first + b);
+            for(int k = group;k < i;k++){
+                int n = order[k];
+                DiskSegment segment = segments.get(n);
+                int block = (int)(first[n] - run_first);
+                int from = (int)Math.floorMod(segment.offset, size);
+                int done = 0;
+                while(done < segment.length){
+                    int amount = Math.min(size - from, segment.length - done);
+                    int base = (int)(block*stride) + block_header + from;
+                    if(write)System.arraycopy(data, position[n] + done, raw, base, amount);
+                    else System.arraycopy(raw, base, data, position[n] + done, amount);
+                    done += amount;
+                    from = 0;
+                    block += 1;
+                }
+            }
+            if(write){
+                for(int b = 0;b < blocks_in_run;b++)seal_block(raw, (int)(b*stride));
+                store(block_address(run_first), raw);
+                used_map.set_used(run_first, run_last + 1);
+            }
+        }
+    }
+
+    //Precond:
+    //  keys holds one key per entry.
+    //
+    //Postcond:
+    //  Returns the entry indices in ascending order of key, entries with equal keys keep their order.
+    private static Integer[] sort_by(long[] keys){
+        Integer[] order = new Integer[keys.length];
+        for(int i = 0;i < order.length;i++)order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+        return order;
+    }
+
+    //Precond:
+    //  raw holds a stored block starting at base.
+    //
+    //Postcond:
+    //  Marks the block in-use and, if checksums are kept, stores the checksum of its data.
+    private void seal_block(byte[] raw, int base){
+        raw[base] = 1;
+        if(!checksums)return;
+        int crc = checksum(raw, base);
+        for(int i = Integer.BYTES;i > 0;i--){
+            raw[base + i] = (byte)crc;
+            crc = crc >> 8;
+        }
+    }
+
+    //Precond:
+    //  raw holds a stored block starting at base.
+    //  block is the number of the block.
+    //
+    //Postcond:
+    //  Exits if the block is in-use and its data does not match its stored checksum.
+    private void check_block(byte[] raw, int base, long block){
+        if(raw[base] == 0)return;
+        if(stored_checksum(raw, base) != checksum(raw, base)){
+            System.err.printf("Checksum mismatch in hard disk block %d.\n", block);
+            System.exit(208);
+        }
+    }
+
+    //Precond:
+    //  raw holds a stored block starting at base.
+    //
+    //Postcond:
+    //  Returns the CRC32C of the block's data.
+    private int checksum(byte[] raw, int base){
+        CRC32C crc = new CRC32C();
+        crc.update(raw, base + block_header, block_size);
+        return (int)crc.getValue();
+    }
+
+    //Precond:
+    //  raw holds a stored block, with a checksum, starting at base.
+    //
+    //Postcond:
+    //  Returns the checksum stored in the block.
+    private int stored_checksum(byte[] raw, int base){
+        int result = 0;
+        for(int i = 1;i <= Integer.BYTES;i++){
+            result = (result << 8) | (raw[base + i] & 0xFF);
+        }
+        return result;
+    }
+
+    //Precond:
+    //  address is a file address.
+    //  bytes is the data to write there, it must not be modified afterwards.
+    //
+    //Postcond:
+    //  Adds the write to the journal's current group, or writes it directly if there is no journal.
+    private void store(long address, byte[] bytes) throws IOException {
+        if(journal != null){
+            journal.log(journal_file, address, bytes);
+            return;
+        }
+        metrics.record_access(address, bytes.length);
+        write_channel(address, bytes);
+    }
+
+    //Precond:
+    //  address is a file address.
+    //  buffer is the buffer to fill.
+    //
+    //Postcond:
+    //  Fills the buffer from the file with positional reads, with journaled writes applied.
+    //  Bytes past the end of the file are left zero.
+    private void read_at(long address, byte[] buffer) throws IOException {
+        if(journal != null){
+            //The journal may apply and drop pending writes between the read and the overlay otherwise.
+            synchronized(journal){
+                fill(address, buffer);
+                journal.overlay(address, buffer);
+            }
+            return;
+        }
+        fill(address, buffer);
+    }
+
+    //Precond:
+    //  address is a file address.
+    //  buffer is the buffer to fill.
+    //
+    //Postcond:
+    //  Fills the buffer from the file without moving the shared file pointer.
+    private void fill(long address, byte[] buffer) throws IOException {
+        metrics.record_access(address, buffer.length);
+        read_channel(address, buffer);
+    }
+
+    //Precond:
+    //  address is a file address.
+    //  bytes is the data to write there.
+    //
+    //Postcond:
+    //  Writes the bytes with positional writes, reopening the channel if it is closed under the write.
+    private void write_channel(long address, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        boolean interrupted = Thread.interrupted();
+        try{
+            while(buffer.hasRemaining()){
+                FileChannel current = channel;
+                try{
+                    current.write(buffer, address + buffer.position());
+                } catch (ClosedChannelException exp){
+                    interrupted |= Thread.interrupted();
+                    reopen(current);
+                }
+            }
+        } finally {
+            if(interrupted)Thread.currentThread().interrupt();
+        }
+    }
+
+    //Precond:
+    //  address is a file address.
+    //  buffer is the buffer to fill.
+    //
+    //Postcond:
+    //  Fills the buffer with positional reads, reopening the channel if it is closed under the read.
+    //  Bytes past the end of the file are left zero.
+    private void read_channel(long address, byte[] buffer) throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(buffer);
+        boolean interrupted = Thread.interrupted();
+        try{
+            while(target.hasRemaining()){
+                FileChannel current = channel;
+                try{
+                    if(current.read(target, address + target.position()) < 0)break;
+                } catch (ClosedChannelException exp){
+                    interrupted |= Thread.interrupted();
+                    reopen(current);
+                }
+            }
+        } finally {
+            if(interrupted)Thread.currentThread().interrupt();
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Forces the file's data to the device, reopening the channel if it is closed under the force.
+    private void force_channel() throws IOException {
+        boolean interrupted = Thread.interrupted();
+        try{
+            while(true){
+                FileChannel current = channel;
+                try{
+                    current.force(false);
+                    return;
+                } catch (ClosedChannelException exp){
+                    interrupted |= Thread.interrupted();
+                    reopen(current);
+                }
+            }
+        } finally {
+            if(interrupted)Thread.currentThread().interrupt();
+        }
+    }
+
+    //Precond:
+    //  failed is a channel that was closed under a read or write.
+    //
+    //Postcond:
+    //  Replaces the channel if no other thread has already done so.
+    //  A channel is closed when a thread using it is interrupted, reopening keeps the disk usable
+    //  for every other thread; the interrupt status of the caller is restored by the positional helpers.
+    private void reopen(FileChannel failed) throws IOException {
+        synchronized(handle){
+            if(channel != failed)return;
+            access = new RandomAccessFile(handle, "rw");
+            channel = access.getChannel();
+        }
+    }
+
+    //Precond:
+    //  The disk is open and its journal, if any, has been checkpointed.
+    //
+    //Postcond:
+    //  Cuts the file back to the end of the last in-use block.
+    //  Returns the number of bytes released.
+    private long release_tail() throws IOException {
+        long end = block_address(used_map.last_used() + 1);
+        if(access.length() <= end)return 0;
+        long released = access.length() - end;
+        access.setLength(end);
+        return released;
+    }
+
+    //Precond:
+    //  block is the first block of the range.
+    //  count is the number of blocks in the range.
+    //  exclusive is true to lock the range for writing.
+    //
+    //Postcond:
+    //  Locks the disk against closing and formatting, then locks every stripe covering the range.
+    //  Returns the stripes held, to be passed to unlock_blocks.
+    private boolean[] lock_blocks(long block, long count, boolean exclusive){
+        boolean[] held = new boolean[stripe_count];
+        mark_blocks(held, block, count);
+        return lock_held(held, exclusive);
+    }
+
+    //Precond:
+    //  block is the block of the address.
+    //  offset is the byte offset within the block, it may be negative or run past the block.
+    //  length is the number of bytes in the range.
+    //  exclusive is true to lock the range for writing.
+    //
+    //Postcond:
+    //  Locks every block the byte range touches, including the flag of block.
+    //  Returns the stripes held, to be passed to unlock_blocks.
+    private boolean[] lock_span(long block, long offset, long length, boolean exclusive){
+        boolean[] held = new boolean[stripe_count];
+        mark_span(held, block, offset, length);
+        return lock_held(held, exclusive);
+    }
+
+    //Precond:
+    //  segments lists byte ranges of the disk.
+    //  exclusive is true to lock the ranges for writing.
+    //
+    //Postcond:
+    //  Locks every block any of the ranges touch.
+    //  Returns the stripes held, to be passed to unlock_blocks.
+    private boolean[] lock_segments(List<DiskSegment> segments, boolean exclusive){
+        boolean[] held = new boolean[stripe_count];
+        for(DiskSegment segment : segments)mark_span(held, segment.block, segment.offset, segment.length);
+        return lock_held(held, exclusive);
+    }
+
+    //Precond:
+    //  held has one entry per stripe.
+    //  block is the first block of the range.
+    //  count is the number of blocks in the range.
+    //
+    //Postcond:
+    //  Marks every stripe covering the range.
+    private void mark_blocks(boolean[] held, long block, long count){
+        long first = Math.max(block, 0)/stripe_span;
+        long last = Math.max(block + Math.max(count, 1) - 1, 0)/stripe_span;
+        for(long span = first;span <= last && span - first < stripe_count;span++){
+            held[(int)(span % stripe_count)] = true;
+        }
+    }
+
+    //Precond:
+    //  held has one entry per stripe.
+    //  block, offset and length describe a byte range as for lock_span.
+    //
+    //Postcond:
+    //  Marks every stripe covering a block the range touches, including the flag of block.
+    private void mark_span(boolean[] held, long block, long offset, long length){
+        long start = Math.min(block_address(block), compute_address(block, offset)) - data_start;
+        long end = Math.max(block_address(block) + 1, compute_address(block, offset) + length) - data_start;
+        long first = Math.floorDiv(start, stride);
+        long last = Math.floorDiv(end - 1, stride);
+        //Checksummed reads and writes treat offset as counting only data bytes.
+        first = Math.min(first, block + Math.floorDiv(offset, block_size));
+        last = Math.max(last, block + Math.floorDiv(offset + Math.max(length, 1) - 1, block_size));
+        mark_blocks(held, first, last - first + 1);
+    }
+
+    //Precond:
+    //  held marks the stripes to lock.
+    //  exclusive is true to lock them for writing.
+    //
+    //Postcond:
+    //  Locks the disk against closing and formatting, then locks the stripes in ascending order.
+    //  Returns held.
+    private boolean[] lock_held(boolean[] held, boolean exclusive){
+        state_lock.readLock().lock();
+        for(int i = 0;i < stripe_count;i++){
+            if(!held[i])continue;
+            if(exclusive)stripes[i].writeLock().lock();
+            else stripes[i].readLock().lock();
+        }
+        return held;
+    }
+
+    //Precond:
+    //  held is the result of lock_blocks.
+    //  exclusive matches the lock_blocks call.
+    //
+    //Postcond:
+    //  Releases the stripes and the disk state.
+    private void unlock_blocks(boolean[] held, boolean exclusive){
+        for(int i = stripe_count - 1;i >= 0;i--){
+            if(!held[i])continue;
+            if(exclusive)stripes[i].writeLock().unlock();
+            else stripes[i].readLock().unlock();
+        }
+        state_lock.readLock().unlock();
     }
 }
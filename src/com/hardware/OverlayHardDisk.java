@@ -0,0 +1,552 @@
+/* File: OverlayHardDisk.java
+ * Author: Dr. Michael Andrew Huelsman
+ * Created On: 19 Oct 2026
+ * Licence: GNU GPLv3
+ * Purpose:
+ *  A writable copy-on-write clone of another disk. Only the blocks the clone changes are
+ *  stored, every other block is read from the base disk, which is never written.
+ * Notes:
+ *  Creating an overlay, taking a snapshot, resetting and formatting only touch the overlay
+ *  file header, so they take the same time however large the disk is.
+ *  A snapshot freezes the current overlay under a name and starts a new empty overlay on top
+ *  of it. The frozen layer is read-only and can be the base of any number of clones.
+ *  To remount a chain of layers mount each layer on top of the one below it, oldest first.
+ *  Positions are logical: offset may run past the end of block into the following blocks.
+ *  File structure:
+ *      Header (19 bytes):
+ *          byte 0-2) Magic number.
+ *          byte 3-10) Number of blocks.
+ *          byte 11-14) Block size.
+ *          byte 15-18) Flags, 1 if the base disk is hidden (the overlay was formatted).
+ *      Records, one per changed block:
+ *          byte 0-7) Block number.
+ *          byte 8) 1 if the record holds the block's data, 0 if the block was freed.
+ *          byte 9- ) Data.
+ */
+
+
+package com.hardware;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+
+public class OverlayHardDisk implements BlockDevice {
+    //Constants
+    private static final byte[] magic = {11, 13, 66};
+    private static final int header_length = magic.length + Long.BYTES + Integer.BYTES + Integer.BYTES;
+    private static final int hidden_flag = 1;
+
+    //Creation Methods
+    public static OverlayHardDisk create(BlockDevice base, String filename){
+        OverlayHardDisk disk = new OverlayHardDisk(base, filename, false);
+        disk.open();
+        disk.truncate();
+        disk.close();
+        return disk;
+    }
+
+    public static OverlayHardDisk mount(BlockDevice base, String filename){
+        OverlayHardDisk disk = new OverlayHardDisk(base, filename, false);
+        disk.load();
+        return disk;
+    }
+
+    public static OverlayHardDisk mount_snapshot(BlockDevice base, String filename){
+        OverlayHardDisk disk = new OverlayHardDisk(base, filename, true);
+        disk.load();
+        return disk;
+    }
+
+    //Instance Variables
+    private BlockDevice base;
+    private final int block_size;
+    private final long blocks;
+    private final int record_length;
+    private final String filename;
+    private final File handle;
+    private RandomAccessFile access;
+    private final boolean read_only;
+    private boolean hidden; //True if blocks without a record are free rather than read from base.
+    private HashMap<Long, Long> records; //Block to the address of its record.
+    private HashSet<Long> freed; //Blocks whose record marks them freed.
+    private BlockMap used_map; //Built the first time an allocation query needs it.
+
+    //Precond:
+    //  base is the disk the overlay reads unchanged blocks from.
+    //  filename is the name of the overlay file.
+    //  read_only is true for frozen snapshot layers.
+    //
+    //Postcond:
+    //  Creates an OverlayHardDisk object with no changed blocks.
+    private OverlayHardDisk(BlockDevice base, String filename, boolean read_only){
+        this.base = base;
+        this.filename = filename;
+        this.read_only = read_only;
+        handle = new File(filename);
+        block_size = base.get_block_size();
+        blocks = base.get_blocks();
+        record_length = Long.BYTES + 1 + block_size;
+        records = new HashMap<>();
+        freed = new HashSet<>();
+        hidden = false;
+        used_map = null;
+        access = null;
+    }
+
+    //======================
+    //  File Access Methods
+    //======================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Opens the overlay file and the base disk.
+    public synchronized void open(){
+        base.open();
+        if(access != null)return;
+        try {
+            access = new RandomAccessFile(handle, read_only ? "r" : "rw");
+        } catch (IOException exp){
+            System.err.println("Problem opening hard disk.");
+            exp.printStackTrace();
+            System.exit(200);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Closes the overlay file, if it is open. The base disk is left open.
+    public synchronized void close(){
+        if(access == null)return;
+        try {
+            access.close();
+            access = null;
+        } catch (IOException exp){
+            System.err.println("Problem closing hard disk.");
+            exp.printStackTrace();
+            System.exit(200);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Forces every write so far to the overlay file.
+    public synchronized void commit(){
+        if(access == null || read_only)return;
+        try {
+            access.getChannel().force(false);
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        }
+    }
+
+    //Precond:
+    //  name is the name of the snapshot, usable in a file name.
+    //
+    //Postcond:
+    //  Freezes the current contents as a read-only layer stored in filename.name and continues
+    //  with an empty overlay on top of it.
+    //  Returns the frozen layer.
+    public synchronized OverlayHardDisk snapshot(String name){
+        check_writable();
+        close();
+        String frozen_name = filename + "." + name;
+        File frozen_file = new File(frozen_name);
+        if(frozen_file.exists() || !handle.renameTo(frozen_file)){
+            System.err.println("Problem creating snapshot " + frozen_name);
+            System.exit(201);
+        }
+        OverlayHardDisk frozen = new OverlayHardDisk(base, frozen_name, true);
+        frozen.records = records;
+        frozen.freed = freed;
+        frozen.hidden = hidden;
+        frozen.used_map = used_map;
+        base = frozen;
+        records = new HashMap<>();
+        freed = new HashSet<>();
+        hidden = false;
+        used_map = null;
+        open();
+        truncate();
+        return frozen;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Discards every change made since the overlay was created or last snapshot.
+    public synchronized void reset(){
+        check_writable();
+        open();
+        records.clear();
+        freed.clear();
+        hidden = false;
+        used_map = null;
+        truncate();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the disk the overlay reads unchanged blocks from.
+    public BlockDevice get_base(){
+        return base;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of blocks stored in the overlay.
+    public synchronized int get_changed_blocks(){
+        return records.size();
+    }
+
+    //=========================
+    //  Hard Disk Read/Write
+    //=========================
+
+    //Precond:
+    //  block is the first block to read.
+    //  count is the number of consecutive blocks to read.
+    //
+    //Postcond:
+    //  Returns the data of count consecutive blocks.
+    //  Runs of blocks without a record are read from the base disk in one request.
+    public synchronized byte[] read_blocks(long block, int count){
+        check_open(202, "Attempted to read from a closed hard disk.");
+        byte[] result = new byte[count*block_size];
+        int i = 0;
+        while(i < count){
+            if(hidden || records.containsKey(block + i)){
+                System.arraycopy(block_data(block + i), 0, result, i*block_size, block_size);
+                i++;
+                continue;
+            }
+            int run = 1;
+            while(i + run < count && !records.containsKey(block + i + run))run++;
+            System.arraycopy(base.read_blocks(block + i, run), 0, result, i*block_size, run*block_size);
+            i += run;
+        }
+        return result;
+    }
+
+    //Precond:
+    //  data is the data to store, at most count blocks long.
+    //  block is the first block to write.
+    //  count is the number of consecutive blocks to write.
+    //
+    //Postcond:
+    //  Writes the data to the overlay and sets the flag of every block to in-use.
+    //  Any part of the blocks not covered by data is zero filled.
+    public synchronized void write_blocks(byte[] data, long block, int count){
+        check_writable();
+        byte[] full = data;
+        if(data.length != count*block_size){
+            full = new byte[count*block_size];
+            System.arraycopy(data, 0, full, 0, Math.min(data.length, full.length));
+        }
+        store_blocks(full, block, count);
+    }
+
+    //========================
+    //  Hard Disk Management
+    //========================
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Marks every block free by hiding the base disk and discarding the overlay's records.
+    public synchronized void format(){
+        check_writable();
+        open();
+        records.clear();
+        freed.clear();
+        hidden = true;
+        used_map = null;
+        truncate();
+        close();
+    }
+
+    //Precond:
+    //  block is the block to free.
+    //
+    //Postcond:
+    //  Records the block as freed in the overlay.
+    public synchronized void free_block(long block){
+        check_writable();
+        check_open(204, "Attempted to deleting block data in closed hard disk.");
+        try{
+            Long address = records.get(block);
+            if(address == null){
+                address = access.length();
+                records.put(block, address);
+                access.seek(address);
+                access.write(new byte[record_length]);
+            }
+            access.seek(address);
+            access.writeLong(block);
+            access.writeByte(0);
+            freed.add(block);
+            if(used_map != null)used_map.set_free(block);
+        } catch (IOException exp){
+            System.err.println("Problem deleting block data from disk.");
+            exp.printStackTrace();
+            System.exit(204);
+        }
+    }
+
+    //Precond:
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first free block at or after from.
+    //  Returns -1 if there is no free block remaining.
+    public synchronized long next_free_block(long from){
+        check_open(206, "Attempted to search closed hard disk.");
+        return used_map().next_free(from);
+    }
+
+    //Precond:
+    //  count is the number of contiguous blocks required.
+    //  from is the block to start searching at.
+    //
+    //Postcond:
+    //  Returns the first block of the lowest run of at least count free blocks at or after from.
+    //  Returns -1 if no such run exists.
+    public synchronized long next_free_run(int count, long from){
+        check_open(206, "Attempted to search closed hard disk.");
+        return used_map().next_free_run(count, from);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //  limit is the largest run length of interest.
+    //
+    //Postcond:
+    //  Returns the number of consecutive free blocks starting at block, at most limit.
+    public synchronized int free_run_length(long block, int limit){
+        return used_map().free_run_length(block, limit);
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns true if the block is free.
+    public synchronized boolean is_free(long block){
+        if(records.containsKey(block))return freed.contains(block);
+        return hidden || base.is_free(block);
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of free blocks remaining on the disk.
+    public synchronized long free_blocks(){
+        return used_map().free_count();
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of blocks on the disk.
+    public long get_blocks(){
+        return blocks;
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the number of data bytes in each block.
+    public int get_block_size(){
+        return block_size;
+    }
+
+    //====================
+    //  Private Methods
+    //====================
+
+    //Precond:
+    //  code is the exit code to use if the overlay is closed.
+    //  message describes the attempted operation.
+    //
+    //Postcond:
+    //  Exits if the overlay is not open.
+    private void check_open(int code, String message){
+        if(access == null){
+            System.err.println(message);
+            System.exit(code);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Exits if the overlay is a frozen snapshot.
+    private void check_writable(){
+        if(read_only){
+            System.err.println("Attempted to write to a read-only snapshot.");
+            System.exit(201);
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Returns the map of in-use blocks, building it from the base disk and the records if
+    //  it has not been needed before.
+    private BlockMap used_map(){
+        if(used_map != null)return used_map;
+        used_map = new BlockMap(blocks);
+        for(long block = 0;block < blocks;block++){
+            if(!is_free(block))used_map.set_used(block);
+        }
+        return used_map;
+    }
+
+    //Precond:
+    //  block is a block on the disk.
+    //
+    //Postcond:
+    //  Returns the current data of the block.
+    private byte[] block_data(long block){
+        Long address = records.get(block);
+        if(address == null){
+            if(hidden)return new byte[block_size];
+            return base.read_blocks(block, 1);
+        }
+        byte[] data = new byte[block_size];
+        if(freed.contains(block))return data;
+        try{
+            access.seek(address + Long.BYTES + 1);
+            access.readFully(data);
+        } catch (IOException exp){
+            System.err.println("Problem reading bytes from disk.");
+            exp.printStackTrace();
+            System.exit(202);
+        }
+        return data;
+    }
+
+    //Precond:
+    //  data holds count*block_size bytes.
+    //  block is the first block to store.
+    //  count is the number of consecutive blocks to store.
+    //
+    //Postcond:
+    //  Writes a record for each block, reusing a block's record if it already has one.
+    //  New records are appended with a single write.
+    private void store_blocks(byte[] data, long block, int count){
+        check_open(201, "Attempted to write to a closed hard disk.");
+        try{
+            long end = access.length();
+            ByteBuffer appended = ByteBuffer.allocate(count*record_length);
+            for(int i = 0;i < count;i++){
+                long current = block + i;
+                Long address = records.get(current);
+                if(address == null){
+                    records.put(current, end + appended.position());
+                    appended.putLong(current);
+                    appended.put((byte)1);
+                    appended.put(data, i*block_size, block_size);
+                }
+                else{
+                    ByteBuffer record = ByteBuffer.allocate(record_length);
+                    record.putLong(current);
+                    record.put((byte)1);
+                    record.put(data, i*block_size, block_size);
+                    access.seek(address);
+                    access.write(record.array());
+                }
+                freed.remove(current);
+            }
+            if(appended.position() > 0){
+                access.seek(end);
+                access.write(appended.array(), 0, appended.position());
+            }
+            if(used_map != null)used_map.set_used(block, block + count);
+        } catch (IOException exp){
+            System.err.println("Problem writing bytes to disk.");
+            exp.printStackTrace();
+            System.exit(201);
+        }
+    }
+
+    //Precond:
+    //  The overlay file is open for writing.
+    //
+    //Postcond:
+    //  Writes the header and drops every record from the overlay file.
+    private void truncate(){
+        try{
+            access.setLength(header_length);
+            access.seek(0);
+            access.write(magic);
+            access.writeLong(blocks);
+            access.writeInt(block_size);
+            access.writeInt(hidden ? hidden_flag : 0);
+        } catch (IOException exp){
+            System.err.println("Problem formatting hard disk.");
+            exp.printStackTrace();
+            System.exit(203);
+        }
+    }
+
+    //Precond:
+    //  The overlay file exists.
+    //
+    //Postcond:
+    //  Reads the header and the record index of the overlay file.
+    private void load(){
+        open();
+        try{
+            access.seek(0);
+            for(byte b : magic){
+                if(b != access.readByte())bad_image();
+            }
+            if(access.readLong() != blocks || access.readInt() != block_size)bad_image();
+            hidden = (access.readInt() & hidden_flag) != 0;
+            long count = (access.length() - header_length)/record_length;
+            for(long i = 0;i < count;i++){
+                long address = header_length + i*record_length;
+                access.seek(address);
+                long block = access.readLong();
+                records.put(block, address);
+                if(access.readByte() == 0)freed.add(block);
+            }
+        } catch (IOException exp){
+            bad_image();
+        }
+    }
+
+    //Precond:
+    //  None.
+    //
+    //Postcond:
+    //  Reports that the file is not an overlay of the base disk and exits.
+    private void bad_image(){
+        System.err.println("Problem opening existing hard disk in " + filename);
+        close();
+        System.exit(205);
+    }
+}
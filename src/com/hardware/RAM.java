@@ -38,10 +38,18 @@ public class RAM {
         Arrays.fill(data, (byte)0);
     }
 
+    public int get_size(){
+        return data.length;
+    }
+
     public byte load_byte(int addr){
         return data[addr];
     }
 
+    public byte[] load_bytes(int addr, int length){
+        return Arrays.copyOfRange(data, addr, addr+length);
+    }
+
     public char load_char(int addr){
         char result = 0;
         for(int i = 0;i < HWORD_SIZE;i++){
@@ -68,6 +76,10 @@ public class RAM {
         data[addr] = value;
     }
 
+    public void store_bytes(int addr, byte[] values){
+        System.arraycopy(values, 0, data, addr, values.length);
+    }
+
     public void store_char(int addr, char value){
         for(int i = HWORD_SIZE-1;i >= 0;i--){
             byte temp = (byte)(value & LS_BYTE_MASK);